@@ -25,9 +25,14 @@
  */
 package edu.gatech.mbse.plugins.papyrus.redefinition;
 
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.eclipse.jface.resource.ImageDescriptor;
 import org.eclipse.ui.plugin.AbstractUIPlugin;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceRegistration;
+
+import edu.gatech.mbse.plugins.papyrus.redefinition.analysis.AnalysisCache;
 
 /**
  * The activator class controls the plug-in life cycle
@@ -40,6 +45,13 @@ public class Activator extends AbstractUIPlugin {
 	// The shared instance
 	private static Activator plugin;
 	
+	// Log4J object
+	private static final Logger logger = LogManager.getLogger(Activator.class.getName());
+	
+	// The workspace wide analysis cache, and its service registration
+	private AnalysisCache analysisCache;
+	private ServiceRegistration<?> analysisCacheRegistration;
+	
 	/**
 	 * The constructor
 	 */
@@ -53,6 +65,9 @@ public class Activator extends AbstractUIPlugin {
 	public void start(BundleContext context) throws Exception {
 		super.start(context);
 		plugin = this;
+		
+		analysisCache = new AnalysisCache();
+		analysisCacheRegistration = context.registerService(AnalysisCache.class.getName(), analysisCache, null);
 	}
 
 	/*
@@ -60,6 +75,17 @@ public class Activator extends AbstractUIPlugin {
 	 * @see org.eclipse.ui.plugin.AbstractUIPlugin#stop(org.osgi.framework.BundleContext)
 	 */
 	public void stop(BundleContext context) throws Exception {
+		if (analysisCacheRegistration != null) {
+			analysisCacheRegistration.unregister();
+			analysisCacheRegistration = null;
+		}
+		
+		if (analysisCache != null) {
+			logger.debug("Analysis cache: " + analysisCache.getStatistics());
+			analysisCache.clear();
+			analysisCache = null;
+		}
+		
 		plugin = null;
 		super.stop(context);
 	}
@@ -73,6 +99,15 @@ public class Activator extends AbstractUIPlugin {
 		return plugin;
 	}
 
+	/**
+	 * Returns the workspace wide analysis cache
+	 *
+	 * @return the analysis cache, or null if the plug-in is not started
+	 */
+	public AnalysisCache getAnalysisCache() {
+		return analysisCache;
+	}
+
 	/**
 	 * Returns an image descriptor for the image file at the given
 	 * plug-in relative path
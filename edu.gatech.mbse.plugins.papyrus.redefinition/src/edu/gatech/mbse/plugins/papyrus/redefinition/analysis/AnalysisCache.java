@@ -0,0 +1,579 @@
+/**
+ * Copyright (c) 2015, Model-Based Systems Engineering Center, Georgia Institute of Technology.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ * 
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ * 
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *   
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.gatech.mbse.plugins.papyrus.redefinition.analysis;
+
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.emf.common.notify.Notification;
+import org.eclipse.emf.common.util.TreeIterator;
+import org.eclipse.emf.ecore.EAnnotation;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.EReference;
+import org.eclipse.emf.ecore.resource.Resource;
+import org.eclipse.emf.transaction.ResourceSetChangeEvent;
+import org.eclipse.emf.transaction.ResourceSetListener;
+import org.eclipse.emf.transaction.ResourceSetListenerImpl;
+import org.eclipse.emf.transaction.TransactionalEditingDomain;
+import org.eclipse.emf.transaction.util.TransactionUtil;
+import org.eclipse.uml2.uml.Classifier;
+import org.eclipse.uml2.uml.Constraint;
+import org.eclipse.uml2.uml.Element;
+import org.eclipse.uml2.uml.Namespace;
+import org.eclipse.uml2.uml.util.UMLUtil;
+
+import edu.gatech.mbse.plugins.papyrus.redefinition.Activator;
+
+/**
+ * Workspace wide cache of {@link AnalysisContext}s, one per model, so that editors and
+ * command invocations working on the same model share its indexes. Use
+ * {@link #getSharedContext(Element)} rather than creating contexts directly.
+ * <p>
+ * The cache is bounded by a memory budget. Each context reports its
+ * {@link AnalysisContext#getEstimatedSize() estimated size} as its indexes are built, the cache
+ * keeps a running total, and when the total grows beyond the budget the least recently used
+ * contexts are evicted until it fits again. Contexts are only softly referenced, so the
+ * garbage collector can reclaim them under memory pressure even within the budget. Contexts
+ * of models that have been unloaded are dropped on the next lookup, and editors drop those of
+ * their models with {@link #remove(TransactionalEditingDomain)} when they are closed, so that
+ * the cache does not keep their elements alive.
+ * <p>
+ * For every editing domain with cached contexts, the cache listens to the committed
+ * transactions and {@link AnalysisContext#update(Collection) updates} the contexts of the
+ * domain with the UML elements that changed, including those whose stereotype applications
+ * changed. Other changes, such as to diagrams or annotations, are ignored. Models without an
+ * editing domain would never be updated, so their contexts are not cached.
+ * <p>
+ * The plug-in keeps one instance for the workspace, see
+ * {@link edu.gatech.mbse.plugins.papyrus.redefinition.Activator#getAnalysisCache()}. The cache
+ * is thread safe.
+ */
+public class AnalysisCache {
+
+	/** Log4J object. */
+	private static final Logger logger = LogManager.getLogger(AnalysisCache.class.getName());
+
+	/** System property for the memory budget, in megabytes. */
+	public static final String BUDGET_PROPERTY = "edu.gatech.mbse.plugins.papyrus.redefinition.cacheBudget";
+
+	/** Default memory budget, in megabytes. */
+	public static final int DEFAULT_BUDGET = 64;
+
+	/** Memory budget, in bytes. */
+	private long budget;
+
+	/** Cached contexts by model root, least recently used first. */
+	private final Map<Element, Entry> contexts = new LinkedHashMap<Element, Entry>(16, 0.75f, true);
+
+	/** Sum of the sizes last reported by the cached contexts, in bytes. */
+	private long size = 0;
+
+	/** Listeners by editing domain of the cached models. */
+	private final Map<TransactionalEditingDomain, ResourceSetListener> listeners = new IdentityHashMap<TransactionalEditingDomain, ResourceSetListener>();
+
+	/** Statistics. */
+	private long hits = 0, misses = 0, evictions = 0, collected = 0;
+
+	/** Cached context with the size it last reported. */
+	private static final class Entry {
+
+		/** The context. */
+		private final SoftReference<AnalysisContext> context;
+
+		/** The editing domain of the model, or <b>null</b>. */
+		private final TransactionalEditingDomain domain;
+
+		/** Estimated size, in bytes. */
+		private long size = AnalysisContext.BASE_SIZE;
+
+		/** Constructor. */
+		Entry(AnalysisContext context, TransactionalEditingDomain domain) {
+			this.context = new SoftReference<AnalysisContext>(context);
+			this.domain = domain;
+		}
+
+	}
+
+	/** Updates the contexts of a domain after each commit that changed model elements. */
+	private class Invalidator extends ResourceSetListenerImpl {
+
+		@Override
+		public boolean isPostcommitOnly() {
+			return true;
+		}
+
+		@Override
+		public void resourceSetChanged(ResourceSetChangeEvent event) {
+			Set<Element> changed = new LinkedHashSet<Element>();
+
+			for (Object o : event.getNotifications()) {
+				Notification n = (Notification) o;
+
+				// Annotations, such as classifier fingerprints, are not analysed
+				if (n.isTouch() || n.getNewValue() instanceof EAnnotation
+						|| n.getOldValue() instanceof EAnnotation)
+					continue;
+
+				if (n.getNotifier() instanceof Resource) {
+					// Stereotype applications are contents of the resource. Loading and
+					// unloading resources does not notify their contents.
+					addBaseElements(n.getNewValue(), changed);
+					addBaseElements(n.getOldValue(), changed);
+					continue;
+				}
+
+				Element element = n.getNotifier() instanceof EObject ? getElement((EObject) n.getNotifier()) : null;
+
+				// Diagrams and other non UML objects
+				if (element == null)
+					continue;
+
+				changed.add(element);
+
+				if (n.getFeature() instanceof EReference && ((EReference) n.getFeature()).isContainment()) {
+					addContents(n.getNewValue(), changed);
+					addContents(n.getOldValue(), changed);
+				}
+			}
+
+			if (!changed.isEmpty())
+				update(event.getEditingDomain(), changed);
+		}
+
+	}
+
+	/** Constructor using the budget configured by {@link #BUDGET_PROPERTY}. */
+	public AnalysisCache() {
+		this(1024L * 1024L * Integer.getInteger(BUDGET_PROPERTY, DEFAULT_BUDGET).intValue());
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param budget Memory budget, in bytes
+	 */
+	public AnalysisCache(long budget) {
+		this.budget = budget;
+	}
+
+	/**
+	 * Returns the context of a model from the cache of the plug-in, or a new context if the
+	 * plug-in is not running, e.g. in unit tests.
+	 * 
+	 * @param root The root element of the model
+	 * @return
+	 */
+	public static AnalysisContext getSharedContext(Element root) {
+		Activator plugin = Activator.getDefault();
+		AnalysisCache cache = plugin != null ? plugin.getAnalysisCache() : null;
+
+		return cache != null ? cache.getContext(root) : new AnalysisContext(root);
+	}
+
+	/**
+	 * Returns the context of a model, creating it if it is not cached. The context of a model
+	 * without an editing domain is created anew every time.
+	 * 
+	 * @param root The root element of the model
+	 * @return
+	 */
+	public synchronized AnalysisContext getContext(Element root) {
+		TransactionalEditingDomain domain = TransactionUtil.getEditingDomain(root);
+
+		// Changes to the model could not be tracked
+		if (domain == null)
+			return new AnalysisContext(root);
+
+		sweep();
+
+		Entry entry = contexts.get(root);
+		AnalysisContext context = entry != null ? entry.context.get() : null;
+
+		if (context != null) {
+			hits++;
+			return context;
+		}
+
+		if (entry != null) {
+			collected++;
+			size -= entry.size;
+		}
+
+		misses++;
+
+		context = new AnalysisContext(root, this);
+
+		contexts.put(root, new Entry(context, domain));
+		size += AnalysisContext.BASE_SIZE;
+
+		if (!listeners.containsKey(domain)) {
+			ResourceSetListener listener = new Invalidator();
+			listeners.put(domain, listener);
+			domain.addResourceSetListener(listener);
+		}
+
+		trim(root);
+
+		return context;
+	}
+
+	/**
+	 * Returns the context of a model if it is cached, without creating it.
+	 * 
+	 * @param root The root element of the model
+	 * @return The context, or <b>null</b>
+	 */
+	public synchronized AnalysisContext peek(Element root) {
+		Entry entry = contexts.get(root);
+
+		return entry != null ? entry.context.get() : null;
+	}
+
+	/**
+	 * Drops the context of a model, e.g. when its editor is closed.
+	 * 
+	 * @param root The root element of the model
+	 */
+	public synchronized void remove(Element root) {
+		Entry entry = contexts.remove(root);
+
+		if (entry != null) {
+			size -= entry.size;
+			unlisten();
+		}
+	}
+
+	/**
+	 * Drops the contexts of all models of an editing domain, e.g. when their editor is closed.
+	 * 
+	 * @param domain
+	 */
+	public synchronized void remove(TransactionalEditingDomain domain) {
+		boolean dropped = false;
+
+		for (Iterator<Entry> it = contexts.values().iterator(); it.hasNext();) {
+			Entry entry = it.next();
+
+			if (entry.domain == domain) {
+				size -= entry.size;
+				it.remove();
+				dropped = true;
+			}
+		}
+
+		if (dropped)
+			unlisten();
+	}
+
+	/** Drops all contexts and stops listening to their domains. Statistics are kept. */
+	public synchronized void clear() {
+		contexts.clear();
+		size = 0;
+		unlisten();
+	}
+
+	/**
+	 * Sets the memory budget and evicts contexts that no longer fit.
+	 * 
+	 * @param budget Memory budget, in bytes
+	 */
+	public synchronized void setBudget(long budget) {
+		this.budget = budget;
+		trim(null);
+	}
+
+	/** @return The memory budget, in bytes */
+	public synchronized long getBudget() {
+		return budget;
+	}
+
+	/** @return The number of contexts cached */
+	public synchronized int size() {
+		return contexts.size();
+	}
+
+	/** @return A snapshot of the statistics */
+	public synchronized Statistics getStatistics() {
+		return new Statistics(hits, misses, evictions, collected, contexts.size(), size);
+	}
+
+	/**
+	 * Records the estimated size a context reports, and evicts other contexts if it grew
+	 * beyond the budget. Called by the context, never with the lock of the cache held.
+	 */
+	synchronized void resized(AnalysisContext context, long size) {
+		Entry entry = contexts.get(context.getRoot());
+
+		if (entry == null || entry.context.get() != context)
+			return;
+
+		long delta = size - entry.size;
+		entry.size = size;
+		this.size += delta;
+
+		if (delta > 0 && this.size > budget)
+			trim(context.getRoot());
+	}
+
+	/**
+	 * Updates the contexts of the models of a domain. The contexts are updated outside of the
+	 * lock of the cache, since they report their new size back to it.
+	 */
+	private void update(TransactionalEditingDomain domain, Collection<Element> changed) {
+		List<AnalysisContext> affected = new ArrayList<AnalysisContext>();
+
+		synchronized (this) {
+			for (Entry entry : contexts.values()) {
+				AnalysisContext context = entry.context.get();
+
+				if (entry.domain == domain && context != null)
+					affected.add(context);
+			}
+		}
+
+		for (AnalysisContext context : affected)
+			context.update(changed);
+
+		logger.debug("Updated " + affected.size() + " analysis contexts of " + domain.getID()
+				+ " with " + changed.size() + " changed elements");
+	}
+
+	/**
+	 * Drops contexts reclaimed by the garbage collector and contexts of models that have been
+	 * closed or unloaded.
+	 */
+	private void sweep() {
+		boolean dropped = false;
+
+		for (Iterator<Map.Entry<Element, Entry>> it = contexts.entrySet().iterator(); it.hasNext();) {
+			Map.Entry<Element, Entry> e = it.next();
+
+			if (e.getValue().context.get() == null) {
+				collected++;
+			} else if (isLoaded(e.getKey())) {
+				continue;
+			}
+
+			size -= e.getValue().size;
+			it.remove();
+			dropped = true;
+		}
+
+		if (dropped)
+			unlisten();
+	}
+
+	/**
+	 * Evicts the least recently used contexts until the rest fits the budget, using the sizes
+	 * they last reported. The context of the given root, which was just used, is never
+	 * evicted.
+	 */
+	private void trim(Element keep) {
+		sweep();
+
+		boolean evicted = false;
+
+		// Least recently used first
+		for (Iterator<Map.Entry<Element, Entry>> it = contexts.entrySet().iterator(); it.hasNext() && size > budget;) {
+			Map.Entry<Element, Entry> e = it.next();
+
+			if (e.getKey() == keep)
+				continue;
+
+			size -= e.getValue().size;
+			it.remove();
+			evictions++;
+			evicted = true;
+
+			logger.debug("Evicted analysis context of " + e.getKey());
+		}
+
+		if (evicted)
+			unlisten();
+	}
+
+	/** Stops listening to domains without cached contexts. */
+	private void unlisten() {
+		for (Iterator<Map.Entry<TransactionalEditingDomain, ResourceSetListener>> it = listeners.entrySet().iterator(); it.hasNext();) {
+			Map.Entry<TransactionalEditingDomain, ResourceSetListener> e = it.next();
+			boolean used = false;
+
+			for (Entry entry : contexts.values()) {
+				if (entry.domain == e.getKey()) {
+					used = true;
+					break;
+				}
+			}
+
+			if (!used) {
+				e.getKey().removeResourceSetListener(e.getValue());
+				it.remove();
+			}
+		}
+	}
+
+	/** Returns the UML element an object is, or is a stereotype application of, if any. */
+	private static Element getElement(EObject o) {
+		return o instanceof Element ? (Element) o : UMLUtil.getBaseElement(o);
+	}
+
+	/** Adds the base elements of stereotype applications in a notification value. */
+	private static void addBaseElements(Object value, Set<Element> changed) {
+		if (value instanceof Collection<?>) {
+			for (Object v : (Collection<?>) value)
+				addBaseElements(v, changed);
+		} else if (value instanceof EObject && !(value instanceof Element)) {
+			Element base = UMLUtil.getBaseElement((EObject) value);
+
+			if (base != null)
+				changed.add(base);
+		}
+	}
+
+	/**
+	 * Adds the elements added or removed in a notification value, with the classifiers and
+	 * constraints they contain.
+	 */
+	private static void addContents(Object value, Set<Element> changed) {
+		if (value instanceof Collection<?>) {
+			for (Object v : (Collection<?>) value)
+				addContents(v, changed);
+
+			return;
+		}
+
+		if (!(value instanceof Element))
+			return;
+
+		changed.add((Element) value);
+
+		TreeIterator<EObject> it = ((Element) value).eAllContents();
+
+		while (it.hasNext()) {
+			EObject o = it.next();
+
+			if (o instanceof Classifier || o instanceof Constraint)
+				changed.add((Element) o);
+
+			if (!(o instanceof Namespace))
+				it.prune();
+		}
+	}
+
+	/** Checks whether the model of a root is still loaded. */
+	private static boolean isLoaded(Element root) {
+		Resource resource = root.eResource();
+
+		return resource != null && resource.isLoaded();
+	}
+
+	/**
+	 * Cache statistics.
+	 */
+	public static class Statistics {
+
+		/** Lookups that found a cached context. */
+		private final long hits;
+
+		/** Lookups that had to create a context. */
+		private final long misses;
+
+		/** Contexts evicted to stay within the budget. */
+		private final long evictions;
+
+		/** Contexts reclaimed by the garbage collector. */
+		private final long collected;
+
+		/** Number of contexts cached. */
+		private final int count;
+
+		/** Estimated size of the cached contexts, in bytes. */
+		private final long size;
+
+		/** Constructor. */
+		Statistics(long hits, long misses, long evictions, long collected, int count, long size) {
+			this.hits = hits;
+			this.misses = misses;
+			this.evictions = evictions;
+			this.collected = collected;
+			this.count = count;
+			this.size = size;
+		}
+
+		/** @return The number of lookups that found a cached context */
+		public long getHitCount() {
+			return hits;
+		}
+
+		/** @return The number of lookups that had to create a context */
+		public long getMissCount() {
+			return misses;
+		}
+
+		/** @return The number of contexts evicted to stay within the budget */
+		public long getEvictionCount() {
+			return evictions;
+		}
+
+		/** @return The number of contexts reclaimed by the garbage collector */
+		public long getCollectedCount() {
+			return collected;
+		}
+
+		/** @return The number of contexts cached */
+		public int getCount() {
+			return count;
+		}
+
+		/** @return The estimated size of the cached contexts, in bytes */
+		public long getEstimatedSize() {
+			return size;
+		}
+
+		/** @return The share of lookups that found a cached context */
+		public double getHitRate() {
+			return hits + misses > 0 ? (double) hits / (hits + misses) : 0;
+		}
+
+		@Override
+		public String toString() {
+			return hits + " hits, " + misses + " misses, " + evictions + " evictions, " + collected
+					+ " collected, " + count + " contexts of about " + (size / 1024) + " KB";
+		}
+
+	}
+
+}
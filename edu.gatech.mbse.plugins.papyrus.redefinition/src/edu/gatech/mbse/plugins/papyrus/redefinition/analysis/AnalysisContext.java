@@ -0,0 +1,449 @@
+/**
+ * Copyright (c) 2015, Model-Based Systems Engineering Center, Georgia Institute of Technology.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ * 
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ * 
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *   
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.gatech.mbse.plugins.papyrus.redefinition.analysis;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.emf.common.util.TreeIterator;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.util.EcoreUtil;
+import org.eclipse.uml2.uml.Activity;
+import org.eclipse.uml2.uml.Classifier;
+import org.eclipse.uml2.uml.Constraint;
+import org.eclipse.uml2.uml.Element;
+import org.eclipse.uml2.uml.Namespace;
+
+import edu.gatech.mbse.plugins.papyrus.redefinition.popup.handlers.TransformationHelper;
+
+/**
+ * The derived data of one model that analyses share: the indexes over working principles,
+ * resources and constraints. Indexes are built on first use and kept until invalidated, or
+ * brought up to date by {@link #update(Collection)} as far as they can be.
+ * <p>
+ * The context keeps a running estimate of its size, updated as indexes are built, grow by
+ * memoizing query results, or are dropped, and reports it to the {@link AnalysisCache}
+ * holding it, if any.
+ * <p>
+ * The context is thread safe.
+ */
+public class AnalysisContext {
+
+	/** Estimated size of an empty context, in bytes. */
+	static final long BASE_SIZE = 256;
+
+	/**
+	 * Estimated size of one index entry, in bytes: a map entry or list slot with its share of
+	 * the collection, the boxed values and the nested maps.
+	 */
+	private static final long ENTRY_SIZE = 64;
+
+	/** The root element of the model. */
+	private final Element root;
+
+	/** Constraint index, or <b>null</b> if not built yet. */
+	private ConstraintIndex constraintIndex = null;
+
+	/** Resource usage index, or <b>null</b> if not built yet. */
+	private ResourceUsageIndex resourceUsageIndex = null;
+
+	/** All resources of the model, or <b>null</b> if not collected yet. */
+	private List<Element> resources = null;
+
+	/** Generalization index, or <b>null</b> if not built yet. */
+	private GeneralizationIndex generalizationIndex = null;
+
+	/** Relevance of scenarios, or <b>null</b> if not created yet. */
+	private ScenarioRelevance scenarioRelevance = null;
+
+	/** Composite resource matrix, or <b>null</b> if not built yet. */
+	private CompositeResourceMatrix compositeResourceMatrix = null;
+
+	/** Number of updates and invalidations, to tell whether an {@link IndexBuild} is outdated. */
+	private int modifications = 0;
+
+	/** Estimated size of the indexes built so far, in bytes. */
+	private long size = BASE_SIZE;
+
+	/** The cache holding this context, or <b>null</b>. */
+	private final AnalysisCache cache;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param root The root element of the model
+	 */
+	public AnalysisContext(Element root) {
+		this(root, null);
+	}
+
+	/**
+	 * Constructor for a context held by a cache.
+	 * 
+	 * @param root The root element of the model
+	 * @param cache The cache to report the estimated size to
+	 */
+	AnalysisContext(Element root, AnalysisCache cache) {
+		this.root = root;
+		this.cache = cache;
+	}
+
+	/** @return The root element of the model */
+	public Element getRoot() {
+		return root;
+	}
+
+	/** @return The constraint index of the model */
+	public synchronized ConstraintIndex getConstraintIndex() {
+		if (constraintIndex == null)
+			constraintIndex = new ConstraintIndex(this);
+
+		return constraintIndex;
+	}
+
+	/** @return The resource usage index of the model */
+	public synchronized ResourceUsageIndex getResourceUsageIndex() {
+		if (resourceUsageIndex == null) {
+			resourceUsageIndex = new ResourceUsageIndex(root, this, true);
+
+			// To tell when resources were added or removed
+			getResources();
+		}
+
+		return resourceUsageIndex;
+	}
+
+	/** @return All resources of the model, in model order */
+	public synchronized List<Element> getResources() {
+		if (resources == null) {
+			resources = Collections.unmodifiableList(collectResources());
+			grown(resources.size());
+		}
+
+		return resources;
+	}
+
+	/** @return The generalization index of the model */
+	public synchronized GeneralizationIndex getGeneralizationIndex() {
+		if (generalizationIndex == null)
+			generalizationIndex = new GeneralizationIndex(root, this, true);
+
+		return generalizationIndex;
+	}
+
+	/** @return The relevant resources of processes, sharing what processes have in common */
+	public synchronized ScenarioRelevance getScenarioRelevance() {
+		if (scenarioRelevance == null)
+			scenarioRelevance = new ScenarioRelevance(this);
+
+		return scenarioRelevance;
+	}
+
+	/**
+	 * Returns the composite resource matrix over all resources of the model. The matrix itself
+	 * is not thread safe; callers updating it must synchronize on it.
+	 * 
+	 * @return
+	 */
+	public synchronized CompositeResourceMatrix getCompositeResourceMatrix() {
+		if (compositeResourceMatrix == null) {
+			compositeResourceMatrix = new CompositeResourceMatrix(getResources());
+			grown(compositeResourceMatrix.getEntryCount());
+		}
+
+		return compositeResourceMatrix;
+	}
+
+	/**
+	 * Brings the indexes up to date after model elements changed. The generalization and
+	 * resource usage indexes re-index the classifiers and working principles affected, the
+	 * constraint index forgets the changed constraints, and the composite resource matrix
+	 * recomputes the rows of the changed resources and of the resources inheriting from the
+	 * changed classifiers. If resources were added or removed, the
+	 * resource usage index is rebuilt and the composite resource matrix dropped. The relevance
+	 * of scenarios is always dropped. Indexes not built yet are left alone.
+	 * 
+	 * @param changed The changed elements. Elements added to or removed from the model are
+	 * 		passed with the classifiers and constraints they contain.
+	 */
+	public synchronized void update(Collection<? extends Element> changed) {
+		if (changed.isEmpty())
+			return;
+
+		modifications++;
+		dropScenarioRelevance();
+
+		List<Classifier> classifiers = new ArrayList<Classifier>();
+		IdentitySet<Classifier> seen = new IdentitySet<Classifier>();
+
+		for (Element e : changed) {
+			Constraint constraint = getAncestor(e, Constraint.class);
+			Classifier c = getAncestor(e, Classifier.class);
+
+			if (constraint != null && constraintIndex != null)
+				constraintIndex.invalidate(constraint);
+
+			if (c != null && seen.add(c))
+				classifiers.add(c);
+		}
+
+		if (classifiers.isEmpty())
+			return;
+
+		if (constraintIndex != null)
+			constraintIndex.invalidateWorkingPrinciples();
+
+		// Only classifiers of the model, or removed from it, are indexed
+		List<Classifier> local = new ArrayList<Classifier>();
+
+		for (Classifier c : classifiers) {
+			if (c.eResource() == null || EcoreUtil.isAncestor(root, c))
+				local.add(c);
+		}
+
+		if (generalizationIndex != null) {
+			for (Classifier c : local)
+				generalizationIndex.update(c);
+		}
+
+		if (resources != null && isResourceSetChanged(local)) {
+			// Working principles typing properties by a new resource are not known
+			grown(-resources.size());
+			resources = null;
+			dropCompositeResourceMatrix();
+
+			if (resourceUsageIndex != null) {
+				resourceUsageIndex.rebuild();
+				getResources();
+			}
+
+			return;
+		}
+
+		if (resourceUsageIndex != null)
+			updateWorkingPrinciples(classifiers);
+
+		if (compositeResourceMatrix != null) {
+			GeneralizationIndex generalizations = getGeneralizationIndex();
+
+			synchronized (compositeResourceMatrix) {
+				int before = compositeResourceMatrix.getEntryCount();
+
+				for (Classifier c : local)
+					compositeResourceMatrix.update(c, generalizations);
+
+				grown(compositeResourceMatrix.getEntryCount() - before);
+			}
+		}
+	}
+
+	/** Drops all indexes, e.g. after the model changed substantially. */
+	public synchronized void invalidate() {
+		constraintIndex = null;
+		resources = null;
+		resourceUsageIndex = null;
+		generalizationIndex = null;
+		scenarioRelevance = null;
+		compositeResourceMatrix = null;
+		modifications++;
+
+		size = BASE_SIZE;
+
+		if (cache != null)
+			cache.resized(this, size);
+	}
+
+	/** @return The number of updates and invalidations so far */
+	synchronized int getModificationCount() {
+		return modifications;
+	}
+
+	/** @return Whether the indexes an {@link IndexBuild} builds are all built */
+	synchronized boolean isBuilt() {
+		return generalizationIndex != null && resourceUsageIndex != null && resources != null
+				&& compositeResourceMatrix != null;
+	}
+
+	/**
+	 * Takes over the indexes of an {@link IndexBuild}, where they were not built in the
+	 * meantime, unless the model changed since the build started.
+	 * 
+	 * @param modifications The modification count when the build started
+	 * @param generalizations
+	 * @param usages
+	 * @param resources The resources, in model order
+	 * @param matrix The composite resource matrix over the resources
+	 * @return <b>false</b> if the model changed
+	 */
+	synchronized boolean install(int modifications, GeneralizationIndex generalizations,
+			ResourceUsageIndex usages, List<Element> resources, CompositeResourceMatrix matrix) {
+		if (modifications != this.modifications)
+			return false;
+
+		if (generalizationIndex == null) {
+			generalizationIndex = generalizations;
+			generalizationIndex.reportGrowth();
+		}
+
+		if (resourceUsageIndex == null) {
+			resourceUsageIndex = usages;
+			resourceUsageIndex.reportGrowth();
+		}
+
+		if (this.resources == null) {
+			this.resources = Collections.unmodifiableList(resources);
+			grown(resources.size());
+		}
+
+		if (compositeResourceMatrix == null) {
+			compositeResourceMatrix = matrix;
+			grown(matrix.getEntryCount());
+		}
+
+		return true;
+	}
+
+	/**
+	 * Returns a rough estimate of the memory held by the indexes built so far, for
+	 * {@link AnalysisCache} to weigh contexts against its budget.
+	 * 
+	 * @return The estimate, in bytes
+	 */
+	synchronized long getEstimatedSize() {
+		return size;
+	}
+
+	/**
+	 * Adds index entries to the estimated size, when an index was built or has grown.
+	 * 
+	 * @param entries
+	 */
+	synchronized void grown(long entries) {
+		if (entries == 0)
+			return;
+
+		size += ENTRY_SIZE * entries;
+
+		if (cache != null)
+			cache.resized(this, size);
+	}
+
+	/**
+	 * Re-indexes the working principles affected by changed classifiers: changed activities
+	 * and the activities specializing them, and the working principles using changed resource
+	 * types.
+	 */
+	private void updateWorkingPrinciples(List<Classifier> classifiers) {
+		IdentitySet<Activity> affected = new IdentitySet<Activity>();
+
+		for (Classifier c : classifiers) {
+			if (c instanceof Activity) {
+				affected.add((Activity) c);
+
+				for (Classifier d : getGeneralizationIndex().getDescendants(c)) {
+					if (d instanceof Activity)
+						affected.add((Activity) d);
+				}
+			}
+
+			for (Activity wp : resourceUsageIndex.getWorkingPrinciplesUsing(c).keySet())
+				affected.add(wp);
+		}
+
+		for (int i = 0; i < affected.size(); i++)
+			resourceUsageIndex.update(affected.get(i));
+	}
+
+	/**
+	 * Checks whether resources were added to or removed from the model, or classifiers became
+	 * or stopped being resources.
+	 */
+	private boolean isResourceSetChanged(List<Classifier> classifiers) {
+		IdentitySet<Element> listed = new IdentitySet<Element>(resources.size());
+
+		for (Element r : resources)
+			listed.add(r);
+
+		for (Classifier c : classifiers) {
+			boolean resource = c.eResource() != null && TransformationHelper.isResource(c);
+
+			if (resource != listed.contains(c))
+				return true;
+		}
+
+		return false;
+	}
+
+	/** Drops the composite resource matrix, which is built over the list of resources. */
+	private void dropCompositeResourceMatrix() {
+		if (compositeResourceMatrix != null) {
+			synchronized (compositeResourceMatrix) {
+				grown(-compositeResourceMatrix.getEntryCount());
+			}
+
+			compositeResourceMatrix = null;
+		}
+	}
+
+	/** Drops the relevance of scenarios, which depends on all other indexes. */
+	private void dropScenarioRelevance() {
+		if (scenarioRelevance != null) {
+			grown(-scenarioRelevance.getEntryCount());
+			scenarioRelevance = null;
+		}
+	}
+
+	/** Returns an element, or the closest element containing it, of a type. */
+	private static <T extends Element> T getAncestor(Element e, Class<T> type) {
+		for (EObject o = e; o != null; o = o.eContainer()) {
+			if (type.isInstance(o))
+				return type.cast(o);
+		}
+
+		return null;
+	}
+
+	/** Collects the resources of the model in one walk over the namespaces. */
+	private List<Element> collectResources() {
+		List<Element> resources = new ArrayList<Element>();
+		TreeIterator<EObject> it = root.eAllContents();
+
+		while (it.hasNext()) {
+			EObject o = it.next();
+
+			if (o instanceof Classifier && TransformationHelper.isResource((Element) o))
+				resources.add((Element) o);
+			else if (!(o instanceof Namespace))
+				it.prune();
+		}
+
+		return resources;
+	}
+
+}
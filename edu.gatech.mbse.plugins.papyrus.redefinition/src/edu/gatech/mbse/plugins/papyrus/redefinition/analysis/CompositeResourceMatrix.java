@@ -0,0 +1,463 @@
+/**
+ * Copyright (c) 2015, Model-Based Systems Engineering Center, Georgia Institute of Technology.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ * 
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ * 
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *   
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.gatech.mbse.plugins.papyrus.redefinition.analysis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.uml2.uml.Classifier;
+import org.eclipse.uml2.uml.Element;
+import org.eclipse.uml2.uml.NamedElement;
+import org.eclipse.uml2.uml.Property;
+
+import edu.gatech.mbse.plugins.papyrus.redefinition.popup.handlers.TransformationHelper;
+
+/**
+ * Part multiplicities of composite resources as sparse integer matrices over a shared
+ * resource index: entry (<i>r</i>, <i>p</i>) is the number of resources <i>p</i> a resource
+ * <i>r</i> is composed of.
+ * <p>
+ * The direct matrix counts the resource typed parts of each resource, owned and inherited, in
+ * the same way as {@link TransformationHelper#getResourceParts(Element)}: a part that is
+ * redefined counts only through the property redefining it. The multiplicity of a part is
+ * its lower bound, or 1 for optional parts, so that a part that may be there is never lost
+ * from the structure. The transitive matrix adds the parts of parts, multiplied along the
+ * way. Rows are accumulated sparsely, so that building the matrix takes time in proportion to
+ * its non-zero entries rather than to the square of the number of resources.
+ * <p>
+ * Cyclic compositions (which are errors in the model) are cut where the cycle closes; the
+ * rows built that way are incomplete and are rebuilt on every
+ * {@link #update(Classifier, GeneralizationIndex)}.
+ * <p>
+ * Part resources are added to the index as they are found. When a classifier changes,
+ * {@link #update(Classifier, GeneralizationIndex)} recomputes its row, the rows of the
+ * resources inheriting from it, and the transitive rows of the resources that contain any of
+ * these, and nothing else. {@link AnalysisContext#update(Collection)} does so for the
+ * classifiers changed by each transaction. Not thread safe.
+ */
+public class CompositeResourceMatrix {
+
+	/** Log4J object. */
+	private static final Logger logger = LogManager.getLogger(CompositeResourceMatrix.class.getName());
+
+	/** No columns. */
+	private static final int[] EMPTY = new int[0];
+
+	/** The resources, by index. */
+	private final List<Element> resources = new ArrayList<Element>();
+
+	/** Index of each resource. */
+	private final Map<Element, Integer> index = new IdentityHashMap<Element, Integer>();
+
+	/** Direct parts of each resource: column indexes (ascending) and multiplicities. */
+	private final List<int[]> directColumns = new ArrayList<int[]>();
+	private final List<int[]> directValues = new ArrayList<int[]>();
+
+	/** Transitive parts of each resource, or <b>null</b> where not computed. */
+	private final List<int[]> transitiveColumns = new ArrayList<int[]>();
+	private final List<int[]> transitiveValues = new ArrayList<int[]>();
+
+	/** Whether the transitive row of each resource was cut short at a cycle. */
+	private final List<Boolean> partial = new ArrayList<Boolean>();
+
+	/** Resources directly containing each resource. */
+	private final List<List<Integer>> parents = new ArrayList<List<Integer>>();
+
+	/** Sparse accumulator for transitive rows: sums, and the columns touched. */
+	private long[] sums = new long[0];
+	private int[] touched = new int[0];
+
+	/** Number of direct rows computed by the initial build. */
+	private int built = 0;
+
+	/** Matrices handed out, or <b>null</b> if outdated. */
+	private SparseIntMatrix direct = null, transitive = null;
+
+	/**
+	 * Constructor. Builds the matrices for a set of resources and all resources they are
+	 * composed of.
+	 * 
+	 * @param resources
+	 */
+	public CompositeResourceMatrix(Collection<? extends Element> resources) {
+		this(resources, true);
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param resources
+	 * @param build Whether to build the matrices, rather than have {@link IndexBuild} compute
+	 * 		the rows in batches
+	 */
+	CompositeResourceMatrix(Collection<? extends Element> resources, boolean build) {
+		for (Element r : resources)
+			indexOf(r);
+
+		if (build) {
+			computeDirectRows(Integer.MAX_VALUE);
+			finish();
+		}
+	}
+
+	/** @return The resources, by row and column index */
+	public List<Element> getResources() {
+		return Collections.unmodifiableList(resources);
+	}
+
+	/**
+	 * Returns the row and column index of a resource.
+	 * 
+	 * @param resource
+	 * @return The index, or -1 if the resource is not in the matrix
+	 */
+	public int getIndex(Element resource) {
+		Integer i = index.get(resource);
+
+		return i != null ? i.intValue() : -1;
+	}
+
+	/**
+	 * Checks whether a resource has resource typed parts, like
+	 * {@link TransformationHelper#isCompositeResource(Element)}.
+	 * 
+	 * @param resource
+	 * @return <b>false</b> also if the resource is not in the matrix
+	 */
+	public boolean isComposite(Element resource) {
+		int i = getIndex(resource);
+
+		return i >= 0 && directColumns.get(i).length > 0;
+	}
+
+	/** @return The direct part multiplicities */
+	public SparseIntMatrix getDirect() {
+		if (direct == null)
+			direct = toMatrix(directColumns, directValues);
+
+		return direct;
+	}
+
+	/** @return The part multiplicities through any level of nesting */
+	public SparseIntMatrix getTransitive() {
+		if (transitive == null) {
+			computeTransitive();
+
+			transitive = toMatrix(transitiveColumns, transitiveValues);
+		}
+
+		return transitive;
+	}
+
+	/**
+	 * Recomputes the rows affected by a change of a classifier (its parts, their
+	 * multiplicities or its generalizations): its own row, and those of the specifics in the
+	 * matrix, which inherit its parts. A resource not in the matrix yet is added.
+	 * 
+	 * @param classifier
+	 * @param generalizations The generalization index of the model, up to date with the change
+	 */
+	public void update(Classifier classifier, GeneralizationIndex generalizations) {
+		List<Integer> changed = new ArrayList<Integer>();
+
+		if (TransformationHelper.isResource(classifier) || getIndex(classifier) >= 0)
+			changed.add(Integer.valueOf(indexOf(classifier)));
+
+		for (Classifier d : generalizations.getDescendants(classifier)) {
+			int i = getIndex(d);
+
+			if (d != classifier && i >= 0)
+				changed.add(Integer.valueOf(i));
+		}
+
+		if (changed.isEmpty())
+			return;
+
+		int before = resources.size();
+
+		for (Integer c : changed)
+			computeDirect(c.intValue());
+
+		// New parts found
+		for (int i = before; i < resources.size(); i++)
+			computeDirect(i);
+
+		// The changed rows and everything containing them, at any level
+		List<Integer> affected = new ArrayList<Integer>();
+		boolean[] seen = new boolean[resources.size()];
+
+		for (Integer c : changed) {
+			if (!seen[c.intValue()]) {
+				seen[c.intValue()] = true;
+				affected.add(c);
+			}
+		}
+
+		for (int i = 0; i < affected.size(); i++) {
+			for (Integer p : parents.get(affected.get(i).intValue())) {
+				if (!seen[p.intValue()]) {
+					seen[p.intValue()] = true;
+					affected.add(p);
+				}
+			}
+		}
+
+		for (Integer a : affected)
+			clearTransitive(a.intValue());
+
+		// Rows cut short at a cycle may be complete now
+		for (int i = 0; i < resources.size(); i++) {
+			if (partial.get(i).booleanValue())
+				clearTransitive(i);
+		}
+
+		direct = null;
+		transitive = null;
+	}
+
+	/**
+	 * Computes the direct rows of resources not computed yet, for a build in batches. Rows of
+	 * parts found along the way are appended, and computed, too.
+	 * 
+	 * @param count The maximum number of rows to compute
+	 * @return <b>true</b> if rows remain to be computed
+	 */
+	boolean computeDirectRows(int count) {
+		for (; built < resources.size() && count > 0; built++, count--)
+			computeDirect(built);
+
+		return built < resources.size();
+	}
+
+	/** Computes the transitive rows, once all direct rows are known. Reads no model elements. */
+	void finish() {
+		computeTransitive();
+
+		logger.debug("Built composite resource matrix over " + resources.size() + " resources");
+	}
+
+	/** Returns the index of a resource, adding it if needed. */
+	private int indexOf(Element resource) {
+		Integer i = index.get(resource);
+
+		if (i == null) {
+			i = Integer.valueOf(resources.size());
+			index.put(resource, i);
+			resources.add(resource);
+			directColumns.add(EMPTY);
+			directValues.add(EMPTY);
+			transitiveColumns.add(null);
+			transitiveValues.add(null);
+			partial.add(Boolean.FALSE);
+			parents.add(new ArrayList<Integer>());
+		}
+
+		return i.intValue();
+	}
+
+	/** Computes the direct parts of a resource. */
+	private void computeDirect(int r) {
+		Element resource = resources.get(r);
+
+		// Old parents links
+		for (int c : directColumns.get(r))
+			parents.get(c).remove(Integer.valueOf(r));
+
+		Map<Integer, Integer> parts = new TreeMap<Integer, Integer>();
+
+		if (resource instanceof Classifier) {
+			Map<Property, Boolean> skip = new IdentityHashMap<Property, Boolean>();
+
+			for (Element o : resource.getOwnedElements())
+				addPart(o, parts, skip);
+
+			for (NamedElement o : ((Classifier) resource).getInheritedMembers())
+				addPart(o, parts, skip);
+		}
+
+		int[] columns = new int[parts.size()];
+		int[] values = new int[parts.size()];
+		int k = 0;
+
+		for (Map.Entry<Integer, Integer> e : parts.entrySet()) {
+			columns[k] = e.getKey().intValue();
+			values[k++] = e.getValue().intValue();
+			parents.get(columns[k - 1]).add(Integer.valueOf(r));
+		}
+
+		directColumns.set(r, columns);
+		directValues.set(r, values);
+	}
+
+	/** Counts a resource typed part, unless it is redefined. */
+	private void addPart(Element o, Map<Integer, Integer> parts, Map<Property, Boolean> skip) {
+		if (!(o instanceof Property) || skip.containsKey(o))
+			return;
+
+		Property p = (Property) o;
+
+		if (!TransformationHelper.isResource(p.getType()))
+			return;
+
+		for (Property redefined : p.getRedefinedProperties())
+			skip.put(redefined, Boolean.TRUE);
+
+		Integer column = Integer.valueOf(indexOf(p.getType()));
+		Integer count = parts.get(column);
+		int multiplicity = Math.max(1, p.getLower());
+
+		parts.put(column, Integer.valueOf(count != null ? count.intValue() + multiplicity : multiplicity));
+	}
+
+	/** Forgets the transitive row of a resource. */
+	private void clearTransitive(int r) {
+		transitiveColumns.set(r, null);
+		transitiveValues.set(r, null);
+		partial.set(r, Boolean.FALSE);
+	}
+
+	/** Computes the transitive rows that are not known. */
+	private void computeTransitive() {
+		int n = resources.size();
+
+		if (sums.length < n) {
+			sums = new long[n];
+			touched = new int[n];
+		}
+
+		boolean[] onPath = new boolean[n];
+
+		for (int i = 0; i < n; i++)
+			computeTransitive(i, onPath);
+	}
+
+	/**
+	 * Computes the transitive parts of a resource from those of its direct parts.
+	 * 
+	 * @return <b>false</b> if the row is incomplete, because a cycle was cut
+	 */
+	private boolean computeTransitive(int r, boolean[] onPath) {
+		if (transitiveColumns.get(r) != null)
+			return !partial.get(r).booleanValue();
+
+		if (onPath[r]) {
+			logger.warn("Cyclic composition through " + resources.get(r));
+			return false;
+		}
+
+		onPath[r] = true;
+
+		int[] columns = directColumns.get(r);
+		int[] values = directValues.get(r);
+		boolean complete = true;
+
+		// All nested rows first, as the accumulator is shared
+		for (int i = 0; i < columns.length; i++)
+			complete &= computeTransitive(columns[i], onPath);
+
+		int n = 0;
+
+		for (int i = 0; i < columns.length; i++) {
+			n = accumulate(columns[i], values[i], n);
+
+			int[] nestedColumns = transitiveColumns.get(columns[i]);
+			int[] nestedValues = transitiveValues.get(columns[i]);
+
+			// Null only when cut off at a cycle
+			for (int j = 0; nestedColumns != null && j < nestedColumns.length; j++)
+				n = accumulate(nestedColumns[j], (long) values[i] * nestedValues[j], n);
+		}
+
+		Arrays.sort(touched, 0, n);
+
+		int[] resultColumns = new int[n];
+		int[] resultValues = new int[n];
+
+		for (int k = 0; k < n; k++) {
+			int c = touched[k];
+			resultColumns[k] = c;
+			resultValues[k] = (int) Math.min(Integer.MAX_VALUE, sums[c]);
+			sums[c] = 0;
+		}
+
+		transitiveColumns.set(r, resultColumns);
+		transitiveValues.set(r, resultValues);
+		partial.set(r, Boolean.valueOf(!complete));
+
+		onPath[r] = false;
+
+		return complete;
+	}
+
+	/** Adds to a column of the accumulator; returns the new number of touched columns. */
+	private int accumulate(int column, long value, int n) {
+		// Multiplicities are at least 1, so zero means untouched
+		if (sums[column] == 0)
+			touched[n++] = column;
+
+		sums[column] += value;
+
+		return n;
+	}
+
+	/** Builds a matrix from rows. */
+	private SparseIntMatrix toMatrix(List<int[]> columns, List<int[]> values) {
+		int[][] c = columns.toArray(new int[resources.size()][]);
+		int[][] v = values.toArray(new int[resources.size()][]);
+
+		for (int i = 0; i < c.length; i++) {
+			if (c[i] == null) {
+				c[i] = EMPTY;
+				v[i] = EMPTY;
+			}
+		}
+
+		return SparseIntMatrix.fromRows(resources.size(), c, v);
+	}
+
+	/** @return The number of resources and non-zero entries held */
+	int getEntryCount() {
+		int count = resources.size();
+
+		for (int i = 0; i < resources.size(); i++) {
+			count += directColumns.get(i).length;
+
+			if (transitiveColumns.get(i) != null)
+				count += transitiveColumns.get(i).length;
+		}
+
+		return count;
+	}
+
+}
@@ -0,0 +1,350 @@
+/**
+ * Copyright (c) 2015, Model-Based Systems Engineering Center, Georgia Institute of Technology.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ * 
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ * 
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *   
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.gatech.mbse.plugins.papyrus.redefinition.analysis;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.uml2.uml.Activity;
+import org.eclipse.uml2.uml.Classifier;
+import org.eclipse.uml2.uml.Constraint;
+import org.eclipse.uml2.uml.Element;
+import org.eclipse.uml2.uml.NamedElement;
+import org.eclipse.uml2.uml.Namespace;
+import org.eclipse.uml2.uml.OpaqueExpression;
+import org.eclipse.uml2.uml.Property;
+import org.eclipse.uml2.uml.StructuredClassifier;
+import org.eclipse.uml2.uml.ValueSpecification;
+import org.eclipse.uml2.uml.VisibilityKind;
+
+import edu.gatech.mbse.plugins.papyrus.redefinition.expressions.Expression;
+import edu.gatech.mbse.plugins.papyrus.redefinition.expressions.ExpressionParseException;
+import edu.gatech.mbse.plugins.papyrus.redefinition.expressions.ExpressionParser;
+import edu.gatech.mbse.plugins.papyrus.redefinition.expressions.SymbolTable;
+import edu.gatech.mbse.plugins.papyrus.redefinition.popup.handlers.TransformationHelper;
+
+/**
+ * Index of the owned and inherited constraints of working principles.
+ * <p>
+ * Each constraint is classified and its specification parsed exactly once, no matter how
+ * many working principles inherit it. The inherited constraints of a working principle are
+ * derived from the (memoized) entries of its generals instead of from
+ * {@link Classifier#getInheritedMembers()}, so building the index for a whole library of
+ * working principles visits each generalization once.
+ * <p>
+ * All expressions of an index share one {@link SymbolTable}. An index created by an
+ * {@link AnalysisContext} reports its growth, as constraints are parsed on first use, to the
+ * context's estimated size. The index is thread safe.
+ * 
+ * @see TransformationHelper#collectConstraints(Activity)
+ */
+public class ConstraintIndex {
+
+	/** Log4J object. */
+	private static final Logger logger = LogManager.getLogger(ConstraintIndex.class.getName());
+
+	/** Symbol table shared by all parsed specifications. */
+	private final SymbolTable symbols;
+
+	/** Classified and parsed constraints, by constraint. */
+	private final Map<Constraint, IndexedConstraint> constraints = new IdentityHashMap<Constraint, IndexedConstraint>();
+
+	/** Constraints of each working principle seen so far. */
+	private final Map<Activity, WorkingPrincipleConstraints> workingPrinciples = new IdentityHashMap<Activity, WorkingPrincipleConstraints>();
+
+	/** The context to report growth to, or <b>null</b>. */
+	private final AnalysisContext context;
+
+	/** Entry count last added to the context's estimated size. */
+	private int reported = 0;
+
+	/** Constructor. */
+	public ConstraintIndex() {
+		this(new SymbolTable());
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param symbols The symbol table to parse specifications against
+	 */
+	public ConstraintIndex(SymbolTable symbols) {
+		this(symbols, null);
+	}
+
+	/**
+	 * Constructor for the index of a context.
+	 * 
+	 * @param context The context to report growth to
+	 */
+	ConstraintIndex(AnalysisContext context) {
+		this(new SymbolTable(), context);
+	}
+
+	/** Constructor. */
+	private ConstraintIndex(SymbolTable symbols, AnalysisContext context) {
+		this.symbols = symbols;
+		this.context = context;
+	}
+
+	/** @return The symbol table the specifications are parsed against */
+	public SymbolTable getSymbols() {
+		return symbols;
+	}
+
+	/**
+	 * Returns the classified constraints of a working principle.
+	 * 
+	 * @param workingPrinciple
+	 * @return
+	 */
+	public WorkingPrincipleConstraints getConstraints(Activity workingPrinciple) {
+		WorkingPrincipleConstraints entry;
+
+		synchronized (this) {
+			entry = lookup(workingPrinciple, new IdentityHashMap<Classifier, Boolean>());
+		}
+
+		reportGrowth();
+
+		return entry;
+	}
+
+	/**
+	 * Returns a classified constraint.
+	 * 
+	 * @param constraint
+	 * @return
+	 */
+	public IndexedConstraint getConstraint(Constraint constraint) {
+		IndexedConstraint indexed;
+
+		synchronized (this) {
+			indexed = lookup(constraint);
+		}
+
+		reportGrowth();
+
+		return indexed;
+	}
+
+	/**
+	 * Forgets everything derived from a constraint, e.g. after its specification changed.
+	 * 
+	 * @param constraint
+	 */
+	public void invalidate(Constraint constraint) {
+		synchronized (this) {
+			constraints.remove(constraint);
+			workingPrinciples.clear();
+		}
+
+		reportGrowth();
+	}
+
+	/**
+	 * Forgets the constraint sets of all working principles, e.g. after constraints or
+	 * generalizations were added or removed. Parsed specifications are kept.
+	 */
+	public void invalidateWorkingPrinciples() {
+		synchronized (this) {
+			workingPrinciples.clear();
+		}
+
+		reportGrowth();
+	}
+
+	/** Forgets everything. */
+	public void clear() {
+		synchronized (this) {
+			constraints.clear();
+			workingPrinciples.clear();
+		}
+
+		reportGrowth();
+	}
+
+	/** Returns the classified constraint, classifying it if needed. */
+	private IndexedConstraint lookup(Constraint constraint) {
+		IndexedConstraint indexed = constraints.get(constraint);
+
+		if (indexed == null) {
+			indexed = index(constraint);
+			constraints.put(constraint, indexed);
+		}
+
+		return indexed;
+	}
+
+	/**
+	 * Returns the entry of a classifier, building it (and those of its generals) if needed.
+	 * 
+	 * @param c
+	 * @param visiting Classifiers on the current path, to survive cyclic generalizations
+	 * @return
+	 */
+	private WorkingPrincipleConstraints lookup(Classifier c, Map<Classifier, Boolean> visiting) {
+		WorkingPrincipleConstraints entry = c instanceof Activity ? workingPrinciples.get(c) : null;
+
+		if (entry != null)
+			return entry;
+
+		visiting.put(c, Boolean.TRUE);
+
+		List<IndexedConstraint> owned = new ArrayList<IndexedConstraint>();
+		List<IndexedConstraint> inherited = new ArrayList<IndexedConstraint>();
+		Map<Constraint, Boolean> seen = new IdentityHashMap<Constraint, Boolean>();
+
+		for (NamedElement n : c.getOwnedMembers()) {
+			if (n instanceof Constraint
+					&& seen.put((Constraint) n, Boolean.TRUE) == null)
+				owned.add(lookup((Constraint) n));
+		}
+
+		for (Classifier general : c.getGenerals()) {
+			if (visiting.containsKey(general))
+				continue;
+
+			WorkingPrincipleConstraints parent = lookup(general, visiting);
+
+			for (IndexedConstraint ic : parent.getAll()) {
+				// Private members are not inherited
+				if (ic.getConstraint().getVisibility() != VisibilityKind.PRIVATE_LITERAL
+						&& seen.put(ic.getConstraint(), Boolean.TRUE) == null)
+					inherited.add(ic);
+			}
+		}
+
+		visiting.remove(c);
+
+		// Generals that are not activities are indexed too, but only activities are kept
+		entry = new WorkingPrincipleConstraints(c instanceof Activity ? (Activity) c : null, owned, inherited);
+
+		if (c instanceof Activity)
+			workingPrinciples.put((Activity) c, entry);
+
+		return entry;
+	}
+
+	/** Classifies and parses a constraint. */
+	private IndexedConstraint index(Constraint c) {
+		String body = getBody(c.getSpecification());
+		Expression expression = null;
+
+		if (body != null && body.trim().length() > 0) {
+			try {
+				expression = new ExpressionParser(symbols).parse(body);
+			} catch (ExpressionParseException e) {
+				logger.debug("Specification of constraint " + c.getName() + " is not an expression: " + e.getMessage());
+			}
+		}
+
+		IndexedConstraint.Kind kind;
+
+		if (TransformationHelper.isObjective(c))
+			kind = IndexedConstraint.Kind.OBJECTIVE;
+		else if (constrainsDuration(c, expression))
+			kind = IndexedConstraint.Kind.DURATION;
+		else
+			kind = IndexedConstraint.Kind.OTHER;
+
+		return new IndexedConstraint(c, kind, body, expression);
+	}
+
+	/**
+	 * Checks whether a constraint constrains a duration property: either the property is one
+	 * of its constrained elements, or the specification refers to a duration property of the
+	 * constraint's context by name.
+	 */
+	private static boolean constrainsDuration(Constraint c, Expression expression) {
+		for (Element e : c.getConstrainedElements()) {
+			if (e instanceof Property
+					&& TransformationHelper.isDurationProperty((Property) e))
+				return true;
+		}
+
+		Namespace context = c.getContext();
+
+		if (expression == null || !(context instanceof StructuredClassifier))
+			return false;
+
+		List<Expression.Variable> variables = new ArrayList<Expression.Variable>();
+		expression.collectVariables(variables);
+
+		for (Property p : ((StructuredClassifier) context).getOwnedAttributes()) {
+			if (!TransformationHelper.isDurationProperty(p))
+				continue;
+
+			for (Expression.Variable v : variables) {
+				if (v.getName().equals(p.getName()))
+					return true;
+			}
+		}
+
+		return false;
+	}
+
+	/** Returns the text of a specification. */
+	private static String getBody(ValueSpecification spec) {
+		if (spec == null)
+			return null;
+
+		if (spec instanceof OpaqueExpression) {
+			if (((OpaqueExpression) spec).getBodies().isEmpty())
+				return null;
+
+			return ((OpaqueExpression) spec).getBodies().get(0);
+		}
+
+		return spec.stringValue();
+	}
+
+	/** Adds the change of the entry count since the last call to the context's estimated size. */
+	private void reportGrowth() {
+		if (context == null)
+			return;
+
+		int delta;
+
+		synchronized (this) {
+			int count = getEntryCount();
+			delta = count - reported;
+			reported = count;
+		}
+
+		context.grown(delta);
+	}
+
+	/** @return The number of constraints and working principles indexed */
+	synchronized int getEntryCount() {
+		return constraints.size() + workingPrinciples.size();
+	}
+
+}
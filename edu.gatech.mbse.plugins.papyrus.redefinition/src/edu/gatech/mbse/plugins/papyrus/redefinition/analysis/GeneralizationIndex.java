@@ -0,0 +1,305 @@
+/**
+ * Copyright (c) 2015, Model-Based Systems Engineering Center, Georgia Institute of Technology.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ * 
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ * 
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *   
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.gatech.mbse.plugins.papyrus.redefinition.analysis;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.emf.common.util.TreeIterator;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.uml2.uml.Classifier;
+import org.eclipse.uml2.uml.Element;
+import org.eclipse.uml2.uml.Namespace;
+
+import edu.gatech.mbse.plugins.papyrus.redefinition.popup.handlers.TransformationHelper;
+
+/**
+ * Reverse generalization index: the specifics of each classifier of a model.
+ * <p>
+ * Built in one pass over the model, the index answers which concrete resources specialize
+ * an (abstract) resource by walking down from the resource instead of up from every concrete
+ * resource, as {@link TransformationHelper#oneBaseClassifierIsSpecificResource(Element, Classifier)}
+ * does. The concrete descendants of a resource are memoized, so that repeated lookups take
+ * time proportional to the result. When the generalizations of a classifier change,
+ * {@link #update(Classifier)} re-indexes just that one.
+ * <p>
+ * An index created by an {@link AnalysisContext} reports its growth, including the
+ * descendants memoized as they are queried, to the context's estimated size. The index is
+ * thread safe.
+ */
+public class GeneralizationIndex {
+
+	/** Log4J object. */
+	private static final Logger logger = LogManager.getLogger(GeneralizationIndex.class.getName());
+
+	/** The root element of the model. */
+	private final Element root;
+
+	/** General -> its direct specifics, in model order. */
+	private final Map<Classifier, List<Classifier>> specifics = new IdentityHashMap<Classifier, List<Classifier>>();
+
+	/** Classifier -> the generals it was indexed with. */
+	private final Map<Classifier, List<Classifier>> generals = new IdentityHashMap<Classifier, List<Classifier>>();
+
+	/** Concrete resources specializing each resource queried so far. */
+	private final Map<Classifier, List<Classifier>> concreteDescendants = new IdentityHashMap<Classifier, List<Classifier>>();
+
+	/** Number of specifics links, and of memoized descendants. */
+	private int links = 0, memoized = 0;
+
+	/** The context to report growth to, or <b>null</b>. */
+	private final AnalysisContext context;
+
+	/** Entry count last added to the context's estimated size. */
+	private int reported = 0;
+
+	/**
+	 * Constructor. Builds the index.
+	 * 
+	 * @param root The root element of the model
+	 */
+	public GeneralizationIndex(Element root) {
+		this(root, null, true);
+	}
+
+	/**
+	 * Constructor for the index of a context.
+	 * 
+	 * @param root The root element of the model
+	 * @param context The context to report growth to
+	 * @param build Whether to build the index, rather than have {@link IndexBuild} add the
+	 * 		classifiers in batches
+	 */
+	GeneralizationIndex(Element root, AnalysisContext context, boolean build) {
+		this.root = root;
+		this.context = context;
+
+		if (build)
+			rebuild();
+	}
+
+	/** Rebuilds the whole index. */
+	public void rebuild() {
+		synchronized (this) {
+			specifics.clear();
+			generals.clear();
+			concreteDescendants.clear();
+			links = 0;
+			memoized = 0;
+
+			TreeIterator<EObject> it = root.eAllContents();
+			int visited = 0;
+
+			while (it.hasNext()) {
+				EObject o = it.next();
+				visited++;
+
+				if (o instanceof Classifier)
+					add((Classifier) o);
+				else if (!(o instanceof Namespace))
+					it.prune();
+			}
+
+			logger.debug("Indexed " + generals.size() + " classifiers, " + visited + " elements visited");
+		}
+
+		reportGrowth();
+	}
+
+	/**
+	 * Re-indexes a classifier after its generalizations changed, or it was added or removed.
+	 * 
+	 * @param c
+	 */
+	public void update(Classifier c) {
+		synchronized (this) {
+			remove(c);
+
+			if (c.eResource() != null)
+				add(c);
+
+			// Descendants of any of its (old or new) ancestors may have changed
+			concreteDescendants.clear();
+			memoized = 0;
+		}
+
+		reportGrowth();
+	}
+
+	/**
+	 * Indexes classifiers of the model, for a build in batches. Growth is not reported until
+	 * the index is handed to the context.
+	 * 
+	 * @param classifiers
+	 */
+	synchronized void addAll(List<Classifier> classifiers) {
+		for (Classifier c : classifiers)
+			add(c);
+	}
+
+	/**
+	 * Returns the classifiers directly specializing a classifier.
+	 * 
+	 * @param general
+	 * @return
+	 */
+	public synchronized List<Classifier> getSpecifics(Classifier general) {
+		List<Classifier> result = specifics.get(general);
+
+		return result != null ? new ArrayList<Classifier>(result) : new ArrayList<Classifier>();
+	}
+
+	/**
+	 * Returns the concrete resources specializing a resource at any depth. A concrete
+	 * resource is a descendant of itself.
+	 * 
+	 * @param resource
+	 * @return The resources, in breadth first order
+	 */
+	public List<Classifier> getConcreteDescendants(Classifier resource) {
+		List<Classifier> result;
+
+		synchronized (this) {
+			result = concreteDescendants.get(resource);
+
+			if (result != null)
+				return result;
+
+			result = Collections.unmodifiableList(collectConcreteDescendants(resource));
+			concreteDescendants.put(resource, result);
+			memoized += result.size();
+		}
+
+		reportGrowth();
+
+		return result;
+	}
+
+	/**
+	 * Returns the classifiers specializing a classifier at any depth, including itself.
+	 * 
+	 * @param general
+	 * @return The classifiers, in breadth first order
+	 */
+	public synchronized List<Classifier> getDescendants(Classifier general) {
+		List<Classifier> queue = new ArrayList<Classifier>();
+		Map<Classifier, Boolean> seen = new IdentityHashMap<Classifier, Boolean>();
+
+		queue.add(general);
+		seen.put(general, Boolean.TRUE);
+
+		// Cyclic generalizations in broken models are visited once
+		for (int i = 0; i < queue.size(); i++) {
+			List<Classifier> next = specifics.get(queue.get(i));
+
+			if (next == null)
+				continue;
+
+			for (Classifier s : next) {
+				if (seen.put(s, Boolean.TRUE) == null)
+					queue.add(s);
+			}
+		}
+
+		return queue;
+	}
+
+	/** Filters the descendants of a resource. */
+	private List<Classifier> collectConcreteDescendants(Classifier resource) {
+		List<Classifier> result = new ArrayList<Classifier>();
+
+		for (Classifier c : getDescendants(resource)) {
+			if (!TransformationHelper.isAbstract(c) && TransformationHelper.isResource(c))
+				result.add(c);
+		}
+
+		return result;
+	}
+
+	/** Indexes a classifier. */
+	private void add(Classifier c) {
+		List<Classifier> gs = new ArrayList<Classifier>(c.getGenerals());
+		generals.put(c, gs);
+
+		for (Classifier g : gs) {
+			List<Classifier> s = specifics.get(g);
+
+			if (s == null) {
+				s = new ArrayList<Classifier>();
+				specifics.put(g, s);
+			}
+
+			s.add(c);
+			links++;
+		}
+	}
+
+	/** Removes a classifier from the index. */
+	private void remove(Classifier c) {
+		List<Classifier> gs = generals.remove(c);
+
+		if (gs == null)
+			return;
+
+		for (Classifier g : gs) {
+			List<Classifier> s = specifics.get(g);
+
+			if (s != null && s.remove(c)) {
+				links--;
+
+				if (s.isEmpty())
+					specifics.remove(g);
+			}
+		}
+	}
+
+	/** Adds the change of the entry count since the last call to the context's estimated size. */
+	void reportGrowth() {
+		if (context == null)
+			return;
+
+		int delta;
+
+		synchronized (this) {
+			int count = getEntryCount();
+			delta = count - reported;
+			reported = count;
+		}
+
+		context.grown(delta);
+	}
+
+	/** @return The number of generalizations and memoized descendants indexed */
+	synchronized int getEntryCount() {
+		return generals.size() + links + memoized;
+	}
+
+}
@@ -0,0 +1,185 @@
+/**
+ * Copyright (c) 2015, Model-Based Systems Engineering Center, Georgia Institute of Technology.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ * 
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ * 
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *   
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.gatech.mbse.plugins.papyrus.redefinition.analysis;
+
+import java.util.Arrays;
+
+/**
+ * A reusable set of objects compared by identity, meant as a scratch buffer for repeated
+ * queries over model elements.
+ * <p>
+ * EMF objects use identity equality anyway, so the set hashes with
+ * {@link System#identityHashCode(Object)} into an open addressing table, and keeps its
+ * elements in insertion order for iteration by index. Neither adding nor clearing allocates
+ * once the set has grown to the size a query needs, so a buffer can be used for any number of
+ * calls without producing garbage. Not thread safe.
+ * 
+ * @param <E> The element type
+ */
+public final class IdentitySet<E> {
+
+	/** Hash table; length is a power of two. */
+	private Object[] table;
+
+	/** Elements in insertion order. */
+	private Object[] elements;
+
+	/** Number of elements. */
+	private int size = 0;
+
+	/** Constructor. */
+	public IdentitySet() {
+		this(16);
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param expectedSize The number of elements expected
+	 */
+	public IdentitySet(int expectedSize) {
+		int capacity = 4;
+
+		while (capacity < expectedSize * 2)
+			capacity <<= 1;
+
+		table = new Object[capacity];
+		elements = new Object[Math.max(2, expectedSize)];
+	}
+
+	/**
+	 * Adds an element.
+	 * 
+	 * @param e The element, not <b>null</b>
+	 * @return <b>true</b> if the element was not in the set yet
+	 */
+	public boolean add(E e) {
+		if (e == null)
+			throw new IllegalArgumentException("null element");
+
+		if ((size + 1) * 2 > table.length)
+			rehash(table.length * 2);
+
+		int mask = table.length - 1;
+		int i = hash(e) & mask;
+
+		while (table[i] != null) {
+			if (table[i] == e)
+				return false;
+
+			i = (i + 1) & mask;
+		}
+
+		table[i] = e;
+
+		if (size == elements.length)
+			elements = Arrays.copyOf(elements, size * 2);
+
+		elements[size++] = e;
+
+		return true;
+	}
+
+	/**
+	 * Checks whether an object is in the set.
+	 * 
+	 * @param o
+	 * @return
+	 */
+	public boolean contains(Object o) {
+		if (o == null)
+			return false;
+
+		int mask = table.length - 1;
+		int i = hash(o) & mask;
+
+		while (table[i] != null) {
+			if (table[i] == o)
+				return true;
+
+			i = (i + 1) & mask;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Returns an element by insertion order.
+	 * 
+	 * @param index
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	public E get(int index) {
+		if (index >= size)
+			throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+
+		return (E) elements[index];
+	}
+
+	/** @return The number of elements */
+	public int size() {
+		return size;
+	}
+
+	/** @return Whether the set is empty */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/** Removes all elements, keeping the allocated capacity. */
+	public void clear() {
+		if (size == 0)
+			return;
+
+		Arrays.fill(table, null);
+		Arrays.fill(elements, 0, size, null);
+		size = 0;
+	}
+
+	/** Grows the hash table. */
+	private void rehash(int capacity) {
+		table = new Object[capacity];
+		int mask = capacity - 1;
+
+		for (int j = 0; j < size; j++) {
+			int i = hash(elements[j]) & mask;
+
+			while (table[i] != null)
+				i = (i + 1) & mask;
+
+			table[i] = elements[j];
+		}
+	}
+
+	/** Spreads the identity hash code over the low bits. */
+	private static int hash(Object o) {
+		int h = System.identityHashCode(o) * 0x9E3779B9;
+
+		return h ^ (h >>> 16);
+	}
+
+}
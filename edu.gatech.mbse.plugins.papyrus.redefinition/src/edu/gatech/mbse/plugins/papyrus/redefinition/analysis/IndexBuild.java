@@ -0,0 +1,221 @@
+/**
+ * Copyright (c) 2015, Model-Based Systems Engineering Center, Georgia Institute of Technology.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ * 
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ * 
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *   
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.gatech.mbse.plugins.papyrus.redefinition.analysis;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.emf.common.util.TreeIterator;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.uml2.uml.Activity;
+import org.eclipse.uml2.uml.Classifier;
+import org.eclipse.uml2.uml.Element;
+import org.eclipse.uml2.uml.Namespace;
+
+import edu.gatech.mbse.plugins.papyrus.redefinition.popup.handlers.TransformationHelper;
+
+/**
+ * Builds the generalization index, the resource usage index, the list of resources and the
+ * composite resource matrix of an {@link AnalysisContext} in small steps, so that a
+ * background job can read the model in many short read-only transactions rather than one
+ * long one, and holds up writers waiting for the model for one step at most.
+ * <p>
+ * Each {@link #step()} reads about one batch of elements. The model is first walked once for
+ * its classifiers, working principles and resources, then these are indexed, and finally the
+ * direct parts of the resources are computed. The finished indexes are handed to the context
+ * where it has not built them on its own in the meantime. If the model changed between two
+ * steps, the build is abandoned, and the context builds the indexes on first use as usual.
+ * <p>
+ * Steps must run in read-only transactions of the model's editing domain. Not thread safe.
+ */
+public class IndexBuild {
+
+	/** Log4J object. */
+	private static final Logger logger = LogManager.getLogger(IndexBuild.class.getName());
+
+	/** Steps of the build, in order. */
+	private enum Phase {
+		WALK, CLASSIFIERS, WORKING_PRINCIPLES, PARTS, DONE
+	}
+
+	/** The context to build the indexes of. */
+	private final AnalysisContext context;
+
+	/** Number of elements read per step. */
+	private final int batchSize;
+
+	/** The modification count of the context when the build started. */
+	private final int modifications;
+
+	/** The walk over the model, or <b>null</b> if not started yet. */
+	private TreeIterator<EObject> walk = null;
+
+	/** Classifiers, working principles and resources found, in model order. */
+	private final List<Classifier> classifiers = new ArrayList<Classifier>();
+	private final List<Activity> workingPrinciples = new ArrayList<Activity>();
+	private final List<Element> resources = new ArrayList<Element>();
+
+	/** The indexes being built. */
+	private final GeneralizationIndex generalizationIndex;
+	private final ResourceUsageIndex resourceUsageIndex;
+	private CompositeResourceMatrix compositeResourceMatrix = null;
+
+	/** The current phase, and the position within it. */
+	private Phase phase = Phase.WALK;
+	private int position = 0;
+
+	/** Whether the model changed during the build. */
+	private boolean abandoned = false;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param context The context to build the indexes of
+	 * @param batchSize Number of elements to read per step
+	 */
+	public IndexBuild(AnalysisContext context, int batchSize) {
+		this.context = context;
+		this.batchSize = batchSize;
+		this.modifications = context.getModificationCount();
+
+		generalizationIndex = new GeneralizationIndex(context.getRoot(), context, false);
+		resourceUsageIndex = new ResourceUsageIndex(context.getRoot(), context, false);
+
+		if (context.isBuilt())
+			phase = Phase.DONE;
+	}
+
+	/**
+	 * Does the next step of the build. Must run in a read-only transaction.
+	 * 
+	 * @return <b>true</b> if steps remain
+	 */
+	public boolean step() {
+		if (phase == Phase.DONE)
+			return false;
+
+		if (context.getModificationCount() != modifications) {
+			abandon();
+			return false;
+		}
+
+		switch (phase) {
+		case WALK:
+			walk();
+			break;
+		case CLASSIFIERS:
+			generalizationIndex.addAll(next(classifiers));
+
+			if (position == classifiers.size())
+				next(Phase.WORKING_PRINCIPLES);
+			break;
+		case WORKING_PRINCIPLES:
+			resourceUsageIndex.addAll(next(workingPrinciples));
+
+			if (position == workingPrinciples.size())
+				next(Phase.PARTS);
+			break;
+		case PARTS:
+			if (!compositeResourceMatrix.computeDirectRows(batchSize)) {
+				compositeResourceMatrix.finish();
+
+				if (!context.install(modifications, generalizationIndex, resourceUsageIndex, resources, compositeResourceMatrix))
+					abandon();
+
+				next(Phase.DONE);
+			}
+			break;
+		default:
+			break;
+		}
+
+		return phase != Phase.DONE;
+	}
+
+	/** @return Whether the build was abandoned, because the model changed */
+	public boolean isAbandoned() {
+		return abandoned;
+	}
+
+	/** @return The working principles of the model, in model order */
+	public List<Activity> getWorkingPrinciples() {
+		return Collections.unmodifiableList(workingPrinciples);
+	}
+
+	/** Walks the next batch of elements of the model. */
+	private void walk() {
+		if (walk == null)
+			walk = context.getRoot().eAllContents();
+
+		for (int n = 0; n < batchSize && walk.hasNext(); n++) {
+			EObject o = walk.next();
+
+			if (o instanceof Classifier) {
+				classifiers.add((Classifier) o);
+
+				if (TransformationHelper.isResource((Element) o))
+					resources.add((Element) o);
+
+				if (o instanceof Activity && TransformationHelper.isWorkingPrinciple((Activity) o))
+					workingPrinciples.add((Activity) o);
+			} else if (!(o instanceof Namespace)) {
+				walk.prune();
+			}
+		}
+
+		if (!walk.hasNext()) {
+			compositeResourceMatrix = new CompositeResourceMatrix(resources, false);
+			next(Phase.CLASSIFIERS);
+		}
+	}
+
+	/** Returns the next batch of a list. */
+	private <T> List<T> next(List<T> list) {
+		int end = Math.min(list.size(), position + batchSize);
+		List<T> batch = list.subList(position, end);
+		position = end;
+
+		return batch;
+	}
+
+	/** Moves on to a phase. */
+	private void next(Phase phase) {
+		this.phase = phase;
+		position = 0;
+	}
+
+	/** Gives up the build. */
+	private void abandon() {
+		abandoned = true;
+		phase = Phase.DONE;
+
+		logger.debug("Abandoned building the indexes of " + context.getRoot() + ", the model changed");
+	}
+
+}
@@ -0,0 +1,108 @@
+/**
+ * Copyright (c) 2015, Model-Based Systems Engineering Center, Georgia Institute of Technology.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ * 
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ * 
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *   
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.gatech.mbse.plugins.papyrus.redefinition.analysis;
+
+import org.eclipse.uml2.uml.Constraint;
+
+import edu.gatech.mbse.plugins.papyrus.redefinition.expressions.Expression;
+
+/**
+ * A constraint of a working principle, classified and with its specification parsed.
+ * <p>
+ * Instances are created once per constraint by the {@link ConstraintIndex} and shared by
+ * every working principle that owns or inherits the constraint.
+ */
+public class IndexedConstraint {
+
+	/** Classification of constraints. */
+	public enum Kind {
+		/** Stereotyped as objective. */
+		OBJECTIVE,
+		/** Constrains a process duration property. */
+		DURATION,
+		/** Anything else. */
+		OTHER
+	}
+
+	/** The constraint. */
+	private final Constraint constraint;
+
+	/** Its classification. */
+	private final Kind kind;
+
+	/** The text of the specification, if any. */
+	private final String body;
+
+	/** The parsed specification, or <b>null</b> if it could not be parsed. */
+	private final Expression expression;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param constraint
+	 * @param kind
+	 * @param body
+	 * @param expression
+	 */
+	IndexedConstraint(Constraint constraint, Kind kind, String body, Expression expression) {
+		this.constraint = constraint;
+		this.kind = kind;
+		this.body = body;
+		this.expression = expression;
+	}
+
+	/** @return The constraint */
+	public Constraint getConstraint() {
+		return constraint;
+	}
+
+	/** @return The classification of the constraint */
+	public Kind getKind() {
+		return kind;
+	}
+
+	/** @return The text of the specification, or <b>null</b> if there is none */
+	public String getBody() {
+		return body;
+	}
+
+	/**
+	 * Returns the parsed specification. Variables are resolved against the symbol table of the
+	 * index the constraint was obtained from.
+	 * 
+	 * @return The expression, or <b>null</b> if there is no specification or it could not be
+	 * 		parsed
+	 */
+	public Expression getExpression() {
+		return expression;
+	}
+
+	@Override
+	public String toString() {
+		return kind + " " + constraint.getName() + ": " + (expression != null ? expression : body);
+	}
+
+}
@@ -0,0 +1,320 @@
+/**
+ * Copyright (c) 2015, Model-Based Systems Engineering Center, Georgia Institute of Technology.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ * 
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ * 
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *   
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.gatech.mbse.plugins.papyrus.redefinition.analysis;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.eclipse.uml2.uml.Activity;
+import org.eclipse.uml2.uml.Classifier;
+import org.eclipse.uml2.uml.Element;
+
+import edu.gatech.mbse.plugins.papyrus.redefinition.engine.RunReport;
+import edu.gatech.mbse.plugins.papyrus.redefinition.engine.TraceEvent;
+import edu.gatech.mbse.plugins.papyrus.redefinition.popup.handlers.TransformationHelper;
+
+/**
+ * Declarative query for resources over the indexes of an {@link AnalysisContext}, replacing
+ * hand written chains of {@link TransformationHelper#getAllResources(Element, Activity)},
+ * {@link TransformationHelper#getConcreteResources(Element, Activity)},
+ * {@link TransformationHelper#getCompositeResources(java.util.ArrayList)} and
+ * {@link TransformationHelper#getConcreteResourcesForAbstractResourceType(java.util.ArrayList, Element)}:
+ * 
+ * <pre>
+ * List&lt;Element&gt; machines = ResourceQuery.resources().concrete().relevantTo(process)
+ * 		.specializing(machineTool).compositeOnly().execute(context);
+ * </pre>
+ * 
+ * Each query is compiled into a {@link Plan}: the candidates are taken from the most
+ * selective index the query allows (the descendants of a classifier, then the resources
+ * relevant to an activity, then all resources), and the remaining conditions are applied in
+ * one fused pass, cheapest first. Plans depend only on which conditions are set, and are
+ * cached per combination. Results are in the order of the index the candidates come from.
+ */
+public class ResourceQuery {
+
+	/** Where candidates come from, most selective first. */
+	public enum Source {
+		/** The descendants of the classifier to specialize. */
+		SPECIALIZING,
+		/** The resources relevant to the activity. */
+		RELEVANT,
+		/** All resources of the model. */
+		ALL
+	}
+
+	/** Conditions applied to candidates, cheapest first. */
+	public enum Filter {
+		/** Is a resource. */
+		RESOURCE,
+		/** Is not abstract. */
+		CONCRETE,
+		/** Is relevant to the activity. */
+		RELEVANT,
+		/** Has resource typed parts. */
+		COMPOSITE
+	}
+
+	/** Compiled form of a query. */
+	public static class Plan {
+
+		/** Where candidates come from. */
+		private final Source source;
+
+		/** Conditions applied to the candidates, in order. */
+		private final List<Filter> filters;
+
+		/** Constructor. */
+		Plan(Source source, List<Filter> filters) {
+			this.source = source;
+			this.filters = Collections.unmodifiableList(filters);
+		}
+
+		/** @return Where candidates come from */
+		public Source getSource() {
+			return source;
+		}
+
+		/** @return The conditions applied to the candidates, in order */
+		public List<Filter> getFilters() {
+			return filters;
+		}
+
+		@Override
+		public String toString() {
+			return source + " " + filters;
+		}
+
+	}
+
+	/** Shape bits. */
+	private static final int CONCRETE = 1, RELEVANT = 2, SPECIALIZING = 4, COMPOSITE = 8;
+
+	/** Plans by shape. */
+	private static final ConcurrentMap<Integer, Plan> plans = new ConcurrentHashMap<Integer, Plan>();
+
+	/** Conditions. */
+	private boolean concrete = false, composite = false;
+	private Activity activity = null;
+	private Classifier general = null;
+
+	/** The report to record the query in, if any. */
+	private RunReport report = null;
+
+	/** Use {@link #resources()}. */
+	private ResourceQuery() {
+	}
+
+	/** @return A query for all resources */
+	public static ResourceQuery resources() {
+		return new ResourceQuery();
+	}
+
+	/** @return This query, restricted to non-abstract resources */
+	public ResourceQuery concrete() {
+		concrete = true;
+		return this;
+	}
+
+	/**
+	 * Restricts the query to resources relevant to a process, as
+	 * {@link TransformationHelper#isResourceRelevant(Element, Activity, Element)}: resources a
+	 * working principle of its sub-activities needs, their generals and their specifics.
+	 * 
+	 * @param activity The top level activity of the process
+	 * @return This query
+	 */
+	public ResourceQuery relevantTo(Activity activity) {
+		this.activity = activity;
+		return this;
+	}
+
+	/**
+	 * Restricts the query to a classifier and its specifics at any depth.
+	 * 
+	 * @param general
+	 * @return This query
+	 */
+	public ResourceQuery specializing(Classifier general) {
+		this.general = general;
+		return this;
+	}
+
+	/** @return This query, restricted to composite resources */
+	public ResourceQuery compositeOnly() {
+		composite = true;
+		return this;
+	}
+
+	/**
+	 * Records the phases of the query and the candidates visited in the report of the
+	 * operation the query is part of. A query writes no report of its own.
+	 * 
+	 * @param report
+	 * @return This query
+	 */
+	public ResourceQuery reportTo(RunReport report) {
+		this.report = report;
+		return this;
+	}
+
+	/** @return The plan the query is executed with */
+	public Plan getPlan() {
+		Integer shape = Integer.valueOf((concrete ? CONCRETE : 0) | (activity != null ? RELEVANT : 0)
+				| (general != null ? SPECIALIZING : 0) | (composite ? COMPOSITE : 0));
+		Plan plan = plans.get(shape);
+
+		if (plan == null) {
+			plan = compile(shape.intValue());
+			plans.putIfAbsent(shape, plan);
+		}
+
+		return plan;
+	}
+
+	/**
+	 * Executes the query on the context the {@link AnalysisCache} keeps for a model.
+	 * 
+	 * @param root The root element of the model to query
+	 * @return The matching resources
+	 */
+	public List<Element> execute(Element root) {
+		return execute(AnalysisCache.getSharedContext(root));
+	}
+
+	/**
+	 * Executes the query.
+	 * 
+	 * @param context The context of the model to query
+	 * @return The matching resources
+	 */
+	public List<Element> execute(AnalysisContext context) {
+		Plan plan = getPlan();
+		TraceEvent event = TraceEvent.begin("resourceQuery").classifier(activity);
+		long phase = System.nanoTime();
+
+		// Only queries for a process need the relevance index
+		ScenarioRelevance relevance = activity != null ? context.getScenarioRelevance() : null;
+		BitSet relevant = relevance != null ? relevance.getRelevant(activity) : null;
+		List<? extends Element> candidates;
+
+		if (report != null && relevance != null)
+			phase = report.phase("relevance", phase);
+
+		switch (plan.getSource()) {
+		case SPECIALIZING:
+			candidates = context.getGeneralizationIndex().getDescendants(general);
+			break;
+		case RELEVANT:
+			candidates = relevance.toResources(relevant);
+			break;
+		default:
+			candidates = context.getResources();
+		}
+
+		CompositeResourceMatrix matrix = composite ? context.getCompositeResourceMatrix() : null;
+		List<Element> result = new ArrayList<Element>();
+
+		// All filters in one pass
+		for (Element e : candidates) {
+			if (accept(e, plan.getFilters(), relevance, relevant, matrix))
+				result.add(e);
+		}
+
+		if (report != null) {
+			report.phase("resourceQuery", phase);
+			report.visited(candidates.size());
+		}
+
+		event.visited(candidates.size()).end();
+
+		return result;
+	}
+
+	/** Applies the filters of a plan to a candidate. */
+	private boolean accept(Element e, List<Filter> filters, ScenarioRelevance relevance, BitSet relevant,
+			CompositeResourceMatrix matrix) {
+		for (int i = 0; i < filters.size(); i++) {
+			switch (filters.get(i)) {
+			case RESOURCE:
+				if (!(e instanceof Classifier) || !TransformationHelper.isResource(e))
+					return false;
+				break;
+			case CONCRETE:
+				if (!(e instanceof Classifier) || TransformationHelper.isAbstract((Classifier) e))
+					return false;
+				break;
+			case RELEVANT:
+				int index = relevance.indexOf(e);
+
+				if (index < 0 || !relevant.get(index))
+					return false;
+				break;
+			case COMPOSITE:
+				synchronized (matrix) {
+					if (!matrix.isComposite(e))
+						return false;
+				}
+				break;
+			}
+		}
+
+		return true;
+	}
+
+	/** Compiles the plan for a shape. */
+	private static Plan compile(int shape) {
+		Source source;
+		List<Filter> filters = new ArrayList<Filter>();
+
+		if ((shape & SPECIALIZING) != 0)
+			source = Source.SPECIALIZING;
+		else if ((shape & RELEVANT) != 0)
+			source = Source.RELEVANT;
+		else
+			source = Source.ALL;
+
+		// Only the list of all resources is known to contain resources only
+		if (source != Source.ALL)
+			filters.add(Filter.RESOURCE);
+
+		if ((shape & CONCRETE) != 0)
+			filters.add(Filter.CONCRETE);
+
+		if ((shape & RELEVANT) != 0 && source != Source.RELEVANT)
+			filters.add(Filter.RELEVANT);
+
+		if ((shape & COMPOSITE) != 0)
+			filters.add(Filter.COMPOSITE);
+
+		return new Plan(source, filters);
+	}
+
+}
@@ -0,0 +1,378 @@
+/**
+ * Copyright (c) 2015, Model-Based Systems Engineering Center, Georgia Institute of Technology.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ * 
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ * 
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *   
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.gatech.mbse.plugins.papyrus.redefinition.analysis;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.emf.common.util.TreeIterator;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.uml2.uml.Activity;
+import org.eclipse.uml2.uml.Classifier;
+import org.eclipse.uml2.uml.Element;
+import org.eclipse.uml2.uml.Namespace;
+
+import edu.gatech.mbse.plugins.papyrus.redefinition.popup.handlers.TransformationHelper;
+
+/**
+ * Inverted index between resource types and working principles.
+ * <p>
+ * Built in one pass over the model, the index answers in constant time
+ * <ul>
+ * <li>which working principles use a resource type, and how often (the multiplicity is the
+ * number of times the type occurs in
+ * {@link TransformationHelper#getResourceTypesWithDuplicates(Activity)});</li>
+ * <li>which resource types a working principle uses (as
+ * {@link TransformationHelper#getResourceTypes(java.util.ArrayList)});</li>
+ * <li>which working principles implement an (abstract) activity (as
+ * {@link TransformationHelper#getWorkingPrinciples(Activity, java.util.ArrayList)}).</li>
+ * </ul>
+ * When a working principle changes, {@link #update(Activity)} re-indexes just that one.
+ * Results are in model order.
+ * <p>
+ * An index created by an {@link AnalysisContext} reports its growth, including the resource
+ * types of activities memoized as they are queried, to the context's estimated size. The
+ * index is thread safe.
+ */
+public class ResourceUsageIndex {
+
+	/** Log4J object. */
+	private static final Logger logger = LogManager.getLogger(ResourceUsageIndex.class.getName());
+
+	/** The root element of the model. */
+	private final Element root;
+
+	/** All working principles. */
+	private final Set<Activity> workingPrinciples = new LinkedHashSet<Activity>();
+
+	/** Resource type -> working principle -> multiplicity. */
+	private final Map<Element, Map<Activity, Integer>> byResource = new IdentityHashMap<Element, Map<Activity, Integer>>();
+
+	/** Working principle -> resource type -> multiplicity. */
+	private final Map<Activity, Map<Element, Integer>> byWorkingPrinciple = new IdentityHashMap<Activity, Map<Element, Integer>>();
+
+	/** Activity -> working principles implementing it, including itself if it is one. */
+	private final Map<Activity, Set<Activity>> byActivity = new IdentityHashMap<Activity, Set<Activity>>();
+
+	/** Resource types needed by each activity queried so far. */
+	private final Map<Activity, Set<Element>> activityResources = new IdentityHashMap<Activity, Set<Element>>();
+
+	/** Number of working principle / resource type pairs, and of memoized resource types. */
+	private int pairs = 0, memoized = 0;
+
+	/** The context to report growth to, or <b>null</b>. */
+	private final AnalysisContext context;
+
+	/** Entry count last added to the context's estimated size. */
+	private int reported = 0;
+
+	/**
+	 * Constructor. Builds the index.
+	 * 
+	 * @param root The root element of the model
+	 */
+	public ResourceUsageIndex(Element root) {
+		this(root, null, true);
+	}
+
+	/**
+	 * Constructor for the index of a context.
+	 * 
+	 * @param root The root element of the model
+	 * @param context The context to report growth to
+	 * @param build Whether to build the index, rather than have {@link IndexBuild} add the
+	 * 		working principles in batches
+	 */
+	ResourceUsageIndex(Element root, AnalysisContext context, boolean build) {
+		this.root = root;
+		this.context = context;
+
+		if (build)
+			rebuild();
+	}
+
+	/** Rebuilds the whole index. */
+	public void rebuild() {
+		synchronized (this) {
+			workingPrinciples.clear();
+			byResource.clear();
+			byWorkingPrinciple.clear();
+			byActivity.clear();
+			activityResources.clear();
+			pairs = 0;
+			memoized = 0;
+
+			TreeIterator<EObject> it = root.eAllContents();
+			int visited = 0;
+
+			while (it.hasNext()) {
+				EObject o = it.next();
+				visited++;
+
+				if (o instanceof Activity && TransformationHelper.isWorkingPrinciple((Activity) o))
+					add((Activity) o);
+				else if (!(o instanceof Namespace))
+					it.prune();
+			}
+
+			logger.debug("Indexed " + workingPrinciples.size() + " working principles, "
+					+ byResource.size() + " resource types, " + visited + " elements visited");
+		}
+
+		reportGrowth();
+	}
+
+	/**
+	 * Re-indexes a working principle after it changed, or was added or removed.
+	 * 
+	 * @param workingPrinciple
+	 */
+	public void update(Activity workingPrinciple) {
+		synchronized (this) {
+			remove(workingPrinciple);
+
+			if (TransformationHelper.isWorkingPrinciple(workingPrinciple)
+					&& workingPrinciple.eResource() != null)
+				add(workingPrinciple);
+		}
+
+		reportGrowth();
+	}
+
+	/**
+	 * Indexes working principles of the model, for a build in batches. Growth is not reported
+	 * until the index is handed to the context.
+	 * 
+	 * @param workingPrinciples
+	 */
+	synchronized void addAll(List<Activity> workingPrinciples) {
+		for (Activity wp : workingPrinciples)
+			add(wp);
+	}
+
+	/** @return All working principles of the model */
+	public synchronized List<Activity> getWorkingPrinciples() {
+		return new ArrayList<Activity>(workingPrinciples);
+	}
+
+	/**
+	 * Returns the working principles that implement an activity, including the activity itself
+	 * if it is a working principle.
+	 * 
+	 * @param activity
+	 * @return
+	 */
+	public synchronized Set<Activity> getWorkingPrinciples(Activity activity) {
+		Set<Activity> wps = byActivity.get(activity);
+
+		return wps != null ? Collections.unmodifiableSet(wps) : Collections.<Activity>emptySet();
+	}
+
+	/**
+	 * Returns the working principles that use a resource type, with the number of times each
+	 * uses it.
+	 * 
+	 * @param resource
+	 * @return
+	 */
+	public synchronized Map<Activity, Integer> getWorkingPrinciplesUsing(Element resource) {
+		Map<Activity, Integer> wps = byResource.get(resource);
+
+		return wps != null ? Collections.unmodifiableMap(wps) : Collections.<Activity, Integer>emptyMap();
+	}
+
+	/**
+	 * Returns the resource types a working principle uses, at any level of composition, with the
+	 * number of times it uses each.
+	 * 
+	 * @param workingPrinciple
+	 * @return
+	 */
+	public synchronized Map<Element, Integer> getResourceTypes(Activity workingPrinciple) {
+		Map<Element, Integer> types = byWorkingPrinciple.get(workingPrinciple);
+
+		return types != null ? Collections.unmodifiableMap(types) : Collections.<Element, Integer>emptyMap();
+	}
+
+	/**
+	 * Returns the number of times a working principle uses a resource type.
+	 * 
+	 * @param workingPrinciple
+	 * @param resource
+	 * @return The multiplicity, 0 if the resource type is not used
+	 */
+	public synchronized int getMultiplicity(Activity workingPrinciple, Element resource) {
+		Map<Activity, Integer> wps = byResource.get(resource);
+		Integer count = wps != null ? wps.get(workingPrinciple) : null;
+
+		return count != null ? count.intValue() : 0;
+	}
+
+	/**
+	 * Returns the resource types an activity needs: those of all working principles
+	 * implementing it.
+	 * 
+	 * @param activity
+	 * @return
+	 */
+	public Set<Element> getResourceTypesNeeded(Activity activity) {
+		Set<Element> types;
+
+		synchronized (this) {
+			types = activityResources.get(activity);
+
+			if (types != null)
+				return types;
+
+			types = new LinkedHashSet<Element>();
+
+			for (Activity wp : getWorkingPrinciples(activity))
+				types.addAll(getResourceTypes(wp).keySet());
+
+			types = Collections.unmodifiableSet(types);
+			activityResources.put(activity, types);
+			memoized += types.size();
+		}
+
+		reportGrowth();
+
+		return types;
+	}
+
+	/** Indexes a working principle. */
+	private void add(Activity wp) {
+		workingPrinciples.add(wp);
+
+		// Resource types, counting duplicates
+		Map<Element, Integer> types = new LinkedHashMap<Element, Integer>();
+
+		for (Element t : TransformationHelper.getResourceTypesWithDuplicates(wp)) {
+			Integer count = types.get(t);
+			types.put(t, Integer.valueOf(count != null ? count.intValue() + 1 : 1));
+		}
+
+		byWorkingPrinciple.put(wp, types);
+		pairs += types.size();
+
+		for (Map.Entry<Element, Integer> e : types.entrySet()) {
+			Map<Activity, Integer> wps = byResource.get(e.getKey());
+
+			if (wps == null) {
+				wps = new LinkedHashMap<Activity, Integer>();
+				byResource.put(e.getKey(), wps);
+			}
+
+			wps.put(wp, e.getValue());
+		}
+
+		// The working principle and all activities it specializes
+		for (Activity a : getSelfAndAncestors(wp)) {
+			Set<Activity> wps = byActivity.get(a);
+
+			if (wps == null) {
+				wps = new LinkedHashSet<Activity>();
+				byActivity.put(a, wps);
+			}
+
+			wps.add(wp);
+		}
+
+		activityResources.clear();
+		memoized = 0;
+	}
+
+	/** Removes a working principle from the index. */
+	private void remove(Activity wp) {
+		if (!workingPrinciples.remove(wp))
+			return;
+
+		Map<Element, Integer> types = byWorkingPrinciple.remove(wp);
+		pairs -= types.size();
+
+		for (Element t : types.keySet()) {
+			Map<Activity, Integer> wps = byResource.get(t);
+			wps.remove(wp);
+
+			if (wps.isEmpty())
+				byResource.remove(t);
+		}
+
+		// Generalizations may have changed since, so look everywhere
+		for (Set<Activity> wps : byActivity.values())
+			wps.remove(wp);
+
+		activityResources.clear();
+		memoized = 0;
+	}
+
+	/** Returns an activity and all activities it specializes, at any level. */
+	private static List<Activity> getSelfAndAncestors(Activity a) {
+		List<Activity> result = new ArrayList<Activity>();
+		Map<Classifier, Boolean> seen = new IdentityHashMap<Classifier, Boolean>();
+
+		result.add(a);
+		seen.put(a, Boolean.TRUE);
+
+		for (int i = 0; i < result.size(); i++) {
+			for (Classifier g : result.get(i).getGenerals()) {
+				if (g instanceof Activity && seen.put(g, Boolean.TRUE) == null)
+					result.add((Activity) g);
+			}
+		}
+
+		return result;
+	}
+
+	/** Adds the change of the entry count since the last call to the context's estimated size. */
+	void reportGrowth() {
+		if (context == null)
+			return;
+
+		int delta;
+
+		synchronized (this) {
+			int count = getEntryCount();
+			delta = count - reported;
+			reported = count;
+		}
+
+		context.grown(delta);
+	}
+
+	/** @return The number of working principle / resource type pairs indexed */
+	synchronized int getEntryCount() {
+		return workingPrinciples.size() + byActivity.size() + 2 * (pairs + memoized);
+	}
+
+}
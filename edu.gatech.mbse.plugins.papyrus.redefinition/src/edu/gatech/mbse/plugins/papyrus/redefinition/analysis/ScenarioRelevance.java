@@ -0,0 +1,408 @@
+/**
+ * Copyright (c) 2015, Model-Based Systems Engineering Center, Georgia Institute of Technology.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ * 
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ * 
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *   
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.gatech.mbse.plugins.papyrus.redefinition.analysis;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.uml2.uml.Activity;
+import org.eclipse.uml2.uml.CallBehaviorAction;
+import org.eclipse.uml2.uml.Classifier;
+import org.eclipse.uml2.uml.Element;
+
+import edu.gatech.mbse.plugins.papyrus.redefinition.engine.RunReport;
+import edu.gatech.mbse.plugins.papyrus.redefinition.engine.TraceEvent;
+import edu.gatech.mbse.plugins.papyrus.redefinition.popup.handlers.TransformationHelper;
+
+/**
+ * Relevant resources of many processes (scenarios) at once, as bit sets over the resources
+ * of the model ({@link AnalysisContext#getResources()}).
+ * <p>
+ * A resource is relevant to a process as in
+ * {@link TransformationHelper#isResourceRelevant(Element, Activity, Element)}: a working
+ * principle of one of its sub-activities needs it, one of its generals or one of its
+ * specifics. {@link TransformationHelper#getAllResources(Element, Activity)} therefore
+ * returns the resources of the bit set, in model order.
+ * <p>
+ * Everything that does not depend on the process is computed once and shared by all
+ * scenarios, and by later calls: the resources related to each resource type, the relevant
+ * resources of each activity's own working principles, the activities each activity calls and
+ * the sub-activity closures (except for recursive calls). The model is read in one sequential
+ * pass over all activities reachable from the scenarios; the scenarios themselves are then
+ * combined in parallel from the shared data. The instance is thread safe.
+ */
+public class ScenarioRelevance {
+
+	/** Log4J object. */
+	private static final Logger logger = LogManager.getLogger(ScenarioRelevance.class.getName());
+
+	/** The context of the model. */
+	private final AnalysisContext context;
+
+	/** The resources of the model, by index. */
+	private final List<Element> resources;
+
+	/** Index of each resource. */
+	private final Map<Element, Integer> index = new IdentityHashMap<Element, Integer>();
+
+	/** Resources that are, specialize or generalize a resource type. */
+	private final Map<Element, BitSet> related = new IdentityHashMap<Element, BitSet>();
+
+	/** Relevant resources of the working principles of each activity. */
+	private final Map<Activity, BitSet> direct = new ConcurrentHashMap<Activity, BitSet>();
+
+	/** Activities each activity calls. */
+	private final Map<Activity, List<Activity>> callees = new ConcurrentHashMap<Activity, List<Activity>>();
+
+	/** Relevant resources of all sub-activities of an activity, where not recursive. */
+	private final Map<Activity, BitSet> closures = new ConcurrentHashMap<Activity, BitSet>();
+
+	/** Entry count last added to the context's estimated size. */
+	private int reported = 0;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param context The context of the model
+	 */
+	public ScenarioRelevance(AnalysisContext context) {
+		this.context = context;
+		this.resources = context.getResources();
+
+		for (int i = 0; i < resources.size(); i++)
+			index.put(resources.get(i), Integer.valueOf(i));
+	}
+
+	/** @return The resources the bit sets refer to, by index */
+	public List<Element> getResources() {
+		return resources;
+	}
+
+	/**
+	 * Returns the index of a resource in the bit sets.
+	 * 
+	 * @param resource
+	 * @return The index, or -1 if it is not a resource of the model
+	 */
+	public int indexOf(Element resource) {
+		Integer i = index.get(resource);
+
+		return i != null ? i.intValue() : -1;
+	}
+
+	/**
+	 * Returns the relevant resources of one process.
+	 * 
+	 * @param topLevelActivity
+	 * @return The indexes of the relevant resources; owned by the caller
+	 */
+	public BitSet getRelevant(Activity topLevelActivity) {
+		prepare(Collections.singletonList(topLevelActivity));
+
+		BitSet relevant = (BitSet) combine(topLevelActivity).clone();
+		reportGrowth();
+
+		return relevant;
+	}
+
+	/**
+	 * Returns the relevant resources of many processes, and writes a report of the run.
+	 * 
+	 * @param topLevelActivities
+	 * @param threads Number of threads to combine the scenarios on
+	 * @return The indexes of the relevant resources of each process, in the given order;
+	 * 		owned by the caller
+	 * @throws InterruptedException
+	 */
+	public Map<Activity, BitSet> getRelevant(Collection<Activity> topLevelActivities, int threads) throws InterruptedException {
+		return getRelevant(topLevelActivities, threads, null);
+	}
+
+	/**
+	 * Returns the relevant resources of many processes.
+	 * 
+	 * @param topLevelActivities
+	 * @param threads Number of threads to combine the scenarios on
+	 * @param report The report to record the phases in, or <b>null</b> to write a report of
+	 * 		its own
+	 * @return The indexes of the relevant resources of each process, in the given order;
+	 * 		owned by the caller
+	 * @throws InterruptedException
+	 */
+	public Map<Activity, BitSet> getRelevant(Collection<Activity> topLevelActivities, int threads, RunReport report)
+			throws InterruptedException {
+		final List<Activity> scenarios = new ArrayList<Activity>(topLevelActivities);
+		Map<Activity, BitSet> result = new LinkedHashMap<Activity, BitSet>();
+
+		if (scenarios.isEmpty())
+			return result;
+
+		TraceEvent event = TraceEvent.begin("scenarioRelevance");
+		RunReport run = report != null ? report : new RunReport("scenarioRelevance");
+		long phase = System.nanoTime();
+
+		prepare(scenarios);
+		phase = run.phase("prepare", phase);
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, scenarios.size())));
+		List<Future<BitSet>> futures = new ArrayList<Future<BitSet>>(scenarios.size());
+
+		try {
+			for (final Activity a : scenarios) {
+				futures.add(executor.submit(new Callable<BitSet>() {
+
+					@Override
+					public BitSet call() {
+						return (BitSet) combine(a).clone();
+					}
+
+				}));
+			}
+
+			for (int i = 0; i < scenarios.size(); i++) {
+				try {
+					result.put(scenarios.get(i), futures.get(i).get());
+				} catch (ExecutionException e) {
+					logger.error("Could not compute the relevant resources of " + scenarios.get(i).getName(), e.getCause());
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+
+		run.phase("combine", phase);
+		run.visited(scenarios.size());
+
+		if (report == null)
+			run.write();
+
+		event.visited(callees.size()).end();
+		reportGrowth();
+
+		return result;
+	}
+
+	/**
+	 * Returns the resources in a bit set.
+	 * 
+	 * @param bits
+	 * @return The resources, in model order
+	 */
+	public List<Element> toResources(BitSet bits) {
+		List<Element> result = new ArrayList<Element>(bits.cardinality());
+
+		for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1))
+			result.add(resources.get(i));
+
+		return result;
+	}
+
+	/**
+	 * Reads what the scenarios need from the model: the activities reachable from them, and
+	 * the relevant resources of each activity's own working principles.
+	 */
+	private synchronized void prepare(Collection<Activity> topLevelActivities) {
+		List<Activity> queue = new ArrayList<Activity>();
+
+		for (Activity a : topLevelActivities) {
+			if (!callees.containsKey(a))
+				queue.add(a);
+		}
+
+		for (int i = 0; i < queue.size(); i++) {
+			Activity a = queue.get(i);
+
+			if (callees.containsKey(a))
+				continue;
+
+			List<Activity> called = new ArrayList<Activity>();
+			List<Element> owned = a.getOwnedElements();
+
+			for (int j = 0; j < owned.size(); j++) {
+				Element e = owned.get(j);
+
+				// As collectSubActivities
+				if (e instanceof CallBehaviorAction
+						&& ((CallBehaviorAction) e).getBehavior() instanceof Activity) {
+					Activity c = (Activity) ((CallBehaviorAction) e).getBehavior();
+					called.add(c);
+
+					if (!callees.containsKey(c))
+						queue.add(c);
+				}
+			}
+
+			callees.put(a, called);
+			direct.put(a, computeDirect(a));
+		}
+	}
+
+	/** Relevant resources of the working principles of an activity. */
+	private BitSet computeDirect(Activity a) {
+		BitSet bits = new BitSet(resources.size());
+
+		for (Element type : context.getResourceUsageIndex().getResourceTypesNeeded(a))
+			bits.or(getRelated(type));
+
+		return bits;
+	}
+
+	/** Resources that are, specialize or generalize a resource type. */
+	private BitSet getRelated(Element type) {
+		BitSet bits = related.get(type);
+
+		if (bits != null)
+			return bits;
+
+		bits = new BitSet(resources.size());
+		set(bits, type);
+
+		if (type instanceof Classifier) {
+			for (Classifier d : context.getGeneralizationIndex().getDescendants((Classifier) type))
+				set(bits, d);
+
+			List<Classifier> ancestors = new ArrayList<Classifier>(((Classifier) type).getGenerals());
+			Map<Classifier, Boolean> seen = new IdentityHashMap<Classifier, Boolean>();
+
+			for (int i = 0; i < ancestors.size(); i++) {
+				Classifier g = ancestors.get(i);
+
+				if (seen.put(g, Boolean.TRUE) == null) {
+					set(bits, g);
+					ancestors.addAll(g.getGenerals());
+				}
+			}
+		}
+
+		related.put(type, bits);
+
+		return bits;
+	}
+
+	/** Sets the bit of a resource, if it is one of the model. */
+	private void set(BitSet bits, Element e) {
+		Integer i = index.get(e);
+
+		if (i != null)
+			bits.set(i.intValue());
+	}
+
+	/**
+	 * Combines the relevant resources of the sub-activities of a prepared activity, from the
+	 * shared data only. Closures are memoized unless they are part of a recursion, in which
+	 * case they depend on where the recursion was entered.
+	 */
+	private BitSet combine(Activity a) {
+		BitSet memo = closures.get(a);
+
+		if (memo != null)
+			return memo;
+
+		return combine(a, new IdentityHashMap<Activity, Integer>(), new int[1]);
+	}
+
+	/**
+	 * Depth first over the calls.
+	 * 
+	 * @param a
+	 * @param depths Depth of each activity on the current path
+	 * @param low Out: the smallest depth on the path that was reached from a
+	 * @return The relevant resources of the sub-activities of a
+	 */
+	private BitSet combine(Activity a, Map<Activity, Integer> depths, int[] low) {
+		int depth = depths.size();
+		int reached = depth;
+		BitSet bits = new BitSet(resources.size());
+
+		depths.put(a, Integer.valueOf(depth));
+
+		for (Activity c : callees.get(a)) {
+			bits.or(direct.get(c));
+
+			Integer onPath = depths.get(c);
+
+			if (onPath != null) {
+				// Recursive call: c's sub-activities are combined further up
+				reached = Math.min(reached, onPath.intValue());
+				continue;
+			}
+
+			BitSet memo = closures.get(c);
+
+			if (memo == null) {
+				int[] childLow = new int[1];
+				memo = combine(c, depths, childLow);
+				reached = Math.min(reached, childLow[0]);
+			}
+
+			bits.or(memo);
+		}
+
+		depths.remove(a);
+		low[0] = reached;
+
+		// Complete only if nothing above a on the path was reached
+		if (reached >= depth)
+			closures.put(a, bits);
+
+		return bits;
+	}
+
+	/** Adds what was memoized since the last call to the context's estimated size. */
+	private void reportGrowth() {
+		int delta;
+
+		synchronized (this) {
+			int count = getEntryCount();
+			delta = count - reported;
+			reported = count;
+		}
+
+		context.grown(delta);
+	}
+
+	/** @return The memoized data, in index entries of about 64 bytes */
+	synchronized int getEntryCount() {
+		int bitSets = related.size() + direct.size() + closures.size();
+
+		return callees.size() + bitSets * (1 + resources.size() / 512);
+	}
+
+}
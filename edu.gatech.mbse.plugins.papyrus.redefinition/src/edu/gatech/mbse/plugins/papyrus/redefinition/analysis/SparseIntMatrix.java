@@ -0,0 +1,151 @@
+/**
+ * Copyright (c) 2015, Model-Based Systems Engineering Center, Georgia Institute of Technology.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ * 
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ * 
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *   
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.gatech.mbse.plugins.papyrus.redefinition.analysis;
+
+import java.util.Arrays;
+
+/**
+ * An immutable sparse matrix of ints in compressed sparse row (CSR) form, as consumed by
+ * solvers: for row <i>r</i>, the column indexes and values of the non-zero entries are
+ * <code>columns[rowStart[r] .. rowStart[r + 1] - 1]</code> and
+ * <code>values[rowStart[r] .. rowStart[r + 1] - 1]</code>, with columns ascending.
+ */
+public final class SparseIntMatrix {
+
+	/** Number of rows. */
+	private final int rows;
+
+	/** Number of columns. */
+	private final int columns;
+
+	/** Start of each row in {@link #columnIndexes} and {@link #values}; one more than rows. */
+	private final int[] rowStart;
+
+	/** Column indexes of the non-zero entries. */
+	private final int[] columnIndexes;
+
+	/** Values of the non-zero entries. */
+	private final int[] values;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param rows
+	 * @param columns
+	 * @param rowStart
+	 * @param columnIndexes
+	 * @param values
+	 */
+	SparseIntMatrix(int rows, int columns, int[] rowStart, int[] columnIndexes, int[] values) {
+		this.rows = rows;
+		this.columns = columns;
+		this.rowStart = rowStart;
+		this.columnIndexes = columnIndexes;
+		this.values = values;
+	}
+
+	/**
+	 * Builds a matrix from rows given as sorted column indexes and values.
+	 * 
+	 * @param columns Number of columns
+	 * @param rowColumns Column indexes of each row, ascending
+	 * @param rowValues Values of each row
+	 * @return
+	 */
+	static SparseIntMatrix fromRows(int columns, int[][] rowColumns, int[][] rowValues) {
+		int rows = rowColumns.length;
+		int[] rowStart = new int[rows + 1];
+
+		for (int r = 0; r < rows; r++)
+			rowStart[r + 1] = rowStart[r] + rowColumns[r].length;
+
+		int[] columnIndexes = new int[rowStart[rows]];
+		int[] values = new int[rowStart[rows]];
+
+		for (int r = 0; r < rows; r++) {
+			System.arraycopy(rowColumns[r], 0, columnIndexes, rowStart[r], rowColumns[r].length);
+			System.arraycopy(rowValues[r], 0, values, rowStart[r], rowValues[r].length);
+		}
+
+		return new SparseIntMatrix(rows, columns, rowStart, columnIndexes, values);
+	}
+
+	/** @return The number of rows */
+	public int getRows() {
+		return rows;
+	}
+
+	/** @return The number of columns */
+	public int getColumns() {
+		return columns;
+	}
+
+	/** @return The number of non-zero entries */
+	public int getNonZeroCount() {
+		return values.length;
+	}
+
+	/**
+	 * Returns an entry.
+	 * 
+	 * @param row
+	 * @param column
+	 * @return
+	 */
+	public int get(int row, int column) {
+		int i = Arrays.binarySearch(columnIndexes, rowStart[row], rowStart[row + 1], column);
+
+		return i >= 0 ? values[i] : 0;
+	}
+
+	/** @return The start of each row in the column index and value arrays (a copy) */
+	public int[] getRowStart() {
+		return rowStart.clone();
+	}
+
+	/** @return The column indexes of the non-zero entries (a copy) */
+	public int[] getColumnIndexes() {
+		return columnIndexes.clone();
+	}
+
+	/** @return The values of the non-zero entries (a copy) */
+	public int[] getValues() {
+		return values.clone();
+	}
+
+	/** @return The matrix as a dense array, by row */
+	public int[][] toDense() {
+		int[][] dense = new int[rows][columns];
+
+		for (int r = 0; r < rows; r++) {
+			for (int i = rowStart[r]; i < rowStart[r + 1]; i++)
+				dense[r][columnIndexes[i]] = values[i];
+		}
+
+		return dense;
+	}
+
+}
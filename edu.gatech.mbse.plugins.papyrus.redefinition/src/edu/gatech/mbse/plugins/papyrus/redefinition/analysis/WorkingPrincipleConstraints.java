@@ -0,0 +1,129 @@
+/**
+ * Copyright (c) 2015, Model-Based Systems Engineering Center, Georgia Institute of Technology.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ * 
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ * 
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *   
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.gatech.mbse.plugins.papyrus.redefinition.analysis;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.uml2.uml.Activity;
+
+/**
+ * The owned and inherited constraints of one working principle, by classification.
+ * 
+ * @see ConstraintIndex#getConstraints(Activity)
+ */
+public class WorkingPrincipleConstraints {
+
+	/** The working principle. */
+	private final Activity workingPrinciple;
+
+	/** Owned constraints. */
+	private final List<IndexedConstraint> owned;
+
+	/** Inherited constraints. */
+	private final List<IndexedConstraint> inherited;
+
+	/** Owned and inherited constraints, owned first. */
+	private final List<IndexedConstraint> all;
+
+	/** Objectives. */
+	private final List<IndexedConstraint> objectives = new ArrayList<IndexedConstraint>();
+
+	/** Duration constraints. */
+	private final List<IndexedConstraint> durations = new ArrayList<IndexedConstraint>();
+
+	/** Other constraints. */
+	private final List<IndexedConstraint> others = new ArrayList<IndexedConstraint>();
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param workingPrinciple
+	 * @param owned
+	 * @param inherited
+	 */
+	WorkingPrincipleConstraints(Activity workingPrinciple, List<IndexedConstraint> owned,
+			List<IndexedConstraint> inherited) {
+		this.workingPrinciple = workingPrinciple;
+		this.owned = Collections.unmodifiableList(owned);
+		this.inherited = Collections.unmodifiableList(inherited);
+
+		List<IndexedConstraint> both = new ArrayList<IndexedConstraint>(owned.size() + inherited.size());
+		both.addAll(owned);
+		both.addAll(inherited);
+		this.all = Collections.unmodifiableList(both);
+
+		for (IndexedConstraint c : both) {
+			switch (c.getKind()) {
+			case OBJECTIVE:
+				objectives.add(c);
+				break;
+			case DURATION:
+				durations.add(c);
+				break;
+			default:
+				others.add(c);
+			}
+		}
+	}
+
+	/** @return The working principle */
+	public Activity getWorkingPrinciple() {
+		return workingPrinciple;
+	}
+
+	/** @return The constraints owned by the working principle */
+	public List<IndexedConstraint> getOwned() {
+		return owned;
+	}
+
+	/** @return The constraints inherited by the working principle, at any level */
+	public List<IndexedConstraint> getInherited() {
+		return inherited;
+	}
+
+	/** @return All constraints, owned first; the same set {@code collectConstraints} returns */
+	public List<IndexedConstraint> getAll() {
+		return all;
+	}
+
+	/** @return The owned and inherited objectives */
+	public List<IndexedConstraint> getObjectives() {
+		return Collections.unmodifiableList(objectives);
+	}
+
+	/** @return The owned and inherited duration constraints */
+	public List<IndexedConstraint> getDurations() {
+		return Collections.unmodifiableList(durations);
+	}
+
+	/** @return The owned and inherited constraints that are neither objectives nor durations */
+	public List<IndexedConstraint> getOthers() {
+		return Collections.unmodifiableList(others);
+	}
+
+}
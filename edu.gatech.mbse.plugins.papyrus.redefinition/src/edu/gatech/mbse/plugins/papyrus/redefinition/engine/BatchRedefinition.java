@@ -0,0 +1,434 @@
+/**
+ * Copyright (c) 2015, Model-Based Systems Engineering Center, Georgia Institute of Technology.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ * 
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ * 
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *   
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.gatech.mbse.plugins.papyrus.redefinition.engine;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.emf.common.util.URI;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.resource.Resource;
+import org.eclipse.emf.ecore.resource.ResourceSet;
+import org.eclipse.emf.ecore.resource.impl.ResourceSetImpl;
+import org.eclipse.emf.transaction.RecordingCommand;
+import org.eclipse.emf.transaction.TransactionalEditingDomain;
+import org.eclipse.uml2.uml.Activity;
+import org.eclipse.uml2.uml.Element;
+import org.eclipse.uml2.uml.Package;
+import org.eclipse.uml2.uml.StructuredClassifier;
+
+import edu.gatech.mbse.plugins.papyrus.redefinition.Activator;
+import edu.gatech.mbse.plugins.papyrus.redefinition.analysis.AnalysisCache;
+import edu.gatech.mbse.plugins.papyrus.redefinition.analysis.AnalysisContext;
+import edu.gatech.mbse.plugins.papyrus.redefinition.popup.handlers.TransformationHelper;
+
+/**
+ * Redefines the inherited value properties of all classifiers in a number of independent
+ * models, e.g. for a nightly normalization of a model repository.
+ * <p>
+ * Models are processed concurrently on a bounded pool of worker threads. Each model is
+ * loaded into its own resource set and editing domain, so workers share no EMF state; the
+ * redefinition itself runs in one command per model, exactly as from the menu. Saving is
+ * serialized, so that only one model at a time is written (streamed through a buffer) to
+ * disk, and each model is unloaded as soon as it is saved. Controlled units of a model are
+ * redefined with it, and saved with it if they changed.
+ * <p>
+ * Optionally, each model is also analyzed after the redefinition: the relevant resources of
+ * all its top level processes ({@link TransformationHelper#getTopLevelActivities(Element)})
+ * are computed in one shared pass, while the model is still loaded.
+ */
+public class BatchRedefinition {
+
+	/** Log4J object. */
+	private static final Logger logger = LogManager.getLogger(BatchRedefinition.class.getName());
+
+	/** Size of the buffer models are saved through. */
+	private static final int SAVE_BUFFER_SIZE = 64 * 1024;
+
+	/** Number of worker threads. */
+	private final int threads;
+
+	/** Serializes saving. */
+	private final Object saveLock = new Object();
+
+	/** The report all models are recorded in, if any. */
+	private RunReport report = null;
+
+	/** Whether models are analyzed after the redefinition. */
+	private boolean analyze = false;
+
+	/** The outcome of processing one model. */
+	public static class Result {
+
+		/** The model. */
+		private final URI uri;
+
+		/** Number of classifiers in the model. */
+		private int classifiers = 0;
+
+		/** Number of properties created. */
+		private int created = 0;
+
+		/** Number of unchanged classifiers skipped. */
+		private int skipped = 0;
+
+		/** Whether the model, or one of its controlled units, was saved. */
+		private boolean saved = false;
+
+		/** Number of top level processes analyzed, or -1 if not analyzed. */
+		private int scenarios = -1;
+
+		/** Number of resources of the model. */
+		private int resources = 0;
+
+		/** Relevant resources over all processes analyzed. */
+		private int relevant = 0;
+
+		/** The reason processing failed, if it did. */
+		private Throwable error = null;
+
+		/** Processing time in milliseconds. */
+		private long time = 0;
+
+		Result(URI uri) {
+			this.uri = uri;
+		}
+
+		/** @return The model */
+		public URI getURI() {
+			return uri;
+		}
+
+		/** @return The number of classifiers in the model */
+		public int getClassifierCount() {
+			return classifiers;
+		}
+
+		/** @return The number of properties created */
+		public int getCreatedCount() {
+			return created;
+		}
+
+		/** @return The number of classifiers skipped because they were unchanged */
+		public int getSkippedCount() {
+			return skipped;
+		}
+
+		/** @return Whether the model was changed and saved */
+		public boolean isSaved() {
+			return saved;
+		}
+
+		/** @return The number of top level processes analyzed, or -1 if the model was not analyzed */
+		public int getScenarioCount() {
+			return scenarios;
+		}
+
+		/** @return The number of resources in the model, if it was analyzed */
+		public int getResourceCount() {
+			return resources;
+		}
+
+		/** @return The number of relevant resources summed over all processes analyzed */
+		public int getRelevantCount() {
+			return relevant;
+		}
+
+		/** @return The reason processing failed, or <b>null</b> if it succeeded */
+		public Throwable getError() {
+			return error;
+		}
+
+		/** @return The processing time in milliseconds */
+		public long getTime() {
+			return time;
+		}
+
+		@Override
+		public String toString() {
+			if (error != null)
+				return uri + ": failed (" + error + ")";
+
+			return uri + ": " + classifiers + " classifiers, " + created + " properties created, "
+					+ skipped + " unchanged, "
+					+ (scenarios >= 0 ? scenarios + " processes analyzed (" + relevant + " relevant of "
+							+ resources + " resources), " : "")
+					+ time + " ms" + (saved ? ", saved" : "");
+		}
+
+	}
+
+	/** Constructor using one worker thread per processor. */
+	public BatchRedefinition() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param threads Maximum number of models processed at the same time
+	 */
+	public BatchRedefinition(int threads) {
+		this.threads = Math.max(1, threads);
+	}
+
+	/**
+	 * Sets the report all models are recorded in. Phase times are summed over the models.
+	 * 
+	 * @param report The report, or <b>null</b> for none
+	 */
+	public void setReport(RunReport report) {
+		this.report = report;
+	}
+
+	/**
+	 * Sets whether the top level processes of each model are analyzed after the redefinition.
+	 * 
+	 * @param analyze
+	 */
+	public void setAnalyze(boolean analyze) {
+		this.analyze = analyze;
+	}
+
+	/**
+	 * Processes models.
+	 * 
+	 * @param models The models to process
+	 * @return The outcome for each model, in the given order
+	 * @throws InterruptedException
+	 */
+	public List<Result> run(List<URI> models) throws InterruptedException {
+		if (models.isEmpty())
+			return Collections.emptyList();
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, models.size()));
+		List<Future<Result>> futures = new ArrayList<Future<Result>>(models.size());
+		List<Result> results = new ArrayList<Result>(models.size());
+
+		try {
+			for (final URI uri : models) {
+				futures.add(executor.submit(new Callable<Result>() {
+
+					@Override
+					public Result call() {
+						return process(uri);
+					}
+
+				}));
+			}
+
+			for (int i = 0; i < futures.size(); i++) {
+				try {
+					results.add(futures.get(i).get());
+				} catch (ExecutionException e) {
+					// process() reports its own failures; this is unexpected
+					Result r = new Result(models.get(i));
+					r.error = e.getCause();
+					results.add(r);
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+
+		return results;
+	}
+
+	/**
+	 * Processes one model in its own resource set and editing domain.
+	 * 
+	 * @param uri
+	 * @return
+	 */
+	protected Result process(URI uri) {
+		final Result result = new Result(uri);
+		long start = System.currentTimeMillis();
+
+		ResourceSet rs = new ResourceSetImpl();
+		TransactionalEditingDomain ted = TransactionalEditingDomain.Factory.INSTANCE.createEditingDomain(rs);
+
+		long phase = System.nanoTime();
+
+		try {
+			Resource resource = rs.getResource(uri, true);
+
+			RedefinitionScope scope = new RedefinitionScope();
+
+			for (EObject o : resource.getContents()) {
+				if (o instanceof Element)
+					scope.add((Element) o);
+			}
+
+			final List<StructuredClassifier> classifiers = scope.getClassifiers();
+			result.classifiers = classifiers.size();
+
+			phase = phase("load", phase);
+
+			// This thread is one of several already
+			new LibraryPreloader(rs, ted, 1).preload(classifiers);
+			phase = phase("preload", phase);
+
+			// The scope includes the controlled units of the model, which were loaded with it
+			for (Resource r : rs.getResources())
+				r.setTrackingModification(true);
+
+			ted.getCommandStack().execute(new RecordingCommand(ted, "Redefine Inherited Value Properties") {
+
+				@Override
+				protected void doExecute() {
+					HierarchyRedefinition redefinition = new HierarchyRedefinition();
+					redefinition.setReport(report);
+					result.created = redefinition.run(classifiers);
+					result.skipped = redefinition.getSkippedCount();
+				}
+
+			});
+
+			if (report != null)
+				report.transaction();
+
+			phase = phase("redefine", phase);
+
+			if (analyze) {
+				analyze(resource, ted, result);
+				phase = phase("analyze", phase);
+			}
+
+			for (Resource r : new ArrayList<Resource>(rs.getResources())) {
+				if (r.isModified()) {
+					save(r);
+					result.saved = true;
+				}
+			}
+
+			if (result.saved)
+				phase("save", phase);
+		} catch (Exception e) {
+			logger.error("Could not process " + uri, e);
+			result.error = e;
+		} finally {
+			for (Resource r : rs.getResources())
+				r.unload();
+
+			ted.dispose();
+		}
+
+		result.time = System.currentTimeMillis() - start;
+		logger.info(result.toString());
+
+		return result;
+	}
+
+	/**
+	 * Computes the relevant resources of all top level processes of a model, in one shared
+	 * pass. The model's thread is one of several already, so the processes are not split
+	 * further.
+	 */
+	private void analyze(Resource resource, TransactionalEditingDomain ted, final Result result)
+			throws InterruptedException {
+		Package root = null;
+
+		for (EObject o : resource.getContents()) {
+			if (o instanceof Package) {
+				root = (Package) o;
+				break;
+			}
+		}
+
+		if (root == null)
+			return;
+
+		final Package model = root;
+		final InterruptedException[] interrupted = new InterruptedException[1];
+		final AnalysisCache cache = Activator.getDefault() != null ? Activator.getDefault().getAnalysisCache() : null;
+
+		ted.runExclusive(new Runnable() {
+
+			@Override
+			public void run() {
+				List<Activity> scenarios = TransformationHelper.getTopLevelActivities(model);
+				AnalysisContext context = cache != null ? cache.getContext(model) : new AnalysisContext(model);
+
+				try {
+					Map<Activity, BitSet> relevant = context.getScenarioRelevance().getRelevant(scenarios, 1, report);
+
+					result.scenarios = scenarios.size();
+					result.resources = context.getResources().size();
+
+					for (BitSet bits : relevant.values())
+						result.relevant += bits.cardinality();
+				} catch (InterruptedException e) {
+					interrupted[0] = e;
+				}
+			}
+
+		});
+
+		// The model is unloaded after the run
+		if (cache != null)
+			cache.remove(model);
+
+		if (interrupted[0] != null)
+			throw interrupted[0];
+	}
+
+	/** Adds the time since a phase started to the report, if any. */
+	private long phase(String name, long since) {
+		return report != null ? report.phase(name, since) : System.nanoTime();
+	}
+
+	/** Saves a resource, one at a time. */
+	private void save(Resource resource) throws IOException {
+		Map<Object, Object> options = new HashMap<Object, Object>();
+
+		synchronized (saveLock) {
+			OutputStream out = new BufferedOutputStream(
+					resource.getResourceSet().getURIConverter().createOutputStream(resource.getURI(), options),
+					SAVE_BUFFER_SIZE);
+
+			try {
+				resource.save(out, options);
+			} finally {
+				out.close();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,128 @@
+/**
+ * Copyright (c) 2015, Model-Based Systems Engineering Center, Georgia Institute of Technology.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ * 
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ * 
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *   
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.gatech.mbse.plugins.papyrus.redefinition.engine;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.emf.common.util.URI;
+import org.eclipse.equinox.app.IApplication;
+import org.eclipse.equinox.app.IApplicationContext;
+
+/**
+ * Headless entry point for {@link BatchRedefinition}.
+ * <p>
+ * Usage: <code>eclipse -application edu.gatech.mbse.plugins.papyrus.redefinition.batch
+ * [-threads n] [-analyze] model.uml ...</code>. The exit code is 0 if all models were
+ * processed, 1 otherwise. With <code>-analyze</code>, the top level processes of each model
+ * are analyzed as well.
+ * <p>
+ * With <code>-fragments</code>, the files are controlled units of one model instead,
+ * typically just its root unit, and are processed one at a time by a
+ * {@link FragmentRedefinition}, together with the units they control.
+ * <p>
+ * Either way, a {@link RunReport} of the run is written to the workspace metadata.
+ */
+public class BatchRedefinitionApplication implements IApplication {
+
+	/** Log4J object. */
+	private static final Logger logger = LogManager.getLogger(BatchRedefinitionApplication.class.getName());
+
+	@Override
+	public Object start(IApplicationContext context) throws Exception {
+		Map<?, ?> arguments = context.getArguments();
+		String[] args = (String[]) arguments.get(IApplicationContext.APPLICATION_ARGS);
+
+		int threads = Runtime.getRuntime().availableProcessors();
+		boolean fragments = false;
+		boolean analyze = false;
+		List<URI> models = new ArrayList<URI>();
+
+		for (int i = 0; args != null && i < args.length; i++) {
+			if ("-threads".equals(args[i]) && i + 1 < args.length) {
+				try {
+					threads = Integer.parseInt(args[++i]);
+				} catch (NumberFormatException e) {
+					logger.error("Not a number of threads: " + args[i]);
+					return Integer.valueOf(1);
+				}
+			} else if ("-fragments".equals(args[i]))
+				fragments = true;
+			else if ("-analyze".equals(args[i]))
+				analyze = true;
+			else
+				models.add(URI.createFileURI(new File(args[i]).getAbsolutePath()));
+		}
+
+		if (models.isEmpty()) {
+			logger.error("No models given");
+			return Integer.valueOf(1);
+		}
+
+		if (fragments) {
+			RunReport report = new RunReport("fragments");
+			FragmentRedefinition redefinition = new FragmentRedefinition();
+			redefinition.setReport(report);
+
+			try {
+				redefinition.run(models);
+				return IApplication.EXIT_OK;
+			} catch (IOException e) {
+				logger.error("Could not save a unit", e);
+				return Integer.valueOf(1);
+			} finally {
+				report.write();
+			}
+		}
+
+		int failed = 0;
+		RunReport report = new RunReport("batch");
+		BatchRedefinition batch = new BatchRedefinition(threads);
+		batch.setReport(report);
+		batch.setAnalyze(analyze);
+
+		for (BatchRedefinition.Result r : batch.run(models)) {
+			if (r.getError() != null)
+				failed++;
+		}
+
+		logger.info((models.size() - failed) + " of " + models.size() + " models processed");
+		report.write();
+
+		return failed == 0 ? IApplication.EXIT_OK : Integer.valueOf(1);
+	}
+
+	@Override
+	public void stop() {
+		// Nothing to do
+	}
+
+}
@@ -0,0 +1,199 @@
+/**
+ * Copyright (c) 2015, Model-Based Systems Engineering Center, Georgia Institute of Technology.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ * 
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ * 
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *   
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.gatech.mbse.plugins.papyrus.redefinition.engine;
+
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.emf.ecore.EAnnotation;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.resource.Resource;
+import org.eclipse.emf.ecore.xmi.XMLResource;
+import org.eclipse.uml2.uml.Classifier;
+import org.eclipse.uml2.uml.Property;
+import org.eclipse.uml2.uml.Stereotype;
+import org.eclipse.uml2.uml.StructuredClassifier;
+
+/**
+ * Fingerprint of the inheritance situation of a classifier, recorded when its inherited
+ * properties were last redefined.
+ * <p>
+ * The fingerprint is a 64 bit FNV-1a hash of the stamps of the generals and the number of
+ * owned attributes. The stamp of a classifier hashes its id, the stamps of its own generals
+ * and, for each owned attribute, its id, type, visibility, applied stereotypes and the ids of
+ * the properties it redefines. The stamp thus changes whenever anything that decides how a
+ * specific redefines the attribute changes. Stamps are memoized for a run, which makes checking a classifier
+ * independent of the number of properties it inherits.
+ * <p>
+ * The fingerprint is stored in an annotation of the classifier, so that it survives saving
+ * the model; if it still matches, there is nothing to redefine and the classifier can be
+ * skipped. To keep normalized models clean, an annotation is only created along with new
+ * redefinitions.
+ */
+public final class ClassifierFingerprint {
+
+	/** Source of the annotation holding the fingerprint. */
+	public static final String ANNOTATION_SOURCE = "http://mbse.gatech.edu/papyrus/redefinition";
+
+	/** Key of the fingerprint in the annotation details. */
+	public static final String KEY = "fingerprint";
+
+	/** FNV-1a offset basis. */
+	private static final long OFFSET_BASIS = 0xcbf29ce484222325L;
+
+	/** FNV-1a prime. */
+	private static final long PRIME = 0x100000001b3L;
+
+	/** Utility class. */
+	private ClassifierFingerprint() {
+	}
+
+	/**
+	 * Computes the fingerprint of a classifier.
+	 * 
+	 * @param c The classifier
+	 * @param stamps Stamps computed so far in this run, updated
+	 * @return
+	 */
+	public static String compute(Classifier c, Map<Classifier, String> stamps) {
+		long hash = OFFSET_BASIS;
+
+		for (Classifier g : c.getGenerals())
+			hash = update(hash, getStamp(g, stamps));
+
+		// Catches redefinitions that were deleted since
+		if (c instanceof StructuredClassifier)
+			hash = update(hash, Integer.toString(((StructuredClassifier) c).getOwnedAttributes().size()));
+
+		return Long.toHexString(hash);
+	}
+
+	/**
+	 * Returns the stamp of a classifier, i.e. the hash of everything its specifics may inherit.
+	 * 
+	 * @param c The classifier
+	 * @param stamps Stamps computed so far in this run, updated
+	 * @return
+	 */
+	public static String getStamp(Classifier c, Map<Classifier, String> stamps) {
+		String stamp = stamps.get(c);
+
+		if (stamp != null)
+			return stamp;
+
+		// Guard against cyclic generalizations in broken models
+		stamps.put(c, "");
+
+		long hash = update(OFFSET_BASIS, getId(c));
+
+		if (c instanceof StructuredClassifier) {
+			for (Property p : ((StructuredClassifier) c).getOwnedAttributes()) {
+				hash = update(hash, getId(p));
+				hash = update(hash, p.getType() != null ? getId(p.getType()) : "");
+				hash = update(hash, p.getVisibility().getLiteral());
+
+				for (Stereotype s : p.getAppliedStereotypes())
+					hash = update(hash, s.getQualifiedName() != null ? s.getQualifiedName() : getId(s));
+
+				// Separates the stereotypes from the redefined properties
+				hash = update(hash, "");
+
+				for (Property redefined : p.getRedefinedProperties())
+					hash = update(hash, getId(redefined));
+			}
+		}
+
+		List<Classifier> generals = c.getGenerals();
+
+		for (Classifier g : generals)
+			hash = update(hash, getStamp(g, stamps));
+
+		stamp = Long.toHexString(hash);
+		stamps.put(c, stamp);
+
+		return stamp;
+	}
+
+	/**
+	 * Returns the fingerprint recorded for a classifier.
+	 * 
+	 * @param c
+	 * @return The fingerprint, or <b>null</b> if none was recorded
+	 */
+	public static String read(Classifier c) {
+		EAnnotation annotation = c.getEAnnotation(ANNOTATION_SOURCE);
+
+		return annotation != null ? annotation.getDetails().get(KEY) : null;
+	}
+
+	/**
+	 * Records the fingerprint of a classifier. Must be called within a write transaction.
+	 * 
+	 * @param c
+	 * @param fingerprint
+	 * @param create Whether to create the annotation if the classifier has none yet
+	 */
+	public static void write(Classifier c, String fingerprint, boolean create) {
+		EAnnotation annotation = c.getEAnnotation(ANNOTATION_SOURCE);
+
+		if (annotation == null) {
+			if (!create)
+				return;
+
+			annotation = c.createEAnnotation(ANNOTATION_SOURCE);
+		}
+
+		// Avoid touching (and dirtying) the model if nothing changed
+		if (!fingerprint.equals(annotation.getDetails().get(KEY)))
+			annotation.getDetails().put(KEY, fingerprint);
+	}
+
+	/** Returns the id of an element: its XMI id, else its URI fragment. */
+	private static String getId(EObject o) {
+		Resource r = o.eResource();
+
+		if (r == null)
+			return "";
+
+		String id = r instanceof XMLResource ? ((XMLResource) r).getID(o) : null;
+
+		return id != null ? id : r.getURIFragment(o);
+	}
+
+	/** Feeds the characters of a string, and a separator, into the hash. */
+	private static long update(long hash, String s) {
+		for (int i = 0; i < s.length(); i++) {
+			hash ^= s.charAt(i);
+			hash *= PRIME;
+		}
+
+		hash ^= 0xff;
+		hash *= PRIME;
+
+		return hash;
+	}
+
+}
@@ -0,0 +1,784 @@
+/**
+ * Copyright (c) 2015, Model-Based Systems Engineering Center, Georgia Institute of Technology.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ * 
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ * 
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *   
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.gatech.mbse.plugins.papyrus.redefinition.engine;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.emf.common.util.TreeIterator;
+import org.eclipse.emf.common.util.URI;
+import org.eclipse.emf.ecore.EAttribute;
+import org.eclipse.emf.ecore.EClass;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.EReference;
+import org.eclipse.emf.ecore.EStructuralFeature;
+import org.eclipse.emf.ecore.InternalEObject;
+import org.eclipse.emf.ecore.resource.Resource;
+import org.eclipse.emf.ecore.resource.impl.ResourceSetImpl;
+import org.eclipse.emf.ecore.util.EcoreUtil;
+import org.eclipse.emf.ecore.util.InternalEList;
+import org.eclipse.emf.transaction.RecordingCommand;
+import org.eclipse.emf.transaction.TransactionalEditingDomain;
+import org.eclipse.uml2.uml.AggregationKind;
+import org.eclipse.uml2.uml.Classifier;
+import org.eclipse.uml2.uml.NamedElement;
+import org.eclipse.uml2.uml.Namespace;
+import org.eclipse.uml2.uml.Port;
+import org.eclipse.uml2.uml.Property;
+import org.eclipse.uml2.uml.Stereotype;
+import org.eclipse.uml2.uml.StructuredClassifier;
+import org.eclipse.uml2.uml.Type;
+import org.eclipse.uml2.uml.UMLFactory;
+import org.eclipse.uml2.uml.UMLPackage;
+import org.eclipse.uml2.uml.VisibilityKind;
+
+/**
+ * Redefines inherited value properties in a model split into controlled units (fragments),
+ * holding only one unit in memory at a time.
+ * <p>
+ * The units are first scanned, one at a time, for generalizations into other units, and
+ * sorted so that units come after the units their generals are in. Each unit is then loaded
+ * on its own, processed, saved and unloaded. References into other units are never resolved:
+ * what a classifier inherits from another unit is taken from a compact summary (names, URIs,
+ * types, multiplicities, ... but no EMF objects) of the properties the general exposes, which
+ * is recorded when the general's unit is processed. Only the classifiers that are generals of
+ * classifiers in other units are summarized. Generals in libraries are loaded with each unit
+ * and read directly. Peak memory therefore depends on the largest unit rather than on the
+ * whole model.
+ * <p>
+ * Redefinitions of properties from other units refer to them by URI, exactly as if the
+ * units had been loaded together. Units that depend on each other cyclically are processed in
+ * the given order; properties inherited from a unit that was not processed yet are missed
+ * (and logged).
+ */
+public class FragmentRedefinition {
+
+	/** Log4J object. */
+	private static final Logger logger = LogManager.getLogger(FragmentRedefinition.class.getName());
+
+	/** Size of the buffer units are saved through. */
+	private static final int SAVE_BUFFER_SIZE = 64 * 1024;
+
+	/** The rules for creating redefinitions. */
+	private final RedefinitionRules rules;
+
+	/** All units of the model. */
+	private final Set<URI> units = new LinkedHashSet<URI>();
+
+	/** URIs of the classifiers that are generals of classifiers in other units. */
+	private final Set<String> referenced = new HashSet<String>();
+
+	/** Properties exposed by the referenced classifiers of the units processed so far. */
+	private final Map<String, List<PropertySummary>> summaries = new HashMap<String, List<PropertySummary>>();
+
+	/** Number of properties created so far. */
+	private int created = 0;
+
+	/** The report of the run, if any. */
+	private RunReport report = null;
+
+	/** Constructor using the default rules. */
+	public FragmentRedefinition() {
+		this(RedefinitionRules.getDefault());
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param rules The rules for creating redefinitions
+	 */
+	public FragmentRedefinition(RedefinitionRules rules) {
+		this.rules = rules;
+	}
+
+	/**
+	 * Processes the units of a model. Units controlled by the given ones are found from their
+	 * containment proxies, so giving the root unit processes the whole model.
+	 * 
+	 * @param units The resources of controlled units of the model, typically just the root
+	 * @return The number of properties created
+	 * @throws IOException If a unit could not be saved
+	 */
+	public int run(List<URI> units) throws IOException {
+		this.units.addAll(units);
+
+		long phase = System.nanoTime();
+		List<URI> sorted = sortUnits(units);
+		phase("sort", phase);
+
+		for (URI unit : sorted) {
+			TraceEvent event = TraceEvent.begin("redefineFragment");
+			int before = created;
+
+			process(unit);
+
+			event.created(created - before).end();
+		}
+
+		logger.info("Created " + created + " properties in " + sorted.size() + " units, "
+				+ summaries.size() + " classifiers summarized");
+
+		return created;
+	}
+
+	/** @return The number of properties created so far */
+	public int getCreatedCount() {
+		return created;
+	}
+
+	/**
+	 * Sets the report the units and classifiers processed are recorded in.
+	 * 
+	 * @param report The report, or <b>null</b> for none
+	 */
+	public void setReport(RunReport report) {
+		this.report = report;
+	}
+
+	/** Adds the time since a phase started to the report, if any. */
+	private long phase(String name, long since) {
+		return report != null ? report.phase(name, since) : System.nanoTime();
+	}
+
+	/**
+	 * Sorts units so that each comes after the units containing the generals of its
+	 * classifiers, adding the units controlled by the given ones. Also records which
+	 * classifiers need to be summarized.
+	 */
+	private List<URI> sortUnits(List<URI> units) {
+		Map<URI, Set<URI>> dependencies = new LinkedHashMap<URI, Set<URI>>();
+		List<URI> queue = new ArrayList<URI>(units);
+
+		for (int i = 0; i < queue.size(); i++) {
+			URI unit = queue.get(i);
+			UnitResourceSet rs = new UnitResourceSet(unit);
+			Resource resource = rs.getResource(unit, true);
+			Set<URI> depends = new LinkedHashSet<URI>();
+			Set<URI> subUnits = new LinkedHashSet<URI>();
+
+			// Before anything resolves them, so that they are left to their own turn
+			for (EObject o : resource.getContents())
+				collectSubUnits(o, subUnits);
+
+			for (URI subUnit : subUnits) {
+				if (this.units.add(subUnit)) {
+					queue.add(subUnit);
+					logger.debug("Found controlled unit " + subUnit);
+				}
+			}
+
+			for (Classifier c : collectClassifiers(resource)) {
+				for (Classifier g : c.getGenerals()) {
+					if (g.eIsProxy()) {
+						URI uri = ((InternalEObject) g).eProxyURI();
+						referenced.add(uri.toString());
+
+						if (!uri.trimFragment().equals(unit))
+							depends.add(uri.trimFragment());
+					}
+				}
+			}
+
+			dependencies.put(unit, depends);
+			resource.unload();
+		}
+
+		List<URI> sorted = new ArrayList<URI>(queue.size());
+		Map<URI, Boolean> visited = new HashMap<URI, Boolean>();
+
+		for (URI unit : queue)
+			visit(unit, dependencies, visited, sorted);
+
+		return sorted;
+	}
+
+	/** Depth first post-order over the unit dependencies. */
+	private static void visit(URI unit, Map<URI, Set<URI>> dependencies, Map<URI, Boolean> visited, List<URI> sorted) {
+		Boolean state = visited.get(unit);
+
+		if (state != null) {
+			if (!state.booleanValue())
+				logger.warn("Cyclic dependency between units through " + unit);
+
+			return;
+		}
+
+		visited.put(unit, Boolean.FALSE);
+
+		// Dependencies outside the model (libraries) are not in the map
+		Set<URI> depends = dependencies.get(unit);
+
+		for (URI d : depends != null ? depends : Collections.<URI>emptySet()) {
+			if (dependencies.containsKey(d))
+				visit(d, dependencies, visited, sorted);
+		}
+
+		visited.put(unit, Boolean.TRUE);
+		sorted.add(unit);
+	}
+
+	/** Loads, redefines, summarizes, saves and unloads one unit. */
+	private void process(URI unit) throws IOException {
+		UnitResourceSet rs = new UnitResourceSet(unit);
+		final TransactionalEditingDomain domain = TransactionalEditingDomain.Factory.INSTANCE.createEditingDomain(rs);
+
+		long phase = System.nanoTime();
+
+		try {
+			Resource resource = rs.getResource(unit, true);
+			final List<Classifier> classifiers = collectClassifiers(resource);
+			final Unit state = new Unit(resource);
+			int before = created;
+
+			phase = phase("load", phase);
+
+			domain.getCommandStack().execute(new RecordingCommand(domain, "Redefine Inherited Value Properties") {
+
+				@Override
+				protected void doExecute() {
+					for (Classifier c : HierarchyRedefinition.sortByGeneralization(classifiers))
+						redefine(c, state);
+				}
+
+			});
+
+			if (report != null) {
+				report.transaction();
+				report.created(created - before);
+			}
+
+			phase = phase("redefine", phase);
+
+			// For the units that follow
+			for (Classifier c : classifiers) {
+				String uri = EcoreUtil.getURI(c).toString();
+
+				if (referenced.contains(uri))
+					summaries.put(uri, state.summarize(state.getVisible(c)));
+			}
+
+			logger.debug("Processed " + unit + ": " + classifiers.size() + " classifiers, "
+					+ (created - before) + " properties created");
+
+			phase = phase("summarize", phase);
+
+			if (created > before) {
+				save(resource);
+				phase("save", phase);
+			}
+		} finally {
+			for (Resource r : rs.getResources())
+				r.unload();
+
+			domain.dispose();
+		}
+	}
+
+	/**
+	 * Redefines the inherited value properties of a classifier of the unit being processed,
+	 * and records the properties it exposes to its specifics.
+	 */
+	private void redefine(Classifier c, Unit state) {
+		long start = System.nanoTime();
+
+		// Visible properties of generals in this unit are known already (sorted)
+		List<Property> inherited = new ArrayList<Property>();
+		Set<String> seen = new HashSet<String>();
+
+		for (Classifier g : c.getGenerals()) {
+			for (Property p : state.getInheritedFrom(g)) {
+				// Diamonds
+				if (seen.add(state.getURI(p)))
+					inherited.add(p);
+			}
+		}
+
+		Set<String> redefined = new HashSet<String>();
+
+		for (NamedElement m : c.getOwnedMembers()) {
+			if (m instanceof Property) {
+				for (Property r : ((Property) m).getRedefinedProperties())
+					redefined.add(EcoreUtil.getURI(r).toString());
+			}
+		}
+
+		if (c instanceof StructuredClassifier) {
+			List<Property> sources = new ArrayList<Property>();
+			List<RedefinitionRule> used = new ArrayList<RedefinitionRule>();
+			List<Property> prepared = new ArrayList<Property>();
+
+			for (Property p : inherited) {
+				String uri = state.getURI(p);
+				PropertySummary summary = state.standIns.get(p);
+
+				if (redefined.contains(uri))
+					continue;
+
+				RedefinitionRule rule = summary != null
+						? rules.lookup(summary.propertyClass, summary.getStereotypeNames(), summary.typeClass)
+						: rules.lookup(p);
+				Property newProperty = rule != null ? rule.prepare((StructuredClassifier) c, p) : null;
+
+				if (newProperty != null) {
+					redefined.add(uri);
+					sources.add(p);
+					used.add(rule);
+					prepared.add(newProperty);
+				}
+			}
+
+			// Attach all at once, then apply stereotypes, which needs the properties attached
+			StereotypeBatch stereotypes = new StereotypeBatch();
+			((StructuredClassifier) c).getOwnedAttributes().addAll(prepared);
+
+			for (int i = 0; i < prepared.size(); i++) {
+				Property p = sources.get(i);
+				PropertySummary summary = state.standIns.get(p);
+
+				used.get(i).complete(p, prepared.get(i), stereotypes);
+
+				if (summary != null)
+					summary.applyStereotypes(prepared.get(i), stereotypes);
+			}
+
+			stereotypes.flush();
+
+			created += prepared.size();
+		}
+
+		List<Property> visible = new ArrayList<Property>();
+
+		for (NamedElement m : c.getOwnedMembers()) {
+			if (m instanceof Property && m.getVisibility() != VisibilityKind.PRIVATE_LITERAL)
+				visible.add((Property) m);
+		}
+
+		for (Property p : inherited) {
+			if (!redefined.contains(state.getURI(p)) && p.getVisibility() != VisibilityKind.PRIVATE_LITERAL)
+				visible.add(p);
+		}
+
+		state.visible.put(c, visible);
+
+		if (report != null) {
+			report.classifier(c, inherited.size(), System.nanoTime() - start);
+			report.visited(inherited.size());
+		}
+	}
+
+	/** Collects the units controlled below an element, from its containment proxies. */
+	@SuppressWarnings("unchecked")
+	private static void collectSubUnits(EObject o, Set<URI> subUnits) {
+		// Without resolving proxies
+		for (Iterator<EObject> it = ((InternalEList<EObject>) o.eContents()).basicIterator(); it.hasNext();) {
+			EObject child = it.next();
+
+			if (child.eIsProxy())
+				subUnits.add(((InternalEObject) child).eProxyURI().trimFragment());
+			else if (child instanceof Namespace)
+				collectSubUnits(child, subUnits);
+		}
+	}
+
+	/** Collects the classifiers of a unit, without entering other units. */
+	private static List<Classifier> collectClassifiers(Resource resource) {
+		List<Classifier> classifiers = new ArrayList<Classifier>();
+		TreeIterator<EObject> it = resource.getAllContents();
+
+		while (it.hasNext()) {
+			EObject o = it.next();
+
+			if (o.eIsProxy() || !(o instanceof Namespace)) {
+				// Controlled sub-units, and anything that cannot contain classifiers
+				it.prune();
+			} else if (o instanceof Classifier) {
+				classifiers.add((Classifier) o);
+			}
+		}
+
+		return classifiers;
+	}
+
+	/** Saves a unit. */
+	private static void save(Resource resource) throws IOException {
+		Map<Object, Object> options = new HashMap<Object, Object>();
+		OutputStream out = new BufferedOutputStream(
+				resource.getResourceSet().getURIConverter().createOutputStream(resource.getURI(), options),
+				SAVE_BUFFER_SIZE);
+
+		try {
+			resource.save(out, options);
+		} finally {
+			out.close();
+		}
+	}
+
+	/** What is known while processing one unit. */
+	private class Unit {
+
+		/** The resource of the unit. */
+		final Resource resource;
+
+		/** Properties exposed by generals loaded from libraries. */
+		final HierarchyRedefinition libraries = new HierarchyRedefinition();
+
+		/** Properties exposed by the classifiers of the unit processed so far. */
+		final Map<Classifier, List<Property>> visible = new IdentityHashMap<Classifier, List<Property>>();
+
+		/** Stand-ins for properties of other units, and what they stand for. */
+		final Map<Property, PropertySummary> standIns = new IdentityHashMap<Property, PropertySummary>();
+
+		/** The stand-in for each summary, created once per unit. */
+		final Map<PropertySummary, Property> standInFor = new IdentityHashMap<PropertySummary, Property>();
+
+		/** Constructor. */
+		Unit(Resource resource) {
+			this.resource = resource;
+		}
+
+		/** Returns the properties inherited from a general. */
+		List<Property> getInheritedFrom(Classifier g) {
+			if (!g.eIsProxy())
+				return getVisible(g);
+
+			String uri = ((InternalEObject) g).eProxyURI().toString();
+			List<PropertySummary> summary = summaries.get(uri);
+
+			if (summary == null) {
+				logger.warn("General " + uri + " is in a unit that was not processed yet");
+				return Collections.emptyList();
+			}
+
+			List<Property> properties = new ArrayList<Property>(summary.size());
+
+			// Redefining copies multiplicities, so stand-ins can be shared within the unit
+			for (PropertySummary s : summary) {
+				Property p = standInFor.get(s);
+
+				if (p == null) {
+					p = s.createStandIn();
+					standIns.put(p, s);
+					standInFor.put(s, p);
+				}
+
+				properties.add(p);
+			}
+
+			return properties;
+		}
+
+		/**
+		 * Returns the properties a classifier exposes: of this unit as processed so far, or of
+		 * a library, which is loaded with the unit and never changed.
+		 */
+		List<Property> getVisible(Classifier c) {
+			List<Property> result = visible.get(c);
+
+			if (result != null)
+				return result;
+
+			if (c.eResource() != resource)
+				return libraries.getVisibleProperties(c);
+
+			// Not processed in this unit: a cycle
+			return Collections.<Property>emptyList();
+		}
+
+		/** Returns the URI of a property of this or another unit. */
+		String getURI(Property p) {
+			PropertySummary s = standIns.get(p);
+
+			return s != null ? s.uri : EcoreUtil.getURI(p).toString();
+		}
+
+		/** Summarizes properties. */
+		List<PropertySummary> summarize(List<Property> properties) {
+			List<PropertySummary> result = new ArrayList<PropertySummary>(properties.size());
+
+			for (Property p : properties) {
+				PropertySummary s = standIns.get(p);
+				result.add(s != null ? s : new PropertySummary(p));
+			}
+
+			return result;
+		}
+
+	}
+
+	/**
+	 * What redefining a property of another unit needs to know about it.
+	 */
+	private static class PropertySummary {
+
+		final String uri;
+		final String name;
+		final EClass propertyClass;
+		final String typeURI;
+		final EClass typeClass;
+		final Integer lower, upper;
+		final VisibilityKind visibility;
+		final AggregationKind aggregation;
+		final boolean ordered, unique;
+
+		/** Qualified names of the applied stereotypes. */
+		final String[] stereotypes;
+
+		/** Tagged values of the applied stereotypes. */
+		final List<TaggedValue> taggedValues = new ArrayList<TaggedValue>();
+
+		/** Features of ports. */
+		final boolean behavior, service, conjugated;
+
+		/** Constructor. */
+		PropertySummary(Property p) {
+			uri = EcoreUtil.getURI(p).toString();
+			name = p.getName();
+			propertyClass = p.eClass();
+
+			Type type = p.getType();
+			typeURI = type != null ? EcoreUtil.getURI(type).toString() : null;
+			typeClass = type != null ? type.eClass() : null;
+
+			lower = p.getLowerValue() != null ? Integer.valueOf(p.getLower()) : null;
+			upper = p.getUpperValue() != null ? Integer.valueOf(p.getUpper()) : null;
+			visibility = p.getVisibility();
+			aggregation = p.getAggregation();
+			ordered = p.isOrdered();
+			unique = p.isUnique();
+
+			List<Stereotype> applied = p.getAppliedStereotypes();
+			stereotypes = new String[applied.size()];
+
+			for (int i = 0; i < stereotypes.length; i++) {
+				stereotypes[i] = applied.get(i).getQualifiedName();
+
+				EObject application = p.getStereotypeApplication(applied.get(i));
+
+				if (application != null)
+					TaggedValue.collect(stereotypes[i], application, taggedValues);
+			}
+
+			behavior = p instanceof Port && ((Port) p).isBehavior();
+			service = p instanceof Port && ((Port) p).isService();
+			conjugated = p instanceof Port && ((Port) p).isConjugated();
+		}
+
+		/** @return The simple names of the applied stereotypes */
+		List<String> getStereotypeNames() {
+			List<String> names = new ArrayList<String>(stereotypes.length);
+
+			for (String q : stereotypes)
+				names.add(q.substring(q.lastIndexOf(':') + 1));
+
+			return names;
+		}
+
+		/**
+		 * Creates a detached proxy of the property, carrying its features. Rules can copy
+		 * from it as from the property itself, and references to it are saved as references
+		 * to the property.
+		 */
+		Property createStandIn() {
+			Property p = (Property) UMLFactory.eINSTANCE.create(propertyClass);
+			((InternalEObject) p).eSetProxyURI(URI.createURI(uri));
+
+			p.setName(name);
+			p.setVisibility(visibility);
+			p.setAggregation(aggregation);
+			p.setIsOrdered(ordered);
+			p.setIsUnique(unique);
+
+			if (typeURI != null) {
+				Type type = (Type) UMLFactory.eINSTANCE.create(typeClass);
+				((InternalEObject) type).eSetProxyURI(URI.createURI(typeURI));
+				p.setType(type);
+			}
+
+			if (lower != null)
+				p.setLower(lower.intValue());
+
+			if (upper != null)
+				p.setUpper(upper.intValue());
+
+			if (p instanceof Port) {
+				((Port) p).setIsBehavior(behavior);
+				((Port) p).setIsService(service);
+				((Port) p).setIsConjugated(conjugated);
+			}
+
+			return p;
+		}
+
+		/**
+		 * Applies the stereotypes of the property, with their tagged values, which a stand-in
+		 * cannot carry.
+		 */
+		void applyStereotypes(Property newProperty, StereotypeBatch batch) {
+			for (String q : stereotypes) {
+				Stereotype s = newProperty.getApplicableStereotype(q);
+
+				if (s == null) {
+					logger.warn("Stereotype " + q + " is not applicable to " + newProperty.getName());
+				} else if (newProperty.getAppliedStereotype(q) == null) {
+					EObject application = batch.apply(newProperty, s);
+
+					for (TaggedValue t : taggedValues) {
+						if (t.stereotype.equals(q))
+							t.applyTo(application);
+					}
+				}
+			}
+		}
+
+	}
+
+	/**
+	 * A tagged value of a property of another unit: attribute values as strings, and
+	 * references to model elements as URIs with the metaclass of each element.
+	 */
+	private static class TaggedValue {
+
+		/** Qualified name of the stereotype. */
+		final String stereotype;
+
+		/** Name of the feature of the stereotype application. */
+		final String feature;
+
+		/** The values, as strings or URIs. */
+		final List<String> values = new ArrayList<String>();
+
+		/** The metaclasses of the referenced elements, or <b>null</b> for an attribute. */
+		final List<EClass> types;
+
+		/** Constructor. */
+		TaggedValue(String stereotype, String feature, boolean reference) {
+			this.stereotype = stereotype;
+			this.feature = feature;
+			this.types = reference ? new ArrayList<EClass>() : null;
+		}
+
+		/** Collects the tagged values of a stereotype application. */
+		static void collect(String stereotype, EObject application, List<TaggedValue> taggedValues) {
+			for (EStructuralFeature f : application.eClass().getEAllStructuralFeatures()) {
+				if (!StereotypeBatch.isTaggedValue(f) || !application.eIsSet(f))
+					continue;
+
+				// Only references to UML elements can be restored from a URI
+				boolean reference = f instanceof EReference;
+
+				if (reference && (((EReference) f).isContainment()
+						|| ((EReference) f).getEReferenceType().getEPackage() != UMLPackage.eINSTANCE)) {
+					logger.debug("Tagged value " + stereotype + "::" + f.getName() + " is not carried to other units");
+					continue;
+				}
+
+				TaggedValue t = new TaggedValue(stereotype, f.getName(), reference);
+				Object value = application.eGet(f);
+
+				for (Object v : f.isMany() ? (List<?>) value : Collections.singletonList(value)) {
+					if (v == null)
+						continue;
+
+					if (reference) {
+						t.values.add(EcoreUtil.getURI((EObject) v).toString());
+						t.types.add(((EObject) v).eClass());
+					} else {
+						t.values.add(EcoreUtil.convertToString(((EAttribute) f).getEAttributeType(), v));
+					}
+				}
+
+				taggedValues.add(t);
+			}
+		}
+
+		/** Sets the tagged value on the application of the stereotype to a new property. */
+		@SuppressWarnings("unchecked")
+		void applyTo(EObject application) {
+			EStructuralFeature f = application.eClass().getEStructuralFeature(feature);
+
+			if (f == null || (types == null) != (f instanceof EAttribute))
+				return;
+
+			List<Object> converted = new ArrayList<Object>(values.size());
+
+			for (int i = 0; i < values.size(); i++) {
+				if (types == null) {
+					converted.add(EcoreUtil.createFromString(((EAttribute) f).getEAttributeType(), values.get(i)));
+				} else {
+					EObject proxy = UMLFactory.eINSTANCE.create(types.get(i));
+					((InternalEObject) proxy).eSetProxyURI(URI.createURI(values.get(i)));
+					converted.add(proxy);
+				}
+			}
+
+			if (f.isMany())
+				((List<Object>) application.eGet(f)).addAll(converted);
+			else if (!converted.isEmpty())
+				application.eSet(f, converted.get(0));
+		}
+
+	}
+
+	/**
+	 * Resource set that loads the resources of one unit and libraries on demand, but never
+	 * the other units of the model.
+	 */
+	private class UnitResourceSet extends ResourceSetImpl {
+
+		/** The unit. */
+		private final URI unit;
+
+		/** Constructor. */
+		UnitResourceSet(URI unit) {
+			this.unit = unit;
+		}
+
+		@Override
+		public Resource getResource(URI uri, boolean loadOnDemand) {
+			// Leaves proxies into other units unresolved
+			if (loadOnDemand && !uri.equals(unit) && units.contains(uri))
+				return super.getResource(uri, false);
+
+			return super.getResource(uri, loadOnDemand);
+		}
+
+	}
+
+}
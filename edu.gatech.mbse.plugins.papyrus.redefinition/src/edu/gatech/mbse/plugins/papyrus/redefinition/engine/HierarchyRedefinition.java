@@ -0,0 +1,406 @@
+/**
+ * Copyright (c) 2015, Model-Based Systems Engineering Center, Georgia Institute of Technology.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ * 
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ * 
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *   
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.gatech.mbse.plugins.papyrus.redefinition.engine;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.uml2.uml.Classifier;
+import org.eclipse.uml2.uml.NamedElement;
+import org.eclipse.uml2.uml.Property;
+import org.eclipse.uml2.uml.StructuredClassifier;
+import org.eclipse.uml2.uml.VisibilityKind;
+
+/**
+ * Redefines inherited value properties across a whole generalization hierarchy.
+ * <p>
+ * Which inherited properties are redefined, and how, is decided by {@link RedefinitionRules}:
+ * value, part, flow and constraint properties and ports each have their own rule, and all of
+ * them are handled in a single pass over the inherited members of each classifier.
+ * <p>
+ * The classifiers to process are sorted so that generals come before their specifics. The
+ * inherited properties of a classifier are then derived from the result of its generals
+ * instead of calling {@link Classifier#getInheritedMembers()}: a general exposes its owned
+ * (non-private) attributes, which after it has been processed already include its new
+ * redefinitions, plus whatever it inherits and does not redefine. Each level therefore only
+ * deals with what it adds to its parents, and processing a chain of <i>n</i> classifiers is
+ * linear rather than quadratic in <i>n</i>.
+ * <p>
+ * Generals that are not part of the run are never modified; their visible properties are
+ * computed the same way and memoized for the duration of the run.
+ * <p>
+ * The redefinitions of a classifier are prepared detached and added to its owned attributes
+ * in one go, so that the list (and whatever listens to it) only changes once per classifier.
+ * <p>
+ * Each classifier that got new redefinitions records a {@link ClassifierFingerprint}.
+ * Classifiers whose generals and owned attributes have not changed since are skipped
+ * before their inherited properties are computed, which makes re-running on a model that
+ * was normalized by this class cheap.
+ * <p>
+ * Instances are not thread safe and are meant to be used for one run within one write
+ * transaction.
+ */
+public class HierarchyRedefinition {
+
+	/** Log4J object. */
+	private static final Logger logger = LogManager.getLogger(HierarchyRedefinition.class.getName());
+
+	/** The rules for creating redefinitions. */
+	private final RedefinitionRules rules;
+
+	/** Properties each classifier exposes to its specifics, memoized. */
+	private final Map<Classifier, List<Property>> visible = new IdentityHashMap<Classifier, List<Property>>();
+
+	/** Stamps of the classifiers, memoized; see {@link ClassifierFingerprint}. */
+	private final Map<Classifier, String> stamps = new IdentityHashMap<Classifier, String>();
+
+	/** Number of properties created so far. */
+	private int created = 0;
+
+	/** Number of classifiers skipped because their fingerprint matched. */
+	private int skipped = 0;
+
+	/** Whether classifiers with an unchanged fingerprint are skipped. */
+	private boolean skipUnchanged = true;
+
+	/** The report of the run, if any. */
+	private RunReport report = null;
+
+	/** Constructor using the default rules. */
+	public HierarchyRedefinition() {
+		this(RedefinitionRules.getDefault());
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param rules The rules for creating redefinitions
+	 */
+	public HierarchyRedefinition(RedefinitionRules rules) {
+		this.rules = rules;
+	}
+
+	/**
+	 * Redefines the inherited value properties of all given classifiers, generals first.
+	 * 
+	 * @param classifiers
+	 * @return The number of properties created
+	 */
+	public int run(Collection<? extends Classifier> classifiers) {
+		for (Classifier c : sortByGeneralization(classifiers)) {
+			redefine(c);
+		}
+
+		return created;
+	}
+
+	/**
+	 * Redefines the inherited value properties of one classifier, assuming that its generals
+	 * have been processed already (if they are processed at all).
+	 * 
+	 * @param c
+	 * @return The number of properties created for this classifier
+	 */
+	public int redefine(Classifier c) {
+		if (!(c instanceof StructuredClassifier)) {
+			logger.debug(c.getName() + " cannot own attributes - skipped");
+			return 0;
+		}
+
+		int before = created;
+		long start = System.nanoTime();
+		TraceEvent event = TraceEvent.begin("redefine").classifier(c);
+
+		// Anything computed for this classifier so far is about to change
+		visible.remove(c);
+		stamps.remove(c);
+
+		// Checked before computing the inherited properties, which are not needed if unchanged
+		String fingerprint = ClassifierFingerprint.compute(c, stamps);
+		String recorded = ClassifierFingerprint.read(c);
+
+		if (skipUnchanged && fingerprint.equals(recorded)) {
+			logger.trace(c.getName() + " is unchanged - skipped");
+			skipped++;
+			event.end();
+			report(c, 0, start);
+			return 0;
+		}
+
+		List<Property> inherited = getInheritedProperties(c);
+
+		event.inherited(inherited.size());
+
+		Map<Property, Boolean> redefined = getRedefinedProperties(c);
+		List<Property> sources = new ArrayList<Property>();
+		List<RedefinitionRule> used = new ArrayList<RedefinitionRule>();
+		List<Property> prepared = new ArrayList<Property>();
+
+		// One pass over the inherited members for all kinds of properties
+		for (Property p : inherited) {
+			logger.trace("Inherited member is: " + p.getName());
+
+			if (redefined.containsKey(p))
+				continue;
+
+			RedefinitionRule rule = rules.lookup(p);
+			Property newProperty = rule != null ? rule.prepare((StructuredClassifier) c, p) : null;
+
+			if (newProperty != null) {
+				redefined.put(p, Boolean.TRUE);
+				sources.add(p);
+				used.add(rule);
+				prepared.add(newProperty);
+			}
+		}
+
+		if (!prepared.isEmpty()) {
+			// One change to the owned attributes instead of one per property, and one to the
+			// resource for all stereotype applications
+			StereotypeBatch stereotypes = new StereotypeBatch();
+			((StructuredClassifier) c).getOwnedAttributes().addAll(prepared);
+
+			for (int i = 0; i < prepared.size(); i++)
+				used.get(i).complete(sources.get(i), prepared.get(i), stereotypes);
+
+			stereotypes.flush();
+
+			created += prepared.size();
+		}
+
+		// Owned attributes changed if anything was created; a classifier that needed nothing
+		// gets no annotation, so that normalized models are not dirtied
+		if (created > before) {
+			stamps.remove(c);
+			ClassifierFingerprint.write(c, ClassifierFingerprint.compute(c, stamps), true);
+		} else if (recorded != null) {
+			ClassifierFingerprint.write(c, fingerprint, false);
+		}
+
+		event.created(created - before).visited(inherited.size()).end();
+		report(c, inherited.size(), start);
+
+		if (report != null)
+			report.created(created - before);
+
+		return created - before;
+	}
+
+	/** Records a processed classifier in the report, if any. */
+	private void report(Classifier c, int inherited, long start) {
+		if (report != null) {
+			report.classifier(c, inherited, System.nanoTime() - start);
+			report.visited(inherited);
+		}
+	}
+
+	/**
+	 * Returns the properties a classifier inherits, derived from the properties its generals
+	 * expose.
+	 * 
+	 * @param c
+	 * @return
+	 */
+	public List<Property> getInheritedProperties(Classifier c) {
+		List<Classifier> generals = c.getGenerals();
+
+		if (generals.size() == 1)
+			return getVisibleProperties(generals.get(0));
+
+		List<Property> inherited = new ArrayList<Property>();
+		Map<Property, Boolean> seen = new IdentityHashMap<Property, Boolean>();
+
+		for (Classifier g : generals) {
+			for (Property p : getVisibleProperties(g)) {
+				// Diamonds: the same property may be inherited along several paths
+				if (seen.put(p, Boolean.TRUE) == null)
+					inherited.add(p);
+			}
+		}
+
+		return inherited;
+	}
+
+	/**
+	 * Returns the properties a classifier exposes to its specifics: its non-private owned
+	 * attributes, and the properties it inherits and does not redefine.
+	 * 
+	 * @param c
+	 * @return
+	 */
+	public List<Property> getVisibleProperties(Classifier c) {
+		List<Property> result = visible.get(c);
+
+		if (result != null)
+			return result;
+
+		// Guard against cyclic generalizations in broken models
+		visible.put(c, Collections.<Property>emptyList());
+
+		result = new ArrayList<Property>();
+
+		for (NamedElement m : c.getOwnedMembers()) {
+			if (m instanceof Property
+					&& m.getVisibility() != VisibilityKind.PRIVATE_LITERAL)
+				result.add((Property) m);
+		}
+
+		Map<Property, Boolean> redefined = getRedefinedProperties(c);
+
+		for (Property p : getInheritedProperties(c)) {
+			if (!redefined.containsKey(p)
+					&& p.getVisibility() != VisibilityKind.PRIVATE_LITERAL)
+				result.add(p);
+		}
+
+		result = Collections.unmodifiableList(result);
+		visible.put(c, result);
+
+		return result;
+	}
+
+	/** @return The number of properties created so far */
+	public int getCreatedCount() {
+		return created;
+	}
+
+	/** @return The number of classifiers skipped because they were unchanged */
+	public int getSkippedCount() {
+		return skipped;
+	}
+
+	/**
+	 * Sets whether classifiers whose fingerprint did not change since they were last processed
+	 * are skipped (the default), or processed again anyway.
+	 * 
+	 * @param skipUnchanged
+	 */
+	public void setSkipUnchanged(boolean skipUnchanged) {
+		this.skipUnchanged = skipUnchanged;
+	}
+
+	/**
+	 * Sets the report that processed classifiers, elements visited and properties created are
+	 * recorded in.
+	 * 
+	 * @param report The report, or <b>null</b> for none
+	 */
+	public void setReport(RunReport report) {
+		this.report = report;
+	}
+
+	/**
+	 * Returns the properties redefined by the owned attributes of a classifier.
+	 * 
+	 * @param c
+	 * @return
+	 */
+	protected static Map<Property, Boolean> getRedefinedProperties(Classifier c) {
+		Map<Property, Boolean> redefined = new IdentityHashMap<Property, Boolean>();
+
+		for (NamedElement m : c.getOwnedMembers()) {
+			if (m instanceof Property) {
+				for (Property r : ((Property) m).getRedefinedProperties())
+					redefined.put(r, Boolean.TRUE);
+			}
+		}
+
+		return redefined;
+	}
+
+	/**
+	 * Sorts classifiers so that each comes after all of its direct and indirect generals that
+	 * are in the given collection, also when they are related only through classifiers that are
+	 * not. Classifiers unrelated to each other keep their relative order.
+	 * 
+	 * @param classifiers
+	 * @return
+	 */
+	public static List<Classifier> sortByGeneralization(Collection<? extends Classifier> classifiers) {
+		Map<Classifier, Boolean> selected = new IdentityHashMap<Classifier, Boolean>();
+
+		for (Classifier c : classifiers)
+			selected.put(c, Boolean.TRUE);
+
+		List<Classifier> sorted = new ArrayList<Classifier>(selected.size());
+		Map<Classifier, Boolean> visited = new IdentityHashMap<Classifier, Boolean>();
+
+		for (Classifier c : classifiers)
+			visit(c, selected, visited, sorted);
+
+		return sorted;
+	}
+
+	/**
+	 * Depth first post-order over all generals; only selected classifiers are added, the
+	 * others are just passed through.
+	 */
+	private static void visit(Classifier c, Map<Classifier, Boolean> selected, Map<Classifier, Boolean> visited,
+			List<Classifier> sorted) {
+		if (visited.put(c, Boolean.TRUE) != null)
+			return;
+
+		// Iterative, so that very deep hierarchies do not exhaust the stack
+		List<Classifier> stack = new ArrayList<Classifier>();
+		List<List<Classifier>> generals = new ArrayList<List<Classifier>>();
+		List<int[]> next = new ArrayList<int[]>();
+
+		stack.add(c);
+		generals.add(c.getGenerals());
+		next.add(new int[] { 0 });
+
+		while (!stack.isEmpty()) {
+			int top = stack.size() - 1;
+			List<Classifier> g = generals.get(top);
+			int[] i = next.get(top);
+
+			if (i[0] < g.size()) {
+				Classifier general = g.get(i[0]++);
+
+				// Each classifier once, which also breaks cycles in broken models
+				if (visited.put(general, Boolean.TRUE) == null) {
+					stack.add(general);
+					generals.add(general.getGenerals());
+					next.add(new int[] { 0 });
+				}
+			} else {
+				Classifier current = stack.remove(top);
+				generals.remove(top);
+				next.remove(top);
+
+				if (selected.containsKey(current))
+					sorted.add(current);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,381 @@
+/**
+ * Copyright (c) 2015, Model-Based Systems Engineering Center, Georgia Institute of Technology.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ * 
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ * 
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *   
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.gatech.mbse.plugins.papyrus.redefinition.engine;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.emf.common.util.URI;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.EReference;
+import org.eclipse.emf.ecore.InternalEObject;
+import org.eclipse.emf.ecore.resource.Resource;
+import org.eclipse.emf.ecore.resource.ResourceSet;
+import org.eclipse.emf.ecore.resource.impl.ResourceSetImpl;
+import org.eclipse.emf.transaction.TransactionalEditingDomain;
+import org.eclipse.uml2.uml.Classifier;
+import org.eclipse.uml2.uml.Generalization;
+import org.eclipse.uml2.uml.Property;
+import org.eclipse.uml2.uml.StructuredClassifier;
+import org.eclipse.uml2.uml.UMLPackage;
+
+/**
+ * Loads the resources a set of classifiers depends on before a redefinition run.
+ * <p>
+ * Generals and property types in imported libraries and profiles are otherwise loaded one
+ * resource at a time, whenever a proxy happens to be resolved in the middle of the run. The
+ * preloader instead follows the generalization and type references of the classifiers (and,
+ * wave by wave, of the classifiers they lead to) without resolving them, collects the
+ * resources the proxies point to, and loads all resources of a wave in parallel. Each
+ * resource is loaded on its own thread into a staging resource set that shares the package
+ * registry, URI converter (with its URI map and pathmaps), resource factories and load
+ * options of the target resource set, and sees the resources already in it, so that e.g.
+ * stereotype applications of dynamic profiles are read as they would be by on-demand loading.
+ * The loaded resources are then moved to the resource set together, in the editing domain's
+ * exclusive context if there is one.
+ * <p>
+ * Proxies that still cannot be resolved afterwards are reported by
+ * {@link #getUnresolvedProxies()}.
+ */
+public class LibraryPreloader {
+
+	/** Log4J object. */
+	private static final Logger logger = LogManager.getLogger(LibraryPreloader.class.getName());
+
+	/** The resource set to load into. */
+	private final ResourceSet resourceSet;
+
+	/** The editing domain of the resource set, or <b>null</b>. */
+	private final TransactionalEditingDomain domain;
+
+	/** Maximum number of resources loaded at the same time. */
+	private final int threads;
+
+	/** Resources loaded so far. */
+	private final List<Resource> loaded = new ArrayList<Resource>();
+
+	/** Proxies that could not be resolved, by the element referring to them. */
+	private final Map<EObject, List<URI>> unresolved = new LinkedHashMap<EObject, List<URI>>();
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param domain The editing domain whose resource set to load into
+	 */
+	public LibraryPreloader(TransactionalEditingDomain domain) {
+		this(domain.getResourceSet(), domain, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param resourceSet The resource set to load into
+	 * @param domain The editing domain of the resource set, or <b>null</b> if there is none
+	 * @param threads Maximum number of resources loaded at the same time
+	 */
+	public LibraryPreloader(ResourceSet resourceSet, TransactionalEditingDomain domain, int threads) {
+		this.resourceSet = resourceSet;
+		this.domain = domain;
+		this.threads = Math.max(1, threads);
+	}
+
+	/**
+	 * Loads the resources the given classifiers depend on, directly or through other
+	 * classifiers, via generalizations and property types.
+	 * 
+	 * @param classifiers
+	 * @return The number of resources loaded
+	 * @throws InterruptedException
+	 */
+	public int preload(Collection<? extends Classifier> classifiers) throws InterruptedException {
+		Map<EObject, Boolean> scanned = new IdentityHashMap<EObject, Boolean>();
+		List<Classifier> frontier = new ArrayList<Classifier>(classifiers);
+		int before = loaded.size();
+
+		while (!frontier.isEmpty()) {
+			List<Classifier> next = new ArrayList<Classifier>();
+			Map<URI, List<ProxyReference>> proxies = new LinkedHashMap<URI, List<ProxyReference>>();
+
+			for (Classifier c : frontier) {
+				if (scanned.put(c, Boolean.TRUE) == null)
+					scan(c, proxies, next);
+			}
+
+			if (!proxies.isEmpty()) {
+				attach(load(proxies.keySet(), getResources()));
+
+				// Resolve against the now complete resource set
+				for (List<ProxyReference> references : proxies.values()) {
+					for (ProxyReference r : references) {
+						Object target = r.holder.eGet(r.feature, true);
+
+						if (!(target instanceof EObject) || ((EObject) target).eIsProxy())
+							addUnresolved(r.holder, r.uri);
+						else if (target instanceof Classifier)
+							next.add((Classifier) target);
+					}
+				}
+			}
+
+			frontier = next;
+		}
+
+		for (Map.Entry<EObject, List<URI>> e : unresolved.entrySet()) {
+			for (URI uri : e.getValue())
+				logger.warn("Unresolved proxy " + uri + " referenced by " + e.getKey());
+		}
+
+		return loaded.size() - before;
+	}
+
+	/** @return The resources loaded so far */
+	public List<Resource> getLoadedResources() {
+		return Collections.unmodifiableList(loaded);
+	}
+
+	/** @return The proxies that could not be resolved, by the element referencing them */
+	public Map<EObject, List<URI>> getUnresolvedProxies() {
+		return Collections.unmodifiableMap(unresolved);
+	}
+
+	/** Records an unresolved proxy; an element may refer to several. */
+	private void addUnresolved(EObject holder, URI uri) {
+		List<URI> uris = unresolved.get(holder);
+
+		if (uris == null) {
+			uris = new ArrayList<URI>(1);
+			unresolved.put(holder, uris);
+		}
+
+		if (!uris.contains(uri))
+			uris.add(uri);
+	}
+
+	/**
+	 * Collects the generals and attribute types of a classifier: resolved ones are added to
+	 * the next wave, proxies are grouped by the resource they point to.
+	 */
+	private void scan(Classifier c, Map<URI, List<ProxyReference>> proxies, List<Classifier> next) {
+		for (Generalization g : c.getGeneralizations())
+			reference(g, UMLPackage.Literals.GENERALIZATION__GENERAL, proxies, next);
+
+		if (c instanceof StructuredClassifier) {
+			for (Property p : ((StructuredClassifier) c).getOwnedAttributes())
+				reference(p, UMLPackage.Literals.TYPED_ELEMENT__TYPE, proxies, next);
+		}
+	}
+
+	/** Looks at a reference without resolving it. */
+	private void reference(EObject holder, EReference feature, Map<URI, List<ProxyReference>> proxies,
+			List<Classifier> next) {
+		Object target = holder.eGet(feature, false);
+
+		if (!(target instanceof EObject))
+			return;
+
+		if (!((EObject) target).eIsProxy()) {
+			if (target instanceof Classifier)
+				next.add((Classifier) target);
+			return;
+		}
+
+		URI uri = ((InternalEObject) target).eProxyURI();
+		URI resourceURI = uri.trimFragment();
+		List<ProxyReference> references = proxies.get(resourceURI);
+
+		if (references == null) {
+			references = new ArrayList<ProxyReference>();
+			proxies.put(resourceURI, references);
+		}
+
+		references.add(new ProxyReference(holder, feature, uri));
+	}
+
+	/** @return The resources of the resource set by URI, read in the exclusive context */
+	private Map<URI, Resource> getResources() throws InterruptedException {
+		final Map<URI, Resource> resources = new HashMap<URI, Resource>();
+
+		Runnable read = new Runnable() {
+
+			@Override
+			public void run() {
+				for (Resource r : resourceSet.getResources())
+					resources.put(r.getURI(), r);
+			}
+
+		};
+
+		if (domain != null)
+			domain.runExclusive(read);
+		else
+			read.run();
+
+		return resources;
+	}
+
+	/**
+	 * Loads the resources that are not in the resource set yet, in parallel, with the
+	 * resources they load on demand (e.g. profiles not loaded yet).
+	 */
+	private List<Resource> load(Collection<URI> uris, Map<URI, Resource> known) {
+		Map<URI, Future<List<Resource>>> futures = new LinkedHashMap<URI, Future<List<Resource>>>();
+		Map<URI, Resource> result = new LinkedHashMap<URI, Resource>();
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, uris.size()));
+
+		try {
+			for (final URI uri : uris) {
+				// Resources already known to the resource set are left to on-demand loading
+				if (known.containsKey(uri))
+					continue;
+
+				if (resourceSet.getResourceFactoryRegistry().getFactory(uri) == null) {
+					logger.warn("No resource factory for " + uri);
+					continue;
+				}
+
+				final StagingResourceSet staging = new StagingResourceSet(known);
+
+				futures.put(uri, executor.submit(new Callable<List<Resource>>() {
+
+					@Override
+					public List<Resource> call() {
+						staging.getResource(uri, true);
+
+						return new ArrayList<Resource>(staging.getResources());
+					}
+
+				}));
+			}
+
+			for (Map.Entry<URI, Future<List<Resource>>> f : futures.entrySet()) {
+				try {
+					for (Resource r : f.getValue().get()) {
+						// A resource loaded on demand by several threads is kept once
+						if (!result.containsKey(r.getURI()))
+							result.put(r.getURI(), r);
+						else
+							logger.debug("Dropped second copy of " + r.getURI());
+					}
+				} catch (ExecutionException e) {
+					logger.warn("Could not load " + f.getKey() + ": " + e.getCause());
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+
+		return new ArrayList<Resource>(result.values());
+	}
+
+	/** Adds loaded resources to the resource set. */
+	private void attach(final List<Resource> resources) throws InterruptedException {
+		if (resources.isEmpty())
+			return;
+
+		Runnable attach = new Runnable() {
+
+			@Override
+			public void run() {
+				resourceSet.getResources().addAll(resources);
+			}
+
+		};
+
+		if (domain != null)
+			domain.runExclusive(attach);
+		else
+			attach.run();
+
+		loaded.addAll(resources);
+		logger.debug("Preloaded " + resources.size() + " resources");
+	}
+
+	/**
+	 * Resource set a library is loaded into on a worker thread. It loads like the target
+	 * resource set, and finds the resources already in it instead of loading them again.
+	 */
+	private class StagingResourceSet extends ResourceSetImpl {
+
+		/** The resources of the target resource set, by URI. */
+		private final Map<URI, Resource> known;
+
+		/** Constructor. */
+		StagingResourceSet(Map<URI, Resource> known) {
+			this.known = known;
+
+			setPackageRegistry(resourceSet.getPackageRegistry());
+			setURIConverter(resourceSet.getURIConverter());
+			setResourceFactoryRegistry(resourceSet.getResourceFactoryRegistry());
+			getLoadOptions().putAll(resourceSet.getLoadOptions());
+		}
+
+		@Override
+		public Resource getResource(URI uri, boolean loadOnDemand) {
+			Resource resource = known.get(uri);
+
+			return resource != null ? resource : super.getResource(uri, loadOnDemand);
+		}
+
+	}
+
+	/** A reference to a proxy. */
+	private static class ProxyReference {
+
+		/** The element holding the reference. */
+		final EObject holder;
+
+		/** The reference. */
+		final EReference feature;
+
+		/** The proxy URI. */
+		final URI uri;
+
+		ProxyReference(EObject holder, EReference feature, URI uri) {
+			this.holder = holder;
+			this.feature = feature;
+			this.uri = uri;
+		}
+
+	}
+
+}
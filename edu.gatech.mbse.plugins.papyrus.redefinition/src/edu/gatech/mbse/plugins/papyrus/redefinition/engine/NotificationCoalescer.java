@@ -0,0 +1,297 @@
+/**
+ * Copyright (c) 2015, Model-Based Systems Engineering Center, Georgia Institute of Technology.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ * 
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ * 
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *   
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.gatech.mbse.plugins.papyrus.redefinition.engine;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.emf.common.notify.Adapter;
+import org.eclipse.emf.common.notify.Notification;
+import org.eclipse.emf.common.notify.Notifier;
+import org.eclipse.emf.common.notify.impl.AdapterImpl;
+import org.eclipse.emf.ecore.EReference;
+import org.eclipse.emf.ecore.EStructuralFeature;
+import org.eclipse.emf.ecore.InternalEObject;
+import org.eclipse.emf.ecore.impl.ENotificationImpl;
+import org.eclipse.emf.ecore.util.ECrossReferenceAdapter;
+import org.eclipse.emf.transaction.RecordingCommand;
+import org.eclipse.emf.transaction.RollbackException;
+import org.eclipse.emf.transaction.Transaction;
+import org.eclipse.emf.transaction.TransactionalCommandStack;
+import org.eclipse.emf.transaction.TransactionalEditingDomain;
+
+/**
+ * Runs a bulk model change with coalesced notifications for the adapters attached to the
+ * elements in scope, e.g. the EMF.Edit item providers behind the Model Explorer's labels and
+ * the property sheet, so that they refresh once per element and feature instead of once per
+ * elementary change.
+ * <p>
+ * The change is executed as one undoable command without live validation. Resource set
+ * listeners get the usual post-commit event with every elementary notification of the
+ * command. This includes Papyrus' DiagramEventBroker, which forwards each of them to the
+ * diagrams, so diagram refreshes are not reduced by the coalescer.
+ * <p>
+ * Within the write transaction of the command, the non-essential adapters of the elements in
+ * scope are detached before the change and attached again after it; the adapters EMF itself
+ * depends on (change recording, cross referencing, UML caches) stay attached and see every
+ * change as it happens. Meanwhile the changes to the elements in scope are merged into one
+ * notification per element and feature - all elements added to a containment, or the last
+ * value set. Once the command is done, only the detached adapters receive the merged
+ * notifications, in a read-only transaction. Elements created by the change, such as new
+ * properties and stereotype applications, are not in scope: their adapters, if any, are
+ * notified as usual.
+ */
+public class NotificationCoalescer {
+
+	/** Log4J object. */
+	private static final Logger logger = LogManager.getLogger(NotificationCoalescer.class.getName());
+
+	/** The editing domain. */
+	private final TransactionalEditingDomain domain;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param domain
+	 */
+	public NotificationCoalescer(TransactionalEditingDomain domain) {
+		this.domain = domain;
+	}
+
+	/**
+	 * Executes a bulk change as one command on the command stack.
+	 * 
+	 * @param label The label of the command
+	 * @param work The change
+	 * @param scope The elements the change is made to
+	 * @return <b>true</b> if the command was executed, <b>false</b> if it was rolled back
+	 * @throws InterruptedException
+	 */
+	public boolean execute(String label, final Runnable work, final Collection<? extends Notifier> scope)
+			throws InterruptedException {
+		final Collector collector = new Collector();
+		final Map<Notifier, List<Adapter>> suspended = new IdentityHashMap<Notifier, List<Adapter>>();
+
+		Map<String, Object> options = new HashMap<String, Object>();
+		options.put(Transaction.OPTION_NO_VALIDATION, Boolean.TRUE);
+
+		try {
+			((TransactionalCommandStack) domain.getCommandStack()).execute(new RecordingCommand(domain, label) {
+
+				@Override
+				protected void doExecute() {
+					// Adapter lists are changed in the transaction, not under readers' feet
+					suspend(scope, collector, suspended);
+
+					try {
+						work.run();
+					} finally {
+						resume(collector, suspended);
+					}
+				}
+
+			}, options);
+		} catch (RollbackException e) {
+			logger.error("Rolled back: " + e.getStatus());
+			return false;
+		}
+
+		deliver(collector.getNotifications(), suspended);
+
+		return true;
+	}
+
+	/** Replaces the non-essential adapters of the elements in scope by the collector. */
+	private void suspend(Collection<? extends Notifier> scope, Collector collector,
+			Map<Notifier, List<Adapter>> suspended) {
+		for (Notifier n : scope) {
+			if (suspended.containsKey(n))
+				continue;
+
+			List<Adapter> detached = new ArrayList<Adapter>();
+
+			for (Adapter a : n.eAdapters()) {
+				if (!isEssential(a))
+					detached.add(a);
+			}
+
+			n.eAdapters().removeAll(detached);
+			n.eAdapters().add(collector);
+			suspended.put(n, detached);
+		}
+	}
+
+	/** Attaches the detached adapters again. */
+	private static void resume(Collector collector, Map<Notifier, List<Adapter>> suspended) {
+		for (Map.Entry<Notifier, List<Adapter>> e : suspended.entrySet()) {
+			e.getKey().eAdapters().remove(collector);
+			e.getKey().eAdapters().addAll(e.getValue());
+		}
+	}
+
+	/**
+	 * Checks whether an adapter has to keep receiving every notification. These are the
+	 * adapters of EMF transactions and change recording, and cross referencers (including the
+	 * UML2 cache adapter).
+	 * 
+	 * @param a
+	 * @return
+	 */
+	protected boolean isEssential(Adapter a) {
+		if (a instanceof ECrossReferenceAdapter)
+			return true;
+
+		String name = a.getClass().getName();
+
+		return name.startsWith("org.eclipse.emf.transaction.")
+				|| name.startsWith("org.eclipse.emf.ecore.change.");
+	}
+
+	/**
+	 * Sends the merged notifications to the adapters that were detached from their notifier,
+	 * and only to those: the others have seen the changes already.
+	 */
+	private void deliver(final List<Notification> notifications, final Map<Notifier, List<Adapter>> suspended)
+			throws InterruptedException {
+		if (notifications.isEmpty())
+			return;
+
+		domain.runExclusive(new Runnable() {
+
+			@Override
+			public void run() {
+				for (Notification n : notifications) {
+					List<Adapter> adapters = suspended.get(n.getNotifier());
+
+					for (int i = 0; adapters != null && i < adapters.size(); i++) {
+						// Unless it was removed from the notifier in the meantime
+						if (((Notifier) n.getNotifier()).eAdapters().contains(adapters.get(i)))
+							adapters.get(i).notifyChanged(n);
+					}
+				}
+			}
+
+		});
+
+		logger.debug("Delivered " + notifications.size() + " merged notifications");
+	}
+
+	/** Merges the notifications of the elements in scope. */
+	private static class Collector extends AdapterImpl {
+
+		/** Elements added to containments, by notifier and feature. */
+		private final Map<Notifier, Map<EStructuralFeature, List<Object>>> added =
+				new LinkedHashMap<Notifier, Map<EStructuralFeature, List<Object>>>();
+
+		/** Last other change, by notifier and feature. */
+		private final Map<Notifier, Map<EStructuralFeature, Notification>> changed =
+				new LinkedHashMap<Notifier, Map<EStructuralFeature, Notification>>();
+
+		@Override
+		public void notifyChanged(Notification n) {
+			if (!(n.getFeature() instanceof EStructuralFeature) || n.isTouch())
+				return;
+
+			Notifier notifier = (Notifier) n.getNotifier();
+			EStructuralFeature feature = (EStructuralFeature) n.getFeature();
+			boolean containment = feature instanceof EReference && ((EReference) feature).isContainment();
+
+			if (containment && n.getEventType() == Notification.ADD) {
+				getAdded(notifier, feature).add(n.getNewValue());
+			} else if (containment && n.getEventType() == Notification.ADD_MANY) {
+				getAdded(notifier, feature).addAll((Collection<?>) n.getNewValue());
+			} else if (containment && n.getEventType() == Notification.REMOVE
+					&& getAdded(notifier, feature).remove(n.getOldValue())) {
+				// Added and removed again: nothing to report
+			} else {
+				Map<EStructuralFeature, Notification> byFeature = changed.get(notifier);
+
+				if (byFeature == null) {
+					byFeature = new LinkedHashMap<EStructuralFeature, Notification>();
+					changed.put(notifier, byFeature);
+				}
+
+				byFeature.put(feature, n);
+			}
+		}
+
+		@Override
+		public boolean isAdapterForType(Object type) {
+			return type == Collector.class;
+		}
+
+		/** Returns the merged notifications. */
+		List<Notification> getNotifications() {
+			List<Notification> result = new ArrayList<Notification>();
+
+			for (Map.Entry<Notifier, Map<EStructuralFeature, List<Object>>> e : added.entrySet()) {
+				for (Map.Entry<EStructuralFeature, List<Object>> f : e.getValue().entrySet()) {
+					if (f.getValue().isEmpty())
+						continue;
+
+					if (f.getValue().size() == 1)
+						result.add(new ENotificationImpl((InternalEObject) e.getKey(), Notification.ADD,
+								f.getKey(), null, f.getValue().get(0)));
+					else
+						result.add(new ENotificationImpl((InternalEObject) e.getKey(), Notification.ADD_MANY,
+								f.getKey(), null, f.getValue()));
+				}
+			}
+
+			for (Map<EStructuralFeature, Notification> byFeature : changed.values())
+				result.addAll(byFeature.values());
+
+			return result;
+		}
+
+		private List<Object> getAdded(Notifier notifier, EStructuralFeature feature) {
+			Map<EStructuralFeature, List<Object>> byFeature = added.get(notifier);
+
+			if (byFeature == null) {
+				byFeature = new LinkedHashMap<EStructuralFeature, List<Object>>();
+				added.put(notifier, byFeature);
+			}
+
+			List<Object> values = byFeature.get(feature);
+
+			if (values == null) {
+				values = new ArrayList<Object>();
+				byFeature.put(feature, values);
+			}
+
+			return values;
+		}
+
+	}
+
+}
@@ -0,0 +1,139 @@
+/**
+ * Copyright (c) 2015, Model-Based Systems Engineering Center, Georgia Institute of Technology.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ * 
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ * 
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *   
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.gatech.mbse.plugins.papyrus.redefinition.engine;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.EReference;
+import org.eclipse.emf.ecore.EStructuralFeature;
+import org.eclipse.emf.ecore.util.EcoreUtil;
+import org.eclipse.uml2.uml.Property;
+import org.eclipse.uml2.uml.Stereotype;
+import org.eclipse.uml2.uml.StructuredClassifier;
+import org.eclipse.uml2.uml.UMLFactory;
+
+/**
+ * Redefines a property by creating an owned attribute with the same name, type, stereotypes
+ * and their tagged values, multiplicity, visibility and aggregation. This is the rule for value properties; the rules
+ * for other kinds of properties extend it.
+ * <p>
+ * The new property is built completely before it is attached, and its multiplicity is a copy
+ * of the inherited one (the value specifications are contained, so they cannot be shared).
+ */
+public class PropertyCopyRule implements RedefinitionRule {
+
+	@Override
+	public Property prepare(StructuredClassifier c, Property inherited) {
+		Property newProperty = create(c, inherited);
+
+		if (newProperty != null)
+			copy(inherited, newProperty);
+
+		return newProperty;
+	}
+
+	@Override
+	public void complete(Property inherited, Property newProperty, StereotypeBatch stereotypes) {
+		for (Stereotype s : inherited.getAppliedStereotypes())
+			applied(inherited, s, stereotypes.apply(newProperty, s));
+	}
+
+	/**
+	 * Called for each stereotype applied to the new property. Copies the tagged values of the
+	 * inherited property's application, such as the direction of a flow property: contained
+	 * values are copied, referenced ones shared. The application may not be in the model yet.
+	 * 
+	 * @param inherited The inherited property
+	 * @param stereotype The stereotype
+	 * @param application The application of the stereotype to the new property
+	 */
+	protected void applied(Property inherited, Stereotype stereotype, EObject application) {
+		// Between the applications, since the new one may not be in the model yet
+		EObject source = inherited.getStereotypeApplication(stereotype);
+
+		if (source == null)
+			return;
+
+		for (EStructuralFeature f : source.eClass().getEAllStructuralFeatures()) {
+			if (!StereotypeBatch.isTaggedValue(f) || !source.eIsSet(f))
+				continue;
+
+			Object value = source.eGet(f);
+
+			if (f instanceof EReference && ((EReference) f).isContainment())
+				value = f.isMany() ? EcoreUtil.copyAll((Collection<?>) value) : EcoreUtil.copy((EObject) value);
+			else if (f.isMany())
+				value = new ArrayList<Object>((Collection<?>) value);
+
+			application.eSet(f, value);
+		}
+	}
+
+	/**
+	 * Creates the new, detached property.
+	 * 
+	 * @param c The classifier the property is meant for
+	 * @param inherited The inherited property
+	 * @return The new property, or <b>null</b> if the classifier cannot hold it
+	 */
+	protected Property create(StructuredClassifier c, Property inherited) {
+		return UMLFactory.eINSTANCE.createProperty();
+	}
+
+	/**
+	 * Copies the features of the inherited property to the new one, and makes the new one
+	 * redefine the inherited one.
+	 * 
+	 * @param inherited The inherited property
+	 * @param newProperty The new property
+	 */
+	protected void copy(Property inherited, Property newProperty) {
+		// Name & type
+		newProperty.setName(inherited.getName());
+		newProperty.setType(inherited.getType());
+
+		// Multiplicity
+		if (inherited.getUpperValue() != null) {
+			newProperty.setUpperValue(EcoreUtil.copy(inherited.getUpperValue()));
+		}
+
+		if (inherited.getLowerValue() != null) {
+			newProperty.setLowerValue(EcoreUtil.copy(inherited.getLowerValue()));
+		}
+
+		// Set redefinition context
+		newProperty.getRedefinedProperties().add(inherited);
+
+		// Visibility: private, public or protected
+		newProperty.setVisibility(inherited.getVisibility());
+
+		// Set aggregation kind (leads to Papyrus validation error otherwise!)
+		newProperty.setAggregation(inherited.getAggregation());
+	}
+
+}
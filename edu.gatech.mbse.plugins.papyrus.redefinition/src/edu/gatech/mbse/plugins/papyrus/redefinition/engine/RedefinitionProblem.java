@@ -0,0 +1,118 @@
+/**
+ * Copyright (c) 2015, Model-Based Systems Engineering Center, Georgia Institute of Technology.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ * 
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ * 
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *   
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.gatech.mbse.plugins.papyrus.redefinition.engine;
+
+import org.eclipse.uml2.uml.Classifier;
+import org.eclipse.uml2.uml.Property;
+
+/**
+ * An inconsistency between a property and the inherited property it redefines, as found by
+ * the {@link RedefinitionValidator}.
+ */
+public class RedefinitionProblem {
+
+	/** Kinds of problems. */
+	public enum Kind {
+		/** The redefined property is not inherited (anymore). */
+		NOT_INHERITED(true),
+		/** Several owned properties redefine the same property. */
+		DUPLICATE(true),
+		/** The type does not conform to the type of the redefined property. */
+		TYPE_MISMATCH(true),
+		/** The multiplicity is not within the multiplicity of the redefined property. */
+		MULTIPLICITY_MISMATCH(true),
+		/** The multiplicity is narrower than the one of the redefined property. */
+		MULTIPLICITY_DRIFT(false),
+		/** The aggregation differs from the one of the redefined property. */
+		AGGREGATION_MISMATCH(true);
+
+		/** Whether the model is invalid, rather than merely out of sync. */
+		private final boolean error;
+
+		private Kind(boolean error) {
+			this.error = error;
+		}
+
+		/** @return Whether the model is invalid, rather than merely out of sync */
+		public boolean isError() {
+			return error;
+		}
+	}
+
+	/** The kind of problem. */
+	private final Kind kind;
+
+	/** The classifier owning the property. */
+	private final Classifier classifier;
+
+	/** The redefining property. */
+	private final Property property;
+
+	/** The redefined property. */
+	private final Property redefined;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param kind
+	 * @param classifier
+	 * @param property
+	 * @param redefined
+	 */
+	RedefinitionProblem(Kind kind, Classifier classifier, Property property, Property redefined) {
+		this.kind = kind;
+		this.classifier = classifier;
+		this.property = property;
+		this.redefined = redefined;
+	}
+
+	/** @return The kind of problem */
+	public Kind getKind() {
+		return kind;
+	}
+
+	/** @return The classifier owning the redefining property */
+	public Classifier getClassifier() {
+		return classifier;
+	}
+
+	/** @return The redefining property */
+	public Property getProperty() {
+		return property;
+	}
+
+	/** @return The redefined property */
+	public Property getRedefined() {
+		return redefined;
+	}
+
+	@Override
+	public String toString() {
+		return kind + " " + classifier.getName() + "::" + property.getName() + " redefines "
+				+ (redefined.getNamespace() != null ? redefined.getNamespace().getName() + "::" : "") + redefined.getName();
+	}
+
+}
@@ -0,0 +1,63 @@
+/**
+ * Copyright (c) 2015, Model-Based Systems Engineering Center, Georgia Institute of Technology.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ * 
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ * 
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *   
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.gatech.mbse.plugins.papyrus.redefinition.engine;
+
+import org.eclipse.uml2.uml.Property;
+import org.eclipse.uml2.uml.StructuredClassifier;
+
+/**
+ * Creates the redefinition of one kind of inherited property.
+ * <p>
+ * A redefinition is created in two steps, so that many can be added to a classifier at once:
+ * {@link #prepare(StructuredClassifier, Property)} builds the complete property while it is
+ * still detached, and {@link #complete(Property, Property, StereotypeBatch)} does what needs
+ * the property to be in the model (stereotype applications) once it is owned by the
+ * classifier. The stereotypes of all properties are then applied at once.
+ * 
+ * @see RedefinitionRules
+ */
+public interface RedefinitionRule {
+
+	/**
+	 * Prepares a detached property that redefines an inherited property, to be added to the
+	 * owned attributes of a classifier.
+	 * 
+	 * @param c The classifier the property is meant for
+	 * @param inherited The inherited property
+	 * @return The new property, or <b>null</b> if the classifier cannot hold it
+	 */
+	Property prepare(StructuredClassifier c, Property inherited);
+
+	/**
+	 * Completes a prepared property after it was added to the classifier.
+	 * 
+	 * @param inherited The inherited property
+	 * @param newProperty The new property
+	 * @param stereotypes The batch to apply stereotypes through; flushed by the caller
+	 */
+	void complete(Property inherited, Property newProperty, StereotypeBatch stereotypes);
+
+}
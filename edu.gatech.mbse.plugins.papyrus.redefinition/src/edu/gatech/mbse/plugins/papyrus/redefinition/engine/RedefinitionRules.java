@@ -0,0 +1,338 @@
+/**
+ * Copyright (c) 2015, Model-Based Systems Engineering Center, Georgia Institute of Technology.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ * 
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ * 
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *   
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.gatech.mbse.plugins.papyrus.redefinition.engine;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.emf.ecore.EClass;
+import org.eclipse.uml2.uml.AggregationKind;
+import org.eclipse.uml2.uml.EncapsulatedClassifier;
+import org.eclipse.uml2.uml.Port;
+import org.eclipse.uml2.uml.Property;
+import org.eclipse.uml2.uml.Stereotype;
+import org.eclipse.uml2.uml.StructuredClassifier;
+import org.eclipse.uml2.uml.Type;
+import org.eclipse.uml2.uml.UMLFactory;
+import org.eclipse.uml2.uml.UMLPackage;
+
+/**
+ * Table of the {@link RedefinitionRule}s that apply to inherited properties.
+ * <p>
+ * Rules are registered for a property EClass, optionally qualified by the name of an applied
+ * stereotype or by the EClass of the property's type. A property is dispatched by
+ * <ol>
+ * <li>its EClass, to the registration of the nearest registered EClass (so a rule for
+ * <code>Port</code> takes precedence over those for <code>Property</code>);</li>
+ * <li>then its applied stereotypes, in order;</li>
+ * <li>then the EClass of its type, or the nearest registered super type;</li>
+ * <li>and finally the default rule of the registration.</li>
+ * </ol>
+ * Both EClass resolutions are computed once per EClass and kept in a lookup table, so
+ * dispatching costs a few hash lookups per property. Lookups are thread safe; registering
+ * rules is not, and is meant to happen before the table is used.
+ */
+public class RedefinitionRules {
+
+	/** Marks an EClass that resolves to no registration or rule. */
+	private static final Object NONE = new Object();
+
+	/** The rules shipped with the plug-in. */
+	private static RedefinitionRules defaultRules = null;
+
+	/** Rules by property EClass, as registered. */
+	private final Map<EClass, Registration> registrations = new LinkedHashMap<EClass, Registration>();
+
+	/** Registration resolved for each property EClass seen. */
+	private final Map<EClass, Object> byPropertyClass = new ConcurrentHashMap<EClass, Object>();
+
+	/** The rules registered for one property EClass. */
+	private static class Registration {
+
+		/** Rule when nothing more specific applies, or <b>null</b>. */
+		RedefinitionRule defaultRule = null;
+
+		/** Rules by stereotype name. */
+		final Map<String, RedefinitionRule> byStereotype = new HashMap<String, RedefinitionRule>();
+
+		/** Rules by type EClass, as registered. */
+		final Map<EClass, RedefinitionRule> byType = new HashMap<EClass, RedefinitionRule>();
+
+		/** Rule resolved for each type EClass seen. */
+		final Map<EClass, Object> byTypeClass = new ConcurrentHashMap<EClass, Object>();
+
+	}
+
+	/**
+	 * Returns the rules shipped with the plug-in: value, part (and reference), flow and
+	 * constraint properties and ports.
+	 * 
+	 * @return
+	 */
+	public static synchronized RedefinitionRules getDefault() {
+		if (defaultRules == null) {
+			RedefinitionRule valueRule = new PropertyCopyRule();
+
+			defaultRules = new RedefinitionRules()
+					.register(UMLPackage.Literals.PROPERTY, valueRule)
+					.registerForType(UMLPackage.Literals.PROPERTY, UMLPackage.Literals.DATA_TYPE, valueRule)
+					.registerForType(UMLPackage.Literals.PROPERTY, UMLPackage.Literals.CLASS, new PartPropertyRule())
+					.register(UMLPackage.Literals.PROPERTY, "FlowProperty", valueRule)
+					.register(UMLPackage.Literals.PROPERTY, "ConstraintProperty", new ConstraintPropertyRule())
+					.register(UMLPackage.Literals.PORT, new PortRule());
+		}
+
+		return defaultRules;
+	}
+
+	/**
+	 * Registers the default rule for properties of an EClass.
+	 * 
+	 * @param propertyClass
+	 * @param rule
+	 * @return This table
+	 */
+	public RedefinitionRules register(EClass propertyClass, RedefinitionRule rule) {
+		getRegistration(propertyClass).defaultRule = rule;
+		return this;
+	}
+
+	/**
+	 * Registers the rule for properties of an EClass with a stereotype applied.
+	 * 
+	 * @param propertyClass
+	 * @param stereotype The name of the stereotype
+	 * @param rule
+	 * @return This table
+	 */
+	public RedefinitionRules register(EClass propertyClass, String stereotype, RedefinitionRule rule) {
+		getRegistration(propertyClass).byStereotype.put(stereotype, rule);
+		return this;
+	}
+
+	/**
+	 * Registers the rule for properties of an EClass whose type is of another EClass.
+	 * 
+	 * @param propertyClass
+	 * @param typeClass
+	 * @param rule
+	 * @return This table
+	 */
+	public RedefinitionRules registerForType(EClass propertyClass, EClass typeClass, RedefinitionRule rule) {
+		getRegistration(propertyClass).byType.put(typeClass, rule);
+		return this;
+	}
+
+	/**
+	 * Returns the rule that applies to an inherited property.
+	 * 
+	 * @param p
+	 * @return The rule, or <b>null</b> if the property is not to be redefined
+	 */
+	public RedefinitionRule lookup(Property p) {
+		Registration r = resolve(p.eClass());
+
+		if (r == null)
+			return null;
+
+		if (!r.byStereotype.isEmpty()) {
+			List<Stereotype> stereotypes = p.getAppliedStereotypes();
+
+			for (int i = 0; i < stereotypes.size(); i++) {
+				RedefinitionRule rule = r.byStereotype.get(stereotypes.get(i).getName());
+
+				if (rule != null)
+					return rule;
+			}
+		}
+
+		Type type = p.getType();
+
+		if (!r.byType.isEmpty() && type != null) {
+			RedefinitionRule rule = resolve(r, type.eClass());
+
+			if (rule != null)
+				return rule;
+		}
+
+		return r.defaultRule;
+	}
+
+	/**
+	 * Returns the rule that applies to a property known only by its description, e.g. a
+	 * property of a model fragment that is not loaded.
+	 * 
+	 * @param propertyClass The EClass of the property
+	 * @param stereotypeNames Names of the stereotypes applied to the property
+	 * @param typeClass The EClass of its type, or <b>null</b> if untyped
+	 * @return The rule, or <b>null</b> if the property is not to be redefined
+	 */
+	public RedefinitionRule lookup(EClass propertyClass, Collection<String> stereotypeNames, EClass typeClass) {
+		Registration r = resolve(propertyClass);
+
+		if (r == null)
+			return null;
+
+		for (String name : stereotypeNames) {
+			RedefinitionRule rule = r.byStereotype.get(name);
+
+			if (rule != null)
+				return rule;
+		}
+
+		if (!r.byType.isEmpty() && typeClass != null) {
+			RedefinitionRule rule = resolve(r, typeClass);
+
+			if (rule != null)
+				return rule;
+		}
+
+		return r.defaultRule;
+	}
+
+	/** Returns the registration for an EClass, creating it if needed. */
+	private Registration getRegistration(EClass propertyClass) {
+		Registration r = registrations.get(propertyClass);
+
+		if (r == null) {
+			r = new Registration();
+			registrations.put(propertyClass, r);
+		}
+
+		byPropertyClass.clear();
+
+		return r;
+	}
+
+	/** Finds the registration of the nearest registered EClass. */
+	private Registration resolve(EClass propertyClass) {
+		Object r = byPropertyClass.get(propertyClass);
+
+		if (r == null) {
+			r = nearest(propertyClass, registrations);
+			byPropertyClass.put(propertyClass, r != null ? r : NONE);
+		}
+
+		return r instanceof Registration ? (Registration) r : null;
+	}
+
+	/** Finds the rule of the nearest registered type EClass. */
+	private static RedefinitionRule resolve(Registration registration, EClass typeClass) {
+		Object r = registration.byTypeClass.get(typeClass);
+
+		if (r == null) {
+			r = nearest(typeClass, registration.byType);
+			registration.byTypeClass.put(typeClass, r != null ? r : NONE);
+		}
+
+		return r instanceof RedefinitionRule ? (RedefinitionRule) r : null;
+	}
+
+	/** Looks up an EClass and then its super types, most specific first. */
+	private static <V> V nearest(EClass c, Map<EClass, V> map) {
+		V value = map.get(c);
+
+		if (value != null)
+			return value;
+
+		// All super types, breadth first
+		List<EClass> level = new ArrayList<EClass>(c.getESuperTypes());
+
+		while (!level.isEmpty()) {
+			List<EClass> next = new ArrayList<EClass>();
+
+			for (EClass s : level) {
+				value = map.get(s);
+
+				if (value != null)
+					return value;
+
+				next.addAll(s.getESuperTypes());
+			}
+
+			level = next;
+		}
+
+		return null;
+	}
+
+	/** Block typed properties: parts, and references. */
+	public static class PartPropertyRule extends PropertyCopyRule {
+
+		@Override
+		protected void copy(Property inherited, Property newProperty) {
+			super.copy(inherited, newProperty);
+
+			// Collections of parts
+			newProperty.setIsOrdered(inherited.isOrdered());
+			newProperty.setIsUnique(inherited.isUnique());
+		}
+
+	}
+
+	/** Constraint properties: always composite. */
+	public static class ConstraintPropertyRule extends PropertyCopyRule {
+
+		@Override
+		protected void copy(Property inherited, Property newProperty) {
+			super.copy(inherited, newProperty);
+
+			newProperty.setAggregation(AggregationKind.COMPOSITE_LITERAL);
+		}
+
+	}
+
+	/** Ports: created as ports, with their port specific features. */
+	public static class PortRule extends PropertyCopyRule {
+
+		@Override
+		protected Property create(StructuredClassifier c, Property inherited) {
+			// Only encapsulated classifiers can own ports
+			if (!(c instanceof EncapsulatedClassifier))
+				return null;
+
+			return UMLFactory.eINSTANCE.createPort();
+		}
+
+		@Override
+		protected void copy(Property inherited, Property newProperty) {
+			super.copy(inherited, newProperty);
+
+			if (inherited instanceof Port && newProperty instanceof Port) {
+				((Port) newProperty).setIsBehavior(((Port) inherited).isBehavior());
+				((Port) newProperty).setIsService(((Port) inherited).isService());
+				((Port) newProperty).setIsConjugated(((Port) inherited).isConjugated());
+			}
+		}
+
+	}
+
+}
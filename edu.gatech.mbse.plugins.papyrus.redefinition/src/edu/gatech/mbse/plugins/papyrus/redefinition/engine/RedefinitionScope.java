@@ -0,0 +1,165 @@
+/**
+ * Copyright (c) 2015, Model-Based Systems Engineering Center, Georgia Institute of Technology.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ * 
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ * 
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *   
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.gatech.mbse.plugins.papyrus.redefinition.engine;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.emf.common.util.TreeIterator;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.uml2.uml.Behavior;
+import org.eclipse.uml2.uml.Element;
+import org.eclipse.uml2.uml.Namespace;
+import org.eclipse.uml2.uml.Package;
+import org.eclipse.uml2.uml.Stereotype;
+import org.eclipse.uml2.uml.StructuredClassifier;
+
+/**
+ * Collects the classifiers a redefinition run applies to.
+ * <p>
+ * Selected classifiers are taken as they are. For a selected package (or model), all
+ * structured classifiers it contains at any depth are added, optionally only those with one
+ * of a given set of stereotypes applied (e.g. only blocks). Behaviors such as activities are
+ * structured classifiers too, but are only redefined if they are selected themselves. The containment tree of a
+ * package is walked once, as a stream: nothing but the matching classifiers is collected,
+ * and subtrees that cannot contain classifiers (properties, value specifications, ...) are
+ * pruned.
+ */
+public class RedefinitionScope {
+
+	/** Log4J object. */
+	private static final Logger logger = LogManager.getLogger(RedefinitionScope.class.getName());
+
+	/** Names of the stereotypes descendants must have; empty to accept all. */
+	private final Set<String> stereotypeNames;
+
+	/** The classifiers collected so far, in the order they were found. */
+	private final List<StructuredClassifier> classifiers = new ArrayList<StructuredClassifier>();
+
+	/** Identity set of the classifiers collected so far. */
+	private final Map<StructuredClassifier, Boolean> seen = new IdentityHashMap<StructuredClassifier, Boolean>();
+
+	/** Number of elements visited while walking packages. */
+	private int visited = 0;
+
+	/** Constructor for a scope that accepts all structured classifiers. */
+	public RedefinitionScope() {
+		this(Collections.<String>emptySet());
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param stereotypeNames Names of the stereotypes that classifiers found inside a package
+	 * 		must have one of (e.g. "Block", "Resource"); empty to accept all
+	 */
+	public RedefinitionScope(Collection<String> stereotypeNames) {
+		this.stereotypeNames = new HashSet<String>(stereotypeNames);
+	}
+
+	/**
+	 * Adds a selected element to the scope.
+	 * 
+	 * @param e A structured classifier, which is added as it is, or a package, whose
+	 * 		structured classifiers are added
+	 */
+	public void add(Element e) {
+		if (e instanceof StructuredClassifier) {
+			accept((StructuredClassifier) e);
+		} else if (e instanceof Package) {
+			addContents((Package) e);
+		} else if (e != null) {
+			logger.debug("Ignoring selected element " + e.eClass().getName());
+		}
+	}
+
+	/**
+	 * Adds several selected elements to the scope.
+	 * 
+	 * @param elements
+	 * @see #add(Element)
+	 */
+	public void addAll(Collection<? extends Element> elements) {
+		for (Element e : elements)
+			add(e);
+	}
+
+	/** @return The classifiers in scope, in the order they were found */
+	public List<StructuredClassifier> getClassifiers() {
+		return Collections.unmodifiableList(classifiers);
+	}
+
+	/** @return The number of elements visited while walking packages */
+	public int getVisitedCount() {
+		return visited;
+	}
+
+	/** Walks the containment tree of a package. */
+	private void addContents(Package p) {
+		TreeIterator<EObject> it = p.eAllContents();
+
+		while (it.hasNext()) {
+			EObject o = it.next();
+			visited++;
+
+			if (o instanceof StructuredClassifier) {
+				if (!(o instanceof Behavior) && matches((StructuredClassifier) o))
+					accept((StructuredClassifier) o);
+			} else if (!(o instanceof Namespace)) {
+				// Only namespaces (packages, classifiers, ...) can contain classifiers
+				it.prune();
+			}
+		}
+	}
+
+	/** Checks the stereotype filter. */
+	private boolean matches(StructuredClassifier c) {
+		if (stereotypeNames.isEmpty())
+			return true;
+
+		for (Stereotype s : c.getAppliedStereotypes()) {
+			if (stereotypeNames.contains(s.getName()))
+				return true;
+		}
+
+		return false;
+	}
+
+	/** Adds a classifier unless it is already in scope. */
+	private void accept(StructuredClassifier c) {
+		if (seen.put(c, Boolean.TRUE) == null)
+			classifiers.add(c);
+	}
+
+}
@@ -0,0 +1,272 @@
+/**
+ * Copyright (c) 2015, Model-Based Systems Engineering Center, Georgia Institute of Technology.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ * 
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ * 
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *   
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.gatech.mbse.plugins.papyrus.redefinition.engine;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.uml2.uml.AggregationKind;
+import org.eclipse.uml2.uml.Classifier;
+import org.eclipse.uml2.uml.NamedElement;
+import org.eclipse.uml2.uml.Property;
+import org.eclipse.uml2.uml.Type;
+
+/**
+ * Checks that the redefined properties of a set of classifiers are consistent with what the
+ * classifiers inherit:
+ * <ul>
+ * <li>a property only redefines properties that are inherited;</li>
+ * <li>no two owned properties redefine the same property;</li>
+ * <li>type, multiplicity and aggregation match the redefined property (as
+ * {@link PropertyCopyRule} creates them).</li>
+ * </ul>
+ * The inherited properties of all classifiers are derived first, in one pass over the
+ * generalization hierarchy (see {@link HierarchyRedefinition#getInheritedProperties(Classifier)}).
+ * In the same pass, the redefinitions of each classifier and the parents of their types are
+ * copied into plain values ({@link Redefinition}), so that each property is read once. The
+ * checks then only compare these values; they are cheap next to reading the model, so they
+ * run on the calling thread.
+ * <p>
+ * The model must not be modified while the validation runs; callers typically run it within
+ * a read-only transaction.
+ */
+public class RedefinitionValidator {
+
+	/** Log4J object. */
+	private static final Logger logger = LogManager.getLogger(RedefinitionValidator.class.getName());
+
+	/** The report of the run, if any. */
+	private RunReport report = null;
+
+	/** A redefinition with the values of both properties the checks need. */
+	protected static final class Redefinition {
+
+		/** The redefining property. */
+		final Property property;
+
+		/** The redefined property. */
+		final Property redefined;
+
+		/** Types. */
+		final Type type, redefinedType;
+
+		/** Multiplicities, -1 is unlimited. */
+		final int lower, upper, redefinedLower, redefinedUpper;
+
+		/** Aggregations. */
+		final AggregationKind aggregation, redefinedAggregation;
+
+		/** Constructor reading the values of the properties. */
+		Redefinition(Property property, Property redefined) {
+			this.property = property;
+			this.redefined = redefined;
+			this.type = property.getType();
+			this.redefinedType = redefined.getType();
+			this.lower = property.getLower();
+			this.upper = property.getUpper();
+			this.redefinedLower = redefined.getLower();
+			this.redefinedUpper = redefined.getUpper();
+			this.aggregation = property.getAggregation();
+			this.redefinedAggregation = redefined.getAggregation();
+		}
+
+	}
+
+	/** Constructor. */
+	public RedefinitionValidator() {
+	}
+
+	/**
+	 * Sets the report the phases of the validation are recorded in. Without one, each
+	 * validation writes a report of its own.
+	 * 
+	 * @param report The report, or <b>null</b> for one per validation
+	 */
+	public void setReport(RunReport report) {
+		this.report = report;
+	}
+
+	/**
+	 * Validates the owned properties of classifiers.
+	 * 
+	 * @param classifiers
+	 * @return The problems found, by classifier in the given order
+	 */
+	public List<RedefinitionProblem> validate(Collection<? extends Classifier> classifiers) {
+		List<RedefinitionProblem> problems = new ArrayList<RedefinitionProblem>();
+
+		if (classifiers.isEmpty())
+			return problems;
+
+		TraceEvent event = TraceEvent.begin("validate");
+		RunReport run = report != null ? report : new RunReport("validate");
+		long phase = System.nanoTime();
+
+		// Inherited properties, generals first so that each level builds on the previous one
+		HierarchyRedefinition hierarchy = new HierarchyRedefinition();
+		Map<Classifier, Map<Property, Boolean>> inherited = new IdentityHashMap<Classifier, Map<Property, Boolean>>();
+		Map<Classifier, List<Redefinition>> redefinitions = new IdentityHashMap<Classifier, List<Redefinition>>();
+		Map<Type, Map<Classifier, Boolean>> parents = new IdentityHashMap<Type, Map<Classifier, Boolean>>();
+
+		for (Classifier c : HierarchyRedefinition.sortByGeneralization(classifiers)) {
+			List<Property> properties = hierarchy.getInheritedProperties(c);
+			Map<Property, Boolean> set = new IdentityHashMap<Property, Boolean>(properties.size() * 2);
+
+			for (Property p : properties)
+				set.put(p, Boolean.TRUE);
+
+			inherited.put(c, set);
+			redefinitions.put(c, read(c, parents));
+		}
+
+		phase = run.phase("read", phase);
+
+		for (Classifier c : classifiers)
+			check(c, redefinitions.get(c), inherited.get(c), parents, problems);
+
+		run.phase("check", phase);
+		run.visited(classifiers.size());
+
+		if (report == null)
+			run.write();
+
+		logger.debug("Validated " + classifiers.size() + " classifiers, found " + problems.size() + " problems");
+		event.visited(classifiers.size()).end();
+
+		return problems;
+	}
+
+	/**
+	 * Reads the redefinitions of the owned properties of a classifier, and the parents of the
+	 * types of the redefining properties that are not known yet.
+	 * 
+	 * @param c
+	 * @param parents The parents by type, to add to
+	 * @return The redefinitions, in the order of the owned members
+	 */
+	private static List<Redefinition> read(Classifier c, Map<Type, Map<Classifier, Boolean>> parents) {
+		List<Redefinition> redefinitions = new ArrayList<Redefinition>();
+
+		for (NamedElement m : c.getOwnedMembers()) {
+			if (!(m instanceof Property))
+				continue;
+
+			Property p = (Property) m;
+
+			for (Property r : p.getRedefinedProperties()) {
+				Redefinition redefinition = new Redefinition(p, r);
+				redefinitions.add(redefinition);
+
+				if (redefinition.type != null && !parents.containsKey(redefinition.type)) {
+					Map<Classifier, Boolean> set = new IdentityHashMap<Classifier, Boolean>();
+
+					// Only classifiers conform to other types, see Classifier#conformsTo(Type)
+					if (redefinition.type instanceof Classifier) {
+						for (Classifier general : ((Classifier) redefinition.type).allParents())
+							set.put(general, Boolean.TRUE);
+					}
+
+					parents.put(redefinition.type, set);
+				}
+			}
+		}
+
+		return redefinitions;
+	}
+
+	/**
+	 * Validates the owned properties of one classifier, using only the values read
+	 * beforehand.
+	 * 
+	 * @param c
+	 * @param redefinitions The redefinitions of the owned properties of c
+	 * @param inherited The properties c inherits
+	 * @param parents The parents of the types of the redefining properties
+	 * @param problems The list to add problems to
+	 */
+	protected void check(Classifier c, List<Redefinition> redefinitions, Map<Property, Boolean> inherited,
+			Map<Type, Map<Classifier, Boolean>> parents, List<RedefinitionProblem> problems) {
+		Map<Property, Property> redefiners = new IdentityHashMap<Property, Property>();
+
+		for (Redefinition d : redefinitions) {
+			Property p = d.property, r = d.redefined;
+
+			if (inherited == null || !inherited.containsKey(r))
+				problems.add(new RedefinitionProblem(RedefinitionProblem.Kind.NOT_INHERITED, c, p, r));
+
+			if (redefiners.put(r, p) != null)
+				problems.add(new RedefinitionProblem(RedefinitionProblem.Kind.DUPLICATE, c, p, r));
+
+			checkFeatures(c, d, parents, problems);
+		}
+	}
+
+	/** Compares type, multiplicity and aggregation with the redefined property. */
+	private static void checkFeatures(Classifier c, Redefinition d, Map<Type, Map<Classifier, Boolean>> parents,
+			List<RedefinitionProblem> problems) {
+		Property p = d.property, r = d.redefined;
+
+		if (d.type != d.redefinedType
+				&& (d.type == null || d.redefinedType == null || !parents.get(d.type).containsKey(d.redefinedType)))
+			problems.add(new RedefinitionProblem(RedefinitionProblem.Kind.TYPE_MISMATCH, c, p, r));
+
+		// -1 is unlimited
+		boolean within = d.lower >= d.redefinedLower
+				&& (d.redefinedUpper == -1 || (d.upper != -1 && d.upper <= d.redefinedUpper));
+
+		if (!within)
+			problems.add(new RedefinitionProblem(RedefinitionProblem.Kind.MULTIPLICITY_MISMATCH, c, p, r));
+		else if (d.lower != d.redefinedLower || d.upper != d.redefinedUpper)
+			problems.add(new RedefinitionProblem(RedefinitionProblem.Kind.MULTIPLICITY_DRIFT, c, p, r));
+
+		// Leads to Papyrus validation errors
+		if (d.aggregation != d.redefinedAggregation)
+			problems.add(new RedefinitionProblem(RedefinitionProblem.Kind.AGGREGATION_MISMATCH, c, p, r));
+	}
+
+	/**
+	 * Returns the problems that make the model invalid, as opposed to out of sync.
+	 * 
+	 * @param problems
+	 * @return
+	 */
+	public static List<RedefinitionProblem> getErrors(List<RedefinitionProblem> problems) {
+		List<RedefinitionProblem> errors = new ArrayList<RedefinitionProblem>();
+
+		for (RedefinitionProblem p : problems) {
+			if (p.getKind().isError())
+				errors.add(p);
+		}
+
+		return errors;
+	}
+
+}
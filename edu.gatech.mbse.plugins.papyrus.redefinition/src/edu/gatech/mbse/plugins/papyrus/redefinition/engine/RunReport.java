@@ -0,0 +1,404 @@
+/**
+ * Copyright (c) 2015, Model-Based Systems Engineering Center, Georgia Institute of Technology.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ * 
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ * 
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *   
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.gatech.mbse.plugins.papyrus.redefinition.engine;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TimeZone;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.uml2.uml.NamedElement;
+
+import edu.gatech.mbse.plugins.papyrus.redefinition.Activator;
+
+/**
+ * A compact, machine readable record of one redefinition run or headless analysis, written
+ * as a JSON file when the run is over.
+ * <p>
+ * The report holds the time spent in each phase, the slowest classifiers with their number of
+ * inherited members, the number of elements visited, properties created and transactions
+ * executed, and the peak heap usage during the run. Phases that run concurrently (e.g. the
+ * models of a {@link BatchRedefinition}) add up, so phase times may exceed the total time.
+ * <p>
+ * The peak heap usage is the highest total heap in use when the report was started, at the end
+ * of each phase and when {@link #sample()} was called. Short spikes in between are missed. The
+ * peak usage of the JVM's memory pools is neither used nor reset: it is shared with everything
+ * else running in the JVM, and the sum of the peaks of the pools overstates the real peak, as
+ * the pools do not peak at the same time.
+ * <p>
+ * Reports go to <code>reports</code> in the plug-in's state location, i.e.
+ * <code>.metadata/.plugins/edu.gatech.mbse.plugins.papyrus.redefinition/reports</code> in
+ * the workspace, and only the most recent {@value #MAX_REPORTS} are kept. Writing them can be
+ * turned off by setting the system property {@value #PROPERTY} to <code>false</code>.
+ * <p>
+ * Instances are thread safe.
+ */
+public class RunReport {
+
+	/** System property; reports are written unless it is <code>false</code>. */
+	public static final String PROPERTY = "edu.gatech.mbse.plugins.papyrus.redefinition.reports";
+
+	/** Number of slowest classifiers reported. */
+	public static final int TOP = 20;
+
+	/** Number of reports kept in the state location. */
+	public static final int MAX_REPORTS = 100;
+
+	/** Log4J object. */
+	private static final Logger logger = LogManager.getLogger(RunReport.class.getName());
+
+	/** Orders classifier timings by time, fastest first. */
+	private static final Comparator<ClassifierTiming> BY_TIME = new Comparator<ClassifierTiming>() {
+
+		@Override
+		public int compare(ClassifierTiming a, ClassifierTiming b) {
+			return a.nanos < b.nanos ? -1 : (a.nanos == b.nanos ? 0 : 1);
+		}
+
+	};
+
+	/** The operation, e.g. <code>redefine</code>. */
+	private final String operation;
+
+	/** Wall clock time the run started at. */
+	private final long started = System.currentTimeMillis();
+
+	/** Start of the run, for the total time. */
+	private final long start = System.nanoTime();
+
+	/** Time spent in each phase, in nanoseconds, in the order the phases first ended. */
+	private final Map<String, long[]> phases = new LinkedHashMap<String, long[]>();
+
+	/** The slowest classifiers so far; the fastest of them on top. */
+	private final PriorityQueue<ClassifierTiming> slowest = new PriorityQueue<ClassifierTiming>(TOP + 1, BY_TIME);
+
+	/** Counters. */
+	private long classifiers = 0, visited = 0, created = 0, transactions = 0;
+
+	/** Highest heap usage sampled. */
+	private long sampledPeak = 0;
+
+	/** The time one classifier took. */
+	private static final class ClassifierTiming {
+
+		final String name;
+		final int inherited;
+		final long nanos;
+
+		ClassifierTiming(String name, int inherited, long nanos) {
+			this.name = name;
+			this.inherited = inherited;
+			this.nanos = nanos;
+		}
+
+	}
+
+	/**
+	 * Starts a report.
+	 * 
+	 * @param operation The operation, e.g. <code>redefine</code>
+	 */
+	public RunReport(String operation) {
+		this.operation = operation;
+
+		sample();
+	}
+
+	/** @return Whether reports are written */
+	public static boolean isEnabled() {
+		return !"false".equalsIgnoreCase(System.getProperty(PROPERTY));
+	}
+
+	/**
+	 * Adds the time since <code>since</code> to a phase.
+	 * 
+	 * @param name The phase
+	 * @param since Start of the phase, as returned by {@link System#nanoTime()}
+	 * @return The current {@link System#nanoTime()}, as the start of the next phase
+	 */
+	public long phase(String name, long since) {
+		long now = System.nanoTime();
+		add(name, now - since);
+
+		return now;
+	}
+
+	/**
+	 * Adds time to a phase.
+	 * 
+	 * @param name The phase
+	 * @param nanos The time, in nanoseconds
+	 */
+	public void add(String name, long nanos) {
+		synchronized (this) {
+			long[] total = phases.get(name);
+
+			if (total == null) {
+				total = new long[1];
+				phases.put(name, total);
+			}
+
+			total[0] += nanos;
+		}
+
+		sample();
+	}
+
+	/**
+	 * Records the time one classifier took.
+	 * 
+	 * @param c The classifier
+	 * @param inherited Its number of inherited members
+	 * @param nanos The time it took
+	 */
+	public void classifier(NamedElement c, int inherited, long nanos) {
+		synchronized (this) {
+			classifiers++;
+
+			// Only names of classifiers that make it into the top are computed
+			if (slowest.size() >= TOP && slowest.peek().nanos >= nanos)
+				return;
+		}
+
+		String name = c.getQualifiedName() != null ? c.getQualifiedName() : c.getName();
+
+		synchronized (this) {
+			slowest.add(new ClassifierTiming(name, inherited, nanos));
+
+			if (slowest.size() > TOP)
+				slowest.poll();
+		}
+	}
+
+	/**
+	 * Adds to the number of elements visited.
+	 * 
+	 * @param count
+	 */
+	public synchronized void visited(int count) {
+		visited += count;
+	}
+
+	/**
+	 * Adds to the number of properties created.
+	 * 
+	 * @param count
+	 */
+	public synchronized void created(int count) {
+		created += count;
+	}
+
+	/** Counts a transaction. */
+	public synchronized void transaction() {
+		transactions++;
+	}
+
+	/** @return The peak heap usage in bytes sampled during the run so far */
+	public synchronized long getPeakHeap() {
+		return sampledPeak;
+	}
+
+	/** Samples the heap usage, e.g. at a point where an analysis holds most of its data. */
+	public void sample() {
+		Runtime runtime = Runtime.getRuntime();
+		long used = runtime.totalMemory() - runtime.freeMemory();
+
+		synchronized (this) {
+			sampledPeak = Math.max(sampledPeak, used);
+		}
+	}
+
+	/** @return The report as a JSON object */
+	public synchronized String toJSON() {
+		StringBuilder json = new StringBuilder(1024);
+		SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+		json.append("{\n");
+		json.append("  \"operation\": ").append(quote(operation)).append(",\n");
+		json.append("  \"started\": ").append(quote(format.format(new Date(started)))).append(",\n");
+		json.append("  \"totalMillis\": ").append(millis(System.nanoTime() - start)).append(",\n");
+
+		json.append("  \"phases\": {");
+		String separator = "\n";
+
+		for (Map.Entry<String, long[]> phase : phases.entrySet()) {
+			json.append(separator).append("    ").append(quote(phase.getKey())).append(": ")
+					.append(millis(phase.getValue()[0]));
+			separator = ",\n";
+		}
+
+		json.append(phases.isEmpty() ? "},\n" : "\n  },\n");
+
+		json.append("  \"classifiers\": ").append(classifiers).append(",\n");
+		json.append("  \"elementsVisited\": ").append(visited).append(",\n");
+		json.append("  \"propertiesCreated\": ").append(created).append(",\n");
+		json.append("  \"transactions\": ").append(transactions).append(",\n");
+		json.append("  \"peakHeapBytes\": ").append(getPeakHeap()).append(",\n");
+
+		ClassifierTiming[] timings = slowest.toArray(new ClassifierTiming[slowest.size()]);
+		Arrays.sort(timings, Collections.reverseOrder(BY_TIME));
+
+		json.append("  \"slowestClassifiers\": [");
+		separator = "\n";
+
+		for (ClassifierTiming t : timings) {
+			json.append(separator).append("    { \"name\": ").append(quote(t.name))
+					.append(", \"inheritedMembers\": ").append(t.inherited)
+					.append(", \"millis\": ").append(millis(t.nanos)).append(" }");
+			separator = ",\n";
+		}
+
+		json.append(timings.length == 0 ? "]\n" : "\n  ]\n");
+		json.append("}\n");
+
+		return json.toString();
+	}
+
+	/**
+	 * Writes the report to the plug-in's state location, if reports are enabled and the
+	 * plug-in has one. Failures are logged, as a report is not worth failing a run for.
+	 * 
+	 * @return The file written, or <b>null</b>
+	 */
+	public File write() {
+		if (!isEnabled())
+			return null;
+
+		File directory;
+
+		try {
+			if (Activator.getDefault() == null || Activator.getDefault().getStateLocation() == null)
+				return null;
+
+			directory = Activator.getDefault().getStateLocation().append("reports").toFile();
+		} catch (IllegalStateException e) {
+			// No instance location, e.g. headless with -data @none
+			logger.debug("No state location - report not written");
+			return null;
+		}
+
+		try {
+			File file = write(directory);
+			prune(directory);
+			return file;
+		} catch (IOException e) {
+			logger.warn("Could not write run report to " + directory, e);
+			return null;
+		}
+	}
+
+	/**
+	 * Writes the report to a directory.
+	 * 
+	 * @param directory
+	 * @return The file written
+	 * @throws IOException
+	 */
+	public File write(File directory) throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("Cannot create " + directory);
+
+		SimpleDateFormat format = new SimpleDateFormat("yyyyMMdd-HHmmss-SSS");
+		File file = new File(directory, operation + "-" + format.format(new Date(started)) + ".json");
+		Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+
+		try {
+			out.write(toJSON());
+		} finally {
+			out.close();
+		}
+
+		logger.debug("Run report written to " + file);
+
+		return file;
+	}
+
+	/** Deletes the oldest reports beyond {@link #MAX_REPORTS}. */
+	private static void prune(File directory) {
+		File[] files = directory.listFiles();
+
+		if (files == null || files.length <= MAX_REPORTS)
+			return;
+
+		Arrays.sort(files, new Comparator<File>() {
+
+			@Override
+			public int compare(File a, File b) {
+				long x = a.lastModified(), y = b.lastModified();
+				return x < y ? -1 : (x == y ? 0 : 1);
+			}
+
+		});
+
+		for (int i = 0; i < files.length - MAX_REPORTS; i++) {
+			if (files[i].getName().endsWith(".json") && !files[i].delete())
+				logger.debug("Could not delete " + files[i]);
+		}
+	}
+
+	/** Formats nanoseconds as milliseconds with three decimals. */
+	private static String millis(long nanos) {
+		long micros = nanos / 1000;
+		String fraction = Long.toString(1000 + micros % 1000).substring(1);
+
+		return (micros / 1000) + "." + fraction;
+	}
+
+	/** Quotes and escapes a JSON string. */
+	private static String quote(String s) {
+		if (s == null)
+			return "null";
+
+		StringBuilder quoted = new StringBuilder(s.length() + 2).append('"');
+
+		for (int i = 0; i < s.length(); i++) {
+			char ch = s.charAt(i);
+
+			if (ch == '"' || ch == '\\')
+				quoted.append('\\').append(ch);
+			else if (ch < 0x20 || ch > 0x7e)
+				quoted.append(String.format("\\u%04x", Integer.valueOf(ch)));
+			else
+				quoted.append(ch);
+		}
+
+		return quoted.append('"').toString();
+	}
+
+}
@@ -0,0 +1,116 @@
+/**
+ * Copyright (c) 2015, Model-Based Systems Engineering Center, Georgia Institute of Technology.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ * 
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ * 
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *   
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.gatech.mbse.plugins.papyrus.redefinition.engine;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.emf.ecore.EClass;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.EStructuralFeature;
+import org.eclipse.emf.ecore.resource.Resource;
+import org.eclipse.emf.ecore.util.EcoreUtil;
+import org.eclipse.uml2.uml.Element;
+import org.eclipse.uml2.uml.Extension;
+import org.eclipse.uml2.uml.Stereotype;
+import org.eclipse.uml2.uml.util.UMLUtil;
+
+/**
+ * Applies stereotypes to many elements with one change to the contents of each resource,
+ * instead of one {@link Element#applyStereotype(Stereotype)} and one change per application.
+ * <p>
+ * Applications are created detached, with their base element set, and added to the resource
+ * of their element (where UML2 puts them as well) by {@link #flush()}. Until then UML2 does not
+ * see them, so e.g. {@link Element#getValue(Stereotype, String)} cannot be used yet; tagged
+ * values are set on the application objects instead.
+ */
+public class StereotypeBatch {
+
+	/** Log4J object. */
+	private static final Logger logger = LogManager.getLogger(StereotypeBatch.class.getName());
+
+	/** Pending applications by the resource they go to. */
+	private final Map<Resource, List<EObject>> pending = new LinkedHashMap<Resource, List<EObject>>();
+
+	/**
+	 * Applies a stereotype to an element that is in a resource and has no application of the
+	 * stereotype yet. Stereotypes that are not applicable, or whose profile is not defined,
+	 * are applied right away by {@link Element#applyStereotype(Stereotype)}, which reports them.
+	 * 
+	 * @param element
+	 * @param stereotype
+	 * @return The application, detached until {@link #flush()}
+	 */
+	public EObject apply(Element element, Stereotype stereotype) {
+		EClass definition = stereotype.getDefinition();
+		Resource resource = element.eResource();
+
+		if (definition == null || resource == null || !element.isStereotypeApplicable(stereotype))
+			return element.applyStereotype(stereotype);
+
+		EObject application = EcoreUtil.create(definition);
+		UMLUtil.setBaseElement(application, element);
+
+		List<EObject> applications = pending.get(resource);
+
+		if (applications == null) {
+			applications = new ArrayList<EObject>();
+			pending.put(resource, applications);
+		}
+
+		applications.add(application);
+
+		return application;
+	}
+
+	/**
+	 * Checks whether a feature of a stereotype application holds a tagged value that is
+	 * carried over to redefinitions: changeable, not derived, and not the reference to the base
+	 * element.
+	 * 
+	 * @param feature
+	 * @return
+	 */
+	public static boolean isTaggedValue(EStructuralFeature feature) {
+		return feature.isChangeable() && !feature.isDerived()
+				&& !feature.getName().startsWith(Extension.METACLASS_ROLE_PREFIX);
+	}
+
+	/** Adds the pending applications to their resources. */
+	public void flush() {
+		for (Map.Entry<Resource, List<EObject>> e : pending.entrySet()) {
+			e.getKey().getContents().addAll(e.getValue());
+			logger.trace("Applied " + e.getValue().size() + " stereotypes in " + e.getKey().getURI());
+		}
+
+		pending.clear();
+	}
+
+}
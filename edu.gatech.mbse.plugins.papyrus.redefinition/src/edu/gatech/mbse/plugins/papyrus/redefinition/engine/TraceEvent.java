@@ -0,0 +1,319 @@
+/**
+ * Copyright (c) 2015, Model-Based Systems Engineering Center, Georgia Institute of Technology.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ * 
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ * 
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *   
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.gatech.mbse.plugins.papyrus.redefinition.engine;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.uml2.uml.NamedElement;
+
+/**
+ * A Java Flight Recorder event for a redefinition run or model query.
+ * <p>
+ * Each event records the operation, the qualified name of the classifier concerned, the
+ * number of inherited members, the number of properties created and the number of elements
+ * visited; JFR adds the duration. Events are emitted only if the system property
+ * {@value #PROPERTY} is set to <code>true</code> and the JVM provides JFR. Otherwise
+ * {@link #begin(String)} returns a shared instance that ignores everything, so that
+ * instrumented code pays for little more than a virtual call. Arguments that are expensive to
+ * compute should be guarded by {@link #isEnabled()}.
+ * <p>
+ * The plug-in targets Java 6, so the event type is defined at run time through
+ * <code>jdk.jfr.EventFactory</code> and used reflectively. Record with e.g.
+ * <code>jcmd &lt;pid&gt; JFR.start</code> and look for the event
+ * {@value #EVENT_NAME}.
+ */
+public abstract class TraceEvent {
+
+	/** System property enabling the events. */
+	public static final String PROPERTY = "edu.gatech.mbse.plugins.papyrus.redefinition.jfr";
+
+	/** Name of the JFR event type. */
+	public static final String EVENT_NAME = "edu.gatech.mbse.plugins.papyrus.redefinition.Operation";
+
+	/** Log4J object. */
+	private static final Logger logger = LogManager.getLogger(TraceEvent.class.getName());
+
+	/** The event that ignores everything. */
+	private static final TraceEvent DISABLED = new TraceEvent() {
+
+		@Override
+		public boolean isEnabled() {
+			return false;
+		}
+
+		@Override
+		public TraceEvent classifier(NamedElement e) {
+			return this;
+		}
+
+		@Override
+		public TraceEvent inherited(int count) {
+			return this;
+		}
+
+		@Override
+		public TraceEvent created(int count) {
+			return this;
+		}
+
+		@Override
+		public TraceEvent visited(int count) {
+			return this;
+		}
+
+		@Override
+		public void end() {
+		}
+
+	};
+
+	/** The JFR bindings, or <b>null</b> if events are disabled. */
+	private static final FlightRecorder recorder = Boolean.getBoolean(PROPERTY) ? FlightRecorder.create() : null;
+
+	/**
+	 * Starts timing an operation.
+	 * 
+	 * @param operation Name of the operation, e.g. the method
+	 * @return The event, to be ended when the operation is done
+	 */
+	public static TraceEvent begin(String operation) {
+		if (recorder == null)
+			return DISABLED;
+
+		return new RecordedEvent(recorder, operation);
+	}
+
+	/** @return Whether this event will be recorded */
+	public abstract boolean isEnabled();
+
+	/**
+	 * Sets the classifier concerned.
+	 * 
+	 * @param e
+	 * @return This event
+	 */
+	public abstract TraceEvent classifier(NamedElement e);
+
+	/**
+	 * Sets the number of inherited members.
+	 * 
+	 * @param count
+	 * @return This event
+	 */
+	public abstract TraceEvent inherited(int count);
+
+	/**
+	 * Sets the number of properties created.
+	 * 
+	 * @param count
+	 * @return This event
+	 */
+	public abstract TraceEvent created(int count);
+
+	/**
+	 * Sets the number of elements visited.
+	 * 
+	 * @param count
+	 * @return This event
+	 */
+	public abstract TraceEvent visited(int count);
+
+	/** Ends the operation and commits the event. */
+	public abstract void end();
+
+	/** An event backed by a JFR event. */
+	private static final class RecordedEvent extends TraceEvent {
+
+		/** The bindings. */
+		private final FlightRecorder recorder;
+
+		/** The JFR event. */
+		private final Object event;
+
+		/** Field values, in the order of {@link FlightRecorder#FIELDS}. */
+		private final Object[] values = new Object[] { null, "", Integer.valueOf(0), Integer.valueOf(0),
+				Integer.valueOf(0) };
+
+		RecordedEvent(FlightRecorder recorder, String operation) {
+			this.recorder = recorder;
+			this.event = recorder.begin();
+			values[0] = operation;
+		}
+
+		@Override
+		public boolean isEnabled() {
+			return event != null;
+		}
+
+		@Override
+		public TraceEvent classifier(NamedElement e) {
+			if (e != null)
+				values[1] = e.getQualifiedName() != null ? e.getQualifiedName() : e.getName();
+			return this;
+		}
+
+		@Override
+		public TraceEvent inherited(int count) {
+			values[2] = Integer.valueOf(count);
+			return this;
+		}
+
+		@Override
+		public TraceEvent created(int count) {
+			values[3] = Integer.valueOf(count);
+			return this;
+		}
+
+		@Override
+		public TraceEvent visited(int count) {
+			values[4] = Integer.valueOf(count);
+			return this;
+		}
+
+		@Override
+		public void end() {
+			if (event != null)
+				recorder.commit(event, values);
+		}
+
+	}
+
+	/** Reflective bindings to the JFR API. */
+	private static final class FlightRecorder {
+
+		/** Field names and types of the event. */
+		static final Object[][] FIELDS = new Object[][] {
+			{ String.class, "operation" },
+			{ String.class, "classifier" },
+			{ int.class, "inheritedMembers" },
+			{ int.class, "propertiesCreated" },
+			{ int.class, "elementsVisited" }
+		};
+
+		/** The event factory. */
+		private final Object factory;
+
+		/** EventFactory.newEvent(). */
+		private final Method newEvent;
+
+		/** Event.begin(), end(), shouldCommit(), commit() and set(int, Object). */
+		private final Method begin, end, shouldCommit, commit, set;
+
+		/** Set once an invocation failed, to stop trying. */
+		private volatile boolean broken = false;
+
+		private FlightRecorder(Object factory, Class<?> eventFactoryClass, Class<?> eventClass) throws Exception {
+			this.factory = factory;
+			this.newEvent = eventFactoryClass.getMethod("newEvent");
+			this.begin = eventClass.getMethod("begin");
+			this.end = eventClass.getMethod("end");
+			this.shouldCommit = eventClass.getMethod("shouldCommit");
+			this.commit = eventClass.getMethod("commit");
+			this.set = eventClass.getMethod("set", int.class, Object.class);
+		}
+
+		/** Defines the event type; returns <b>null</b> if JFR is not available. */
+		static FlightRecorder create() {
+			try {
+				Class<?> annotationElement = Class.forName("jdk.jfr.AnnotationElement");
+				Class<?> valueDescriptor = Class.forName("jdk.jfr.ValueDescriptor");
+				Class<?> eventFactory = Class.forName("jdk.jfr.EventFactory");
+				Class<?> event = Class.forName("jdk.jfr.Event");
+
+				Constructor<?> annotation = annotationElement.getConstructor(Class.class, Object.class);
+				List<Object> annotations = Arrays.asList(
+						annotation.newInstance(Class.forName("jdk.jfr.Name"), EVENT_NAME),
+						annotation.newInstance(Class.forName("jdk.jfr.Label"), "Redefinition Operation"),
+						annotation.newInstance(Class.forName("jdk.jfr.Category"), new String[] { "Papyrus", "Redefinition" }));
+
+				Constructor<?> field = valueDescriptor.getConstructor(Class.class, String.class);
+				List<Object> fields = new ArrayList<Object>();
+
+				for (Object[] f : FIELDS)
+					fields.add(field.newInstance(f[0], f[1]));
+
+				Object factory = eventFactory.getMethod("create", List.class, List.class).invoke(null, annotations, fields);
+
+				logger.info("Flight recorder events enabled");
+
+				return new FlightRecorder(factory, eventFactory, event);
+			} catch (ClassNotFoundException e) {
+				logger.warn("Flight recorder events requested, but JFR is not available in this JVM");
+			} catch (Exception e) {
+				logger.warn("Could not define flight recorder event", e);
+			}
+
+			return null;
+		}
+
+		/** Creates and begins an event; returns <b>null</b> on failure. */
+		Object begin() {
+			if (broken)
+				return null;
+
+			try {
+				Object event = newEvent.invoke(factory);
+				begin.invoke(event);
+				return event;
+			} catch (Exception e) {
+				fail(e);
+				return null;
+			}
+		}
+
+		/** Ends an event and commits it if the recording wants it. */
+		void commit(Object event, Object[] values) {
+			try {
+				end.invoke(event);
+
+				if (!((Boolean) shouldCommit.invoke(event)).booleanValue())
+					return;
+
+				for (int i = 0; i < values.length; i++)
+					set.invoke(event, Integer.valueOf(i), values[i]);
+
+				commit.invoke(event);
+			} catch (Exception e) {
+				fail(e);
+			}
+		}
+
+		private void fail(Exception e) {
+			if (!broken) {
+				broken = true;
+				logger.warn("Flight recorder events disabled after failure", e);
+			}
+		}
+
+	}
+
+}
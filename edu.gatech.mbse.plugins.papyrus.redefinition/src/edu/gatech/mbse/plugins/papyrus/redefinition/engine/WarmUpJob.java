@@ -0,0 +1,213 @@
+/**
+ * Copyright (c) 2015, Model-Based Systems Engineering Center, Georgia Institute of Technology.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ * 
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ * 
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *   
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.gatech.mbse.plugins.papyrus.redefinition.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.emf.common.util.URI;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.resource.Resource;
+import org.eclipse.emf.transaction.TransactionalEditingDomain;
+import org.eclipse.uml2.uml.Activity;
+import org.eclipse.uml2.uml.Package;
+import org.eclipse.uml2.uml.StructuredClassifier;
+
+import edu.gatech.mbse.plugins.papyrus.redefinition.Activator;
+import edu.gatech.mbse.plugins.papyrus.redefinition.analysis.AnalysisCache;
+import edu.gatech.mbse.plugins.papyrus.redefinition.analysis.AnalysisContext;
+import edu.gatech.mbse.plugins.papyrus.redefinition.analysis.IndexBuild;
+
+/**
+ * Does ahead of time the lazy work the first redefinition or resource query on a freshly
+ * opened model would otherwise pay for: library proxies are resolved, and the indexes of the
+ * model's {@link AnalysisContext} built in the workspace {@link AnalysisCache}, which the
+ * resource queries read from. Derived features such as inherited members or applied
+ * stereotypes are not warmed up: UML2 drops its cache of them on the first change to the
+ * model, so the work would rarely survive until it is needed.
+ * <p>
+ * The job runs at the lowest priority. The model is only read, in short read-only
+ * transactions of one batch of elements each, so user edits are never held up for long: the
+ * indexes are built step by step by an {@link IndexBuild}, and the constraints parsed a batch
+ * of working principles at a time. If the model is edited while the indexes are built, they
+ * are left to be built on first use. Cancelling the job, e.g. when the editor is closed,
+ * stops it at the next batch.
+ */
+public class WarmUpJob extends Job {
+
+	/** Log4J object. */
+	private static final Logger logger = LogManager.getLogger(WarmUpJob.class.getName());
+
+	/** System property enabling the warm-up. */
+	public static final String PROPERTY = "edu.gatech.mbse.plugins.papyrus.redefinition.warmUp";
+
+	/** Family of all warm-up jobs. */
+	public static final Object FAMILY = WarmUpJob.class;
+
+	/** Number of elements processed between yields. */
+	private static final int BATCH_SIZE = 200;
+
+	/** The editing domain of the model. */
+	private final TransactionalEditingDomain domain;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param domain The editing domain of the model
+	 */
+	public WarmUpJob(TransactionalEditingDomain domain) {
+		super("Preparing model for redefinition");
+		this.domain = domain;
+
+		setSystem(true);
+		setPriority(Job.DECORATE);
+	}
+
+	/** @return Whether warming up models is enabled */
+	public static boolean isEnabled() {
+		return Boolean.getBoolean(PROPERTY);
+	}
+
+	@Override
+	public boolean belongsTo(Object family) {
+		return family == FAMILY;
+	}
+
+	@Override
+	protected IStatus run(final IProgressMonitor monitor) {
+		TraceEvent event = TraceEvent.begin("warmUp");
+
+		try {
+			// The user's models, not the libraries they refer to
+			final List<Package> roots = new ArrayList<Package>();
+			final RedefinitionScope scope = new RedefinitionScope();
+
+			domain.runExclusive(new Runnable() {
+
+				@Override
+				public void run() {
+					for (Resource r : domain.getResourceSet().getResources()) {
+						URI uri = r.getURI();
+
+						if (uri == null || !"uml".equals(uri.fileExtension())
+								|| !(uri.isPlatformResource() || uri.isFile()))
+							continue;
+
+						for (EObject o : r.getContents()) {
+							if (o instanceof Package) {
+								roots.add((Package) o);
+								scope.add((Package) o);
+							}
+						}
+					}
+				}
+
+			});
+
+			if (monitor.isCanceled())
+				return Status.CANCEL_STATUS;
+
+			List<StructuredClassifier> classifiers = scope.getClassifiers();
+			new LibraryPreloader(domain).preload(classifiers);
+
+			if (monitor.isCanceled())
+				return Status.CANCEL_STATUS;
+
+			AnalysisCache cache = Activator.getDefault() != null ? Activator.getDefault().getAnalysisCache() : null;
+
+			for (int i = 0; cache != null && i < roots.size(); i++) {
+				if (!warmUp(cache.getContext(roots.get(i)), monitor))
+					return Status.CANCEL_STATUS;
+			}
+
+			event.visited(scope.getVisitedCount());
+			logger.debug("Warmed up " + roots.size() + " models, " + classifiers.size() + " classifiers");
+
+			return Status.OK_STATUS;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return Status.CANCEL_STATUS;
+		} finally {
+			event.end();
+		}
+	}
+
+	/**
+	 * Builds the indexes of a model.
+	 * 
+	 * @return <b>false</b> if canceled
+	 */
+	private boolean warmUp(final AnalysisContext context, IProgressMonitor monitor) throws InterruptedException {
+		final IndexBuild build = new IndexBuild(context, BATCH_SIZE);
+		final boolean[] more = { true };
+
+		while (more[0]) {
+			if (monitor.isCanceled())
+				return false;
+
+			domain.runExclusive(new Runnable() {
+
+				@Override
+				public void run() {
+					more[0] = build.step();
+				}
+
+			});
+		}
+
+		// Left to be built on first use
+		if (build.isAbandoned())
+			return true;
+
+		List<Activity> workingPrinciples = build.getWorkingPrinciples();
+
+		for (int start = 0; start < workingPrinciples.size(); start += BATCH_SIZE) {
+			if (monitor.isCanceled())
+				return false;
+
+			final List<Activity> batch = workingPrinciples.subList(start, Math.min(workingPrinciples.size(), start + BATCH_SIZE));
+
+			domain.runExclusive(new Runnable() {
+
+				@Override
+				public void run() {
+					for (Activity wp : batch)
+						context.getConstraintIndex().getConstraints(wp);
+				}
+
+			});
+		}
+
+		return true;
+	}
+
+}
@@ -0,0 +1,359 @@
+/**
+ * Copyright (c) 2015, Model-Based Systems Engineering Center, Georgia Institute of Technology.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ * 
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ * 
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *   
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.gatech.mbse.plugins.papyrus.redefinition.expressions;
+
+import java.util.Collection;
+
+/**
+ * Immutable abstract syntax tree of a parsed expression.
+ * <p>
+ * Expressions are evaluated over a <code>double[]</code> of variable values whose slots are
+ * assigned by the {@link SymbolTable} the expression was parsed with. Boolean results are
+ * represented as 1 (true) and 0 (false); any value other than 0 counts as true. Since the
+ * tree never changes once parsed, one instance can be shared between threads and between
+ * all elements that refer to the same specification.
+ * 
+ * @see ExpressionParser
+ */
+public abstract class Expression {
+
+	/** The constant <b>true</b>. */
+	public static final Expression TRUE = new Constant(1.0);
+
+	/** The constant <b>false</b>. */
+	public static final Expression FALSE = new Constant(0.0);
+
+	/** Operators of unary and binary expressions. */
+	public enum Operator {
+		ADD("+"), SUBTRACT("-"), MULTIPLY("*"), DIVIDE("/"), POWER("^"), NEGATE("-"),
+		LESS("<"), LESS_EQUAL("<="), GREATER(">"), GREATER_EQUAL(">="), EQUAL("=="), NOT_EQUAL("!="),
+		AND("&&"), OR("||"), NOT("!");
+
+		/** Symbol used when printing. */
+		private final String symbol;
+
+		Operator(String symbol) {
+			this.symbol = symbol;
+		}
+
+		/** @return The symbol of the operator */
+		public String getSymbol() {
+			return symbol;
+		}
+	}
+
+	/**
+	 * Evaluates the expression.
+	 * 
+	 * @param values Variable values, by slot
+	 * @return
+	 */
+	public abstract double evaluate(double[] values);
+
+	/**
+	 * Evaluates the expression as a condition.
+	 * 
+	 * @param values Variable values, by slot
+	 * @return <b>true</b> if the expression evaluates to anything other than 0 or NaN
+	 */
+	public boolean test(double[] values) {
+		double v = evaluate(values);
+
+		return v != 0.0 && !Double.isNaN(v);
+	}
+
+	/**
+	 * Adds the variables this expression refers to to the given collection.
+	 * 
+	 * @param variables
+	 */
+	public abstract void collectVariables(Collection<Variable> variables);
+
+	/** A numeric constant. */
+	public static final class Constant extends Expression {
+
+		private final double value;
+
+		public Constant(double value) {
+			this.value = value;
+		}
+
+		public double getValue() {
+			return value;
+		}
+
+		@Override
+		public double evaluate(double[] values) {
+			return value;
+		}
+
+		@Override
+		public void collectVariables(Collection<Variable> variables) {
+		}
+
+		@Override
+		public String toString() {
+			return value == Math.rint(value) && !Double.isInfinite(value)
+					? Long.toString((long) value) : Double.toString(value);
+		}
+	}
+
+	/** A reference to a variable, resolved to its slot at parse time. */
+	public static final class Variable extends Expression {
+
+		private final String name;
+
+		private final int slot;
+
+		public Variable(String name, int slot) {
+			this.name = name;
+			this.slot = slot;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public int getSlot() {
+			return slot;
+		}
+
+		@Override
+		public double evaluate(double[] values) {
+			return slot < values.length ? values[slot] : Double.NaN;
+		}
+
+		@Override
+		public void collectVariables(Collection<Variable> variables) {
+			variables.add(this);
+		}
+
+		@Override
+		public String toString() {
+			return name;
+		}
+	}
+
+	/** A unary operation. */
+	public static final class Unary extends Expression {
+
+		private final Operator operator;
+
+		private final Expression operand;
+
+		public Unary(Operator operator, Expression operand) {
+			this.operator = operator;
+			this.operand = operand;
+		}
+
+		public Operator getOperator() {
+			return operator;
+		}
+
+		public Expression getOperand() {
+			return operand;
+		}
+
+		@Override
+		public double evaluate(double[] values) {
+			double v = operand.evaluate(values);
+
+			switch (operator) {
+			case NEGATE:
+				return -v;
+			case NOT:
+				return (v != 0.0 && !Double.isNaN(v)) ? 0.0 : 1.0;
+			default:
+				throw new IllegalStateException("Not a unary operator: " + operator);
+			}
+		}
+
+		@Override
+		public void collectVariables(Collection<Variable> variables) {
+			operand.collectVariables(variables);
+		}
+
+		@Override
+		public String toString() {
+			return operator.getSymbol() + operand;
+		}
+	}
+
+	/** A binary operation. */
+	public static final class Binary extends Expression {
+
+		private final Operator operator;
+
+		private final Expression left;
+
+		private final Expression right;
+
+		public Binary(Operator operator, Expression left, Expression right) {
+			this.operator = operator;
+			this.left = left;
+			this.right = right;
+		}
+
+		public Operator getOperator() {
+			return operator;
+		}
+
+		public Expression getLeft() {
+			return left;
+		}
+
+		public Expression getRight() {
+			return right;
+		}
+
+		@Override
+		public double evaluate(double[] values) {
+			double l = left.evaluate(values);
+
+			// Short-circuit the logical operators
+			switch (operator) {
+			case AND:
+				if (l == 0.0 || Double.isNaN(l))
+					return 0.0;
+				return right.test(values) ? 1.0 : 0.0;
+			case OR:
+				if (l != 0.0 && !Double.isNaN(l))
+					return 1.0;
+				return right.test(values) ? 1.0 : 0.0;
+			default:
+				break;
+			}
+
+			double r = right.evaluate(values);
+
+			switch (operator) {
+			case ADD:
+				return l + r;
+			case SUBTRACT:
+				return l - r;
+			case MULTIPLY:
+				return l * r;
+			case DIVIDE:
+				return l / r;
+			case POWER:
+				return Math.pow(l, r);
+			case LESS:
+				return l < r ? 1.0 : 0.0;
+			case LESS_EQUAL:
+				return l <= r ? 1.0 : 0.0;
+			case GREATER:
+				return l > r ? 1.0 : 0.0;
+			case GREATER_EQUAL:
+				return l >= r ? 1.0 : 0.0;
+			case EQUAL:
+				return l == r ? 1.0 : 0.0;
+			case NOT_EQUAL:
+				return (l != r && !Double.isNaN(l) && !Double.isNaN(r)) ? 1.0 : 0.0;
+			default:
+				throw new IllegalStateException("Not a binary operator: " + operator);
+			}
+		}
+
+		@Override
+		public void collectVariables(Collection<Variable> variables) {
+			left.collectVariables(variables);
+			right.collectVariables(variables);
+		}
+
+		@Override
+		public String toString() {
+			return "(" + left + " " + operator.getSymbol() + " " + right + ")";
+		}
+	}
+
+	/** A call of one of the built-in functions (min, max, abs, sqrt, floor, ceil). */
+	public static final class Call extends Expression {
+
+		private final String function;
+
+		private final Expression[] arguments;
+
+		public Call(String function, Expression[] arguments) {
+			this.function = function;
+			this.arguments = arguments;
+		}
+
+		public String getFunction() {
+			return function;
+		}
+
+		public int getArgumentCount() {
+			return arguments.length;
+		}
+
+		public Expression getArgument(int i) {
+			return arguments[i];
+		}
+
+		@Override
+		public double evaluate(double[] values) {
+			double v = arguments[0].evaluate(values);
+
+			if ("min".equals(function)) {
+				for (int i = 1; i < arguments.length; i++)
+					v = Math.min(v, arguments[i].evaluate(values));
+			} else if ("max".equals(function)) {
+				for (int i = 1; i < arguments.length; i++)
+					v = Math.max(v, arguments[i].evaluate(values));
+			} else if ("abs".equals(function)) {
+				v = Math.abs(v);
+			} else if ("sqrt".equals(function)) {
+				v = Math.sqrt(v);
+			} else if ("floor".equals(function)) {
+				v = Math.floor(v);
+			} else if ("ceil".equals(function)) {
+				v = Math.ceil(v);
+			}
+
+			return v;
+		}
+
+		@Override
+		public void collectVariables(Collection<Variable> variables) {
+			for (Expression a : arguments)
+				a.collectVariables(variables);
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder(function).append('(');
+
+			for (int i = 0; i < arguments.length; i++) {
+				if (i > 0)
+					sb.append(", ");
+				sb.append(arguments[i]);
+			}
+
+			return sb.append(')').toString();
+		}
+	}
+
+}
@@ -0,0 +1,354 @@
+/**
+ * Copyright (c) 2015, Model-Based Systems Engineering Center, Georgia Institute of Technology.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ * 
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ * 
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *   
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.gatech.mbse.plugins.papyrus.redefinition.expressions;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.gatech.mbse.plugins.papyrus.redefinition.expressions.Expression.Operator;
+
+/**
+ * Recursive descent parser for the simple expressions used in guards and constraints.
+ * <p>
+ * Supported are numbers, <code>true</code>/<code>false</code>, quoted strings, (dotted)
+ * variable names, parentheses, the arithmetic operators <code>+ - * / ^</code>, the
+ * comparisons <code>&lt; &lt;= &gt; &gt;= == != =</code>, the logical operators
+ * <code>&amp;&amp; || !</code> (or <code>and or not</code>) and the functions
+ * <code>min, max, abs, sqrt, floor, ceil</code>. A single <code>=</code> is read as a
+ * comparison, which is what constraint bodies such as <code>duration = a * b</code> mean.
+ * <p>
+ * Variables are resolved to slots of the given {@link SymbolTable} while parsing, and string
+ * literals to their numeric code.
+ */
+public class ExpressionParser {
+
+	/** The symbol table variables are resolved against. */
+	private final SymbolTable symbols;
+
+	/** The text being parsed. */
+	private String text;
+
+	/** Current position in the text. */
+	private int pos;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param symbols
+	 */
+	public ExpressionParser(SymbolTable symbols) {
+		this.symbols = symbols;
+	}
+
+	/**
+	 * Parses an expression.
+	 * <p>
+	 * A parser is not thread safe; use one per thread (the symbol table may be shared).
+	 * 
+	 * @param expression
+	 * @return
+	 * @throws ExpressionParseException If the text is not a valid expression
+	 */
+	public Expression parse(String expression) throws ExpressionParseException {
+		this.text = expression;
+		this.pos = 0;
+
+		Expression e = parseOr();
+
+		skipWhitespace();
+
+		if (pos < text.length())
+			throw error("Unexpected '" + text.charAt(pos) + "'");
+
+		return e;
+	}
+
+	/** @return The symbol table variables are resolved against */
+	public SymbolTable getSymbols() {
+		return symbols;
+	}
+
+	private Expression parseOr() throws ExpressionParseException {
+		Expression e = parseAnd();
+
+		while (accept("||") || acceptWord("or"))
+			e = new Expression.Binary(Operator.OR, e, parseAnd());
+
+		return e;
+	}
+
+	private Expression parseAnd() throws ExpressionParseException {
+		Expression e = parseNot();
+
+		while (accept("&&") || acceptWord("and"))
+			e = new Expression.Binary(Operator.AND, e, parseNot());
+
+		return e;
+	}
+
+	private Expression parseNot() throws ExpressionParseException {
+		if ((!peek("!=") && accept("!")) || acceptWord("not"))
+			return new Expression.Unary(Operator.NOT, parseNot());
+
+		return parseComparison();
+	}
+
+	private Expression parseComparison() throws ExpressionParseException {
+		Expression e = parseAdditive();
+		Operator op = null;
+
+		if (accept("<="))
+			op = Operator.LESS_EQUAL;
+		else if (accept(">="))
+			op = Operator.GREATER_EQUAL;
+		else if (accept("=="))
+			op = Operator.EQUAL;
+		else if (accept("!="))
+			op = Operator.NOT_EQUAL;
+		else if (accept("<"))
+			op = Operator.LESS;
+		else if (accept(">"))
+			op = Operator.GREATER;
+		else if (accept("="))
+			op = Operator.EQUAL;
+
+		if (op != null)
+			e = new Expression.Binary(op, e, parseAdditive());
+
+		return e;
+	}
+
+	private Expression parseAdditive() throws ExpressionParseException {
+		Expression e = parseMultiplicative();
+
+		while (true) {
+			if (accept("+"))
+				e = new Expression.Binary(Operator.ADD, e, parseMultiplicative());
+			else if (accept("-"))
+				e = new Expression.Binary(Operator.SUBTRACT, e, parseMultiplicative());
+			else
+				return e;
+		}
+	}
+
+	private Expression parseMultiplicative() throws ExpressionParseException {
+		Expression e = parseUnary();
+
+		while (true) {
+			if (accept("*"))
+				e = new Expression.Binary(Operator.MULTIPLY, e, parseUnary());
+			else if (accept("/"))
+				e = new Expression.Binary(Operator.DIVIDE, e, parseUnary());
+			else
+				return e;
+		}
+	}
+
+	private Expression parseUnary() throws ExpressionParseException {
+		if (accept("-"))
+			return new Expression.Unary(Operator.NEGATE, parseUnary());
+
+		if (accept("+"))
+			return parseUnary();
+
+		Expression e = parsePrimary();
+
+		// Right associative
+		if (accept("^"))
+			e = new Expression.Binary(Operator.POWER, e, parseUnary());
+
+		return e;
+	}
+
+	private Expression parsePrimary() throws ExpressionParseException {
+		skipWhitespace();
+
+		if (pos >= text.length())
+			throw error("Unexpected end of expression");
+
+		char c = text.charAt(pos);
+
+		if (c == '(') {
+			pos++;
+			Expression e = parseOr();
+			expect(")");
+
+			return e;
+		}
+
+		if (Character.isDigit(c) || c == '.')
+			return parseNumber();
+
+		if (c == '"' || c == '\'')
+			return parseString(c);
+
+		if (Character.isJavaIdentifierStart(c)) {
+			String name = parseName();
+
+			if ("true".equalsIgnoreCase(name))
+				return Expression.TRUE;
+
+			if ("false".equalsIgnoreCase(name))
+				return Expression.FALSE;
+
+			if (accept("("))
+				return parseCall(name);
+
+			return new Expression.Variable(name, symbols.slot(name));
+		}
+
+		throw error("Unexpected '" + c + "'");
+	}
+
+	private Expression parseNumber() throws ExpressionParseException {
+		int start = pos;
+
+		while (pos < text.length()
+				&& (Character.isDigit(text.charAt(pos)) || text.charAt(pos) == '.'))
+			pos++;
+
+		// Exponent
+		if (pos < text.length() && (text.charAt(pos) == 'e' || text.charAt(pos) == 'E')) {
+			int mark = pos++;
+
+			if (pos < text.length() && (text.charAt(pos) == '+' || text.charAt(pos) == '-'))
+				pos++;
+
+			if (pos < text.length() && Character.isDigit(text.charAt(pos))) {
+				while (pos < text.length() && Character.isDigit(text.charAt(pos)))
+					pos++;
+			} else {
+				pos = mark;
+			}
+		}
+
+		try {
+			return new Expression.Constant(Double.parseDouble(text.substring(start, pos)));
+		} catch (NumberFormatException e) {
+			pos = start;
+			throw error("Invalid number");
+		}
+	}
+
+	private Expression parseString(char quote) throws ExpressionParseException {
+		int start = ++pos;
+
+		while (pos < text.length() && text.charAt(pos) != quote)
+			pos++;
+
+		if (pos >= text.length())
+			throw error("Unterminated string");
+
+		String value = text.substring(start, pos++);
+
+		return new Expression.Constant(symbols.code(value));
+	}
+
+	private String parseName() {
+		int start = pos;
+
+		while (pos < text.length()
+				&& (Character.isJavaIdentifierPart(text.charAt(pos))
+						|| (text.charAt(pos) == '.'
+								&& pos + 1 < text.length()
+								&& Character.isJavaIdentifierStart(text.charAt(pos + 1)))))
+			pos++;
+
+		return text.substring(start, pos);
+	}
+
+	private Expression parseCall(String function) throws ExpressionParseException {
+		List<Expression> arguments = new ArrayList<Expression>();
+
+		if (!accept(")")) {
+			do {
+				arguments.add(parseOr());
+			} while (accept(","));
+
+			expect(")");
+		}
+
+		int arity = arguments.size();
+
+		if ("min".equals(function) || "max".equals(function)) {
+			if (arity < 1)
+				throw error(function + " needs at least one argument");
+		} else if ("abs".equals(function) || "sqrt".equals(function)
+				|| "floor".equals(function) || "ceil".equals(function)) {
+			if (arity != 1)
+				throw error(function + " takes exactly one argument");
+		} else {
+			throw error("Unknown function " + function);
+		}
+
+		return new Expression.Call(function, arguments.toArray(new Expression[arity]));
+	}
+
+	private void skipWhitespace() {
+		while (pos < text.length() && Character.isWhitespace(text.charAt(pos)))
+			pos++;
+	}
+
+	private boolean peek(String token) {
+		skipWhitespace();
+
+		return text.startsWith(token, pos);
+	}
+
+	private boolean accept(String token) {
+		if (peek(token)) {
+			pos += token.length();
+			return true;
+		}
+
+		return false;
+	}
+
+	/** Accepts a keyword, but not as a prefix of a longer name. */
+	private boolean acceptWord(String word) {
+		skipWhitespace();
+
+		int end = pos + word.length();
+
+		if (text.regionMatches(true, pos, word, 0, word.length())
+				&& (end >= text.length() || !Character.isJavaIdentifierPart(text.charAt(end)))) {
+			pos = end;
+			return true;
+		}
+
+		return false;
+	}
+
+	private void expect(String token) throws ExpressionParseException {
+		if (!accept(token))
+			throw error("Expected '" + token + "'");
+	}
+
+	private ExpressionParseException error(String message) {
+		return new ExpressionParseException(message, text, pos);
+	}
+
+}
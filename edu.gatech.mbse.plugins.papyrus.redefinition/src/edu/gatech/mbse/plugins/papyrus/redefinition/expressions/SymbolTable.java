@@ -0,0 +1,150 @@
+/**
+ * Copyright (c) 2015, Model-Based Systems Engineering Center, Georgia Institute of Technology.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ * 
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ * 
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *   
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.gatech.mbse.plugins.papyrus.redefinition.expressions;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Assigns slots to variable names, and numeric codes to string literals.
+ * <p>
+ * Expressions parsed against the same symbol table refer to their variables by slot, so
+ * evaluating them is an array lookup rather than a map lookup per variable. A set of
+ * variable values is a <code>double[]</code> as created by {@link #newValues()}.
+ * <p>
+ * This class is thread safe, so one table can be shared by everything that parses
+ * expressions of the same model.
+ */
+public class SymbolTable {
+
+	/** Slots of the variables, by name. */
+	private final Map<String, Integer> slots = new HashMap<String, Integer>();
+
+	/** Variable names, by slot. */
+	private final List<String> names = new ArrayList<String>();
+
+	/** Codes of the string literals. */
+	private final Map<String, Double> codes = new HashMap<String, Double>();
+
+	/**
+	 * Returns the slot of a variable, assigning a new one if the name is not known yet.
+	 * 
+	 * @param name
+	 * @return
+	 */
+	public synchronized int slot(String name) {
+		Integer slot = slots.get(name);
+
+		if (slot == null) {
+			slot = Integer.valueOf(names.size());
+			slots.put(name, slot);
+			names.add(name);
+		}
+
+		return slot.intValue();
+	}
+
+	/**
+	 * Returns the slot of a variable.
+	 * 
+	 * @param name
+	 * @return The slot, or -1 if no expression uses this variable
+	 */
+	public synchronized int lookup(String name) {
+		Integer slot = slots.get(name);
+
+		return slot == null ? -1 : slot.intValue();
+	}
+
+	/**
+	 * Returns the name of the variable in a given slot.
+	 * 
+	 * @param slot
+	 * @return
+	 */
+	public synchronized String name(int slot) {
+		return names.get(slot);
+	}
+
+	/** @return The number of variables known so far */
+	public synchronized int size() {
+		return names.size();
+	}
+
+	/**
+	 * Returns the numeric code of a string, so that strings can be compared for equality like
+	 * any other value. Codes are negative to keep them apart from ordinary counts.
+	 * 
+	 * @param string
+	 * @return
+	 */
+	public synchronized double code(String string) {
+		Double code = codes.get(string);
+
+		if (code == null) {
+			code = Double.valueOf(-1.0 - codes.size());
+			codes.put(string, code);
+		}
+
+		return code.doubleValue();
+	}
+
+	/**
+	 * Returns a new set of values with one entry per variable known so far. All values are
+	 * initially unset ({@link Double#NaN}); comparisons involving unset values are false.
+	 * 
+	 * @return
+	 */
+	public double[] newValues() {
+		double[] values = new double[size()];
+		Arrays.fill(values, Double.NaN);
+
+		return values;
+	}
+
+	/**
+	 * Sets the value of a variable, if any expression uses it.
+	 * 
+	 * @param values
+	 * @param name
+	 * @param value
+	 * @return <b>true</b> if the variable is known
+	 */
+	public boolean set(double[] values, String name, double value) {
+		int slot = lookup(name);
+
+		if (slot < 0 || slot >= values.length)
+			return false;
+
+		values[slot] = value;
+
+		return true;
+	}
+
+}
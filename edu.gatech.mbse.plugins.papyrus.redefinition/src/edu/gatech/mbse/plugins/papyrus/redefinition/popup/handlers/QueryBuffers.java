@@ -0,0 +1,79 @@
+/**
+ * Copyright (c) 2015, Model-Based Systems Engineering Center, Georgia Institute of Technology.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ * 
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ * 
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *   
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.gatech.mbse.plugins.papyrus.redefinition.popup.handlers;
+
+import org.eclipse.uml2.uml.Activity;
+import org.eclipse.uml2.uml.Element;
+import org.eclipse.uml2.uml.Property;
+
+import edu.gatech.mbse.plugins.papyrus.redefinition.analysis.IdentitySet;
+
+/**
+ * Reusable scratch buffers for the buffered queries in {@link TransformationHelper}.
+ * <p>
+ * One instance is meant to be kept per thread (or per analysis) and passed to every call;
+ * after the first few calls the buffers have grown to the size the model needs and the
+ * queries no longer allocate collections of their own. The derived UML2 features they read
+ * (applied stereotypes, generals, inherited members) still allocate. Not thread safe.
+ */
+public class QueryBuffers {
+
+	/** Activities. */
+	final IdentitySet<Activity> activities = new IdentitySet<Activity>();
+
+	/** Working principles. */
+	final IdentitySet<Activity> workingPrinciples = new IdentitySet<Activity>();
+
+	/** Resource types. */
+	final IdentitySet<Element> resources = new IdentitySet<Element>();
+
+	/** Redefined properties to skip. */
+	final IdentitySet<Property> skip = new IdentitySet<Property>();
+
+	/** Empties all buffers. */
+	public void clear() {
+		activities.clear();
+		workingPrinciples.clear();
+		resources.clear();
+		skip.clear();
+	}
+
+	/** @return The activities collected by the last query */
+	public IdentitySet<Activity> getActivities() {
+		return activities;
+	}
+
+	/** @return The working principles collected by the last query */
+	public IdentitySet<Activity> getWorkingPrinciples() {
+		return workingPrinciples;
+	}
+
+	/** @return The resource types collected by the last query */
+	public IdentitySet<Element> getResources() {
+		return resources;
+	}
+
+}
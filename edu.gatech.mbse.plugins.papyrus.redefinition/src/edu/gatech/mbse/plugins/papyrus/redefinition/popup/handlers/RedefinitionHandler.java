@@ -26,7 +26,12 @@
 package edu.gatech.mbse.plugins.papyrus.redefinition.popup.handlers;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -35,7 +40,6 @@ import org.eclipse.core.commands.ExecutionEvent;
 import org.eclipse.core.commands.ExecutionException;
 import org.eclipse.core.runtime.IAdaptable;
 import org.eclipse.core.runtime.Platform;
-import org.eclipse.emf.transaction.RecordingCommand;
 import org.eclipse.emf.transaction.TransactionalEditingDomain;
 import org.eclipse.emf.transaction.util.TransactionUtil;
 import org.eclipse.ui.ISourceProvider;
@@ -44,10 +48,14 @@ import org.eclipse.ui.PlatformUI;
 import org.eclipse.ui.services.ISourceProviderService;
 import org.eclipse.uml2.uml.Classifier;
 import org.eclipse.uml2.uml.NamedElement;
-import org.eclipse.uml2.uml.Property;
-import org.eclipse.uml2.uml.Stereotype;
-import org.eclipse.uml2.uml.StructuredClassifier;
+import org.eclipse.uml2.uml.Package;
 
+import edu.gatech.mbse.plugins.papyrus.redefinition.engine.HierarchyRedefinition;
+import edu.gatech.mbse.plugins.papyrus.redefinition.engine.LibraryPreloader;
+import edu.gatech.mbse.plugins.papyrus.redefinition.engine.NotificationCoalescer;
+import edu.gatech.mbse.plugins.papyrus.redefinition.engine.RedefinitionScope;
+import edu.gatech.mbse.plugins.papyrus.redefinition.engine.RunReport;
+import edu.gatech.mbse.plugins.papyrus.redefinition.engine.TraceEvent;
 import edu.gatech.mbse.plugins.papyrus.redefinition.popup.states.CommandState;
 
 import org.eclipse.jface.viewers.ISelection;
@@ -64,6 +72,9 @@ public class RedefinitionHandler extends AbstractHandler {
 	/** Log4J object. */
 	private static final Logger logger = LogManager.getLogger(RedefinitionHandler.class.getName());
 	
+	/** Command parameter restricting the classifiers in selected packages to some stereotypes. */
+	public static final String PARAMETER_STEREOTYPES = "edu.gatech.mbse.plugins.papyrus.redefinition.commands.redefine.stereotypes";
+	
 	/**
 	 * The constructor.
 	 */
@@ -84,25 +95,118 @@ public class RedefinitionHandler extends AbstractHandler {
 		List<NamedElement> selectedObjects = getSelectedUmlObjects();
 		//List<Object> selectedEObjects = lookupSelectedElements();
 
+		// Optional stereotype filter for the contents of selected packages
+		List<String> stereotypes = getStereotypeFilter(event);
+		
+		final RunReport report = new RunReport("redefine");
+		long phase = System.nanoTime();
+		
+		// Group the selection by editing domain, so that each hierarchy is processed in one pass
+		// and one command; selected packages are expanded to the classifiers they contain
+		Map<TransactionalEditingDomain, RedefinitionScope> scopes =
+				new LinkedHashMap<TransactionalEditingDomain, RedefinitionScope>();
+		
 		for (NamedElement e : selectedObjects) {
-			if (e instanceof Classifier) {
+			if (e instanceof Classifier || e instanceof Package) {
 				final TransactionalEditingDomain ted = TransactionUtil.getEditingDomain(e); // (TransactionalEditingDomain) AdapterFactoryEditingDomain.getEditingDomainFor(e);
-				final Classifier theElement = (Classifier) e;
+				RedefinitionScope scope = scopes.get(ted);
 				
-				ted.getCommandStack().execute(new RecordingCommand(ted, "Redefine Inherited Value Properties") {
+				if (scope == null) {
+					scope = new RedefinitionScope(stereotypes);
+					scopes.put(ted, scope);
+				}
+				
+				scope.add(e);
+			}
+		}
+		
+		Map<TransactionalEditingDomain, List<Classifier>> byDomain =
+				new LinkedHashMap<TransactionalEditingDomain, List<Classifier>>();
+		
+		for (Map.Entry<TransactionalEditingDomain, RedefinitionScope> entry : scopes.entrySet()) {
+			logger.debug(entry.getValue().getClassifiers().size() + " classifiers in scope, "
+					+ entry.getValue().getVisitedCount() + " elements visited");
+			
+			byDomain.put(entry.getKey(), new ArrayList<Classifier>(entry.getValue().getClassifiers()));
+			report.visited(entry.getValue().getVisitedCount());
+		}
+		
+		phase = report.phase("scope", phase);
+		
+		for (Map.Entry<TransactionalEditingDomain, List<Classifier>> entry : byDomain.entrySet()) {
+			final TransactionalEditingDomain ted = entry.getKey();
+			final List<Classifier> classifiers = entry.getValue();
+			
+			// Load referenced libraries up front rather than proxy by proxy during the run
+			try {
+				new LibraryPreloader(ted).preload(classifiers);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+			
+			phase = report.phase("preload", phase);
+			
+			// Time spent in the command outside the redefinition is notifying listeners
+			final long[] redefining = new long[1];
+			
+			// Hold back the flood of notifications to diagrams and views until the end
+			try {
+				new NotificationCoalescer(ted).execute("Redefine Inherited Value Properties", new Runnable() {
 
 					@Override
-					protected void doExecute() {
-						redefineInheritedValueProperties(theElement);
+					public void run() {
+						TraceEvent event = TraceEvent.begin("execute");
+						long start = System.nanoTime();
+						
+						event.created(redefineInheritedValueProperties(classifiers, report))
+								.visited(classifiers.size())
+								.end();
+						
+						redefining[0] = System.nanoTime() - start;
 					}
 					
-				});
+				}, classifiers);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
 			}
+			
+			report.transaction();
+			
+			long now = System.nanoTime();
+			report.add("redefine", redefining[0]);
+			report.add("notify", now - phase - redefining[0]);
+			phase = now;
 		}
+		
+		// For finding out later why a run was slow
+		report.write();
         
 		return null;
 	}
 	
+	/**
+	 * Returns the stereotypes that classifiers inside selected packages must have, as given by
+	 * the optional, comma separated {@link #PARAMETER_STEREOTYPES} command parameter.
+	 * 
+	 * @param event
+	 * @return The stereotype names, empty if all classifiers are to be processed
+	 */
+	protected List<String> getStereotypeFilter(ExecutionEvent event) {
+		List<String> names = new ArrayList<String>();
+		String value = event.getParameter(PARAMETER_STEREOTYPES);
+		
+		if (value != null) {
+			for (String name : value.split(",")) {
+				if (name.trim().length() > 0)
+					names.add(name.trim());
+			}
+		}
+		
+		return names;
+	}
+	
 	/**
 	 * Returns the selected elements.
 	 * <p>
@@ -132,23 +236,19 @@ public class RedefinitionHandler extends AbstractHandler {
 	 * @return
 	 */
 	protected List<NamedElement> getSelectedUmlObjects() {
-		List<Object> selections = lookupSelectedElements(); // see "How to Get
-															// the Current
-															// Selection from
-															// Java code"
+		IWorkbenchPage page = PlatformUI.getWorkbench().getActiveWorkbenchWindow().getActivePage();
+		ISelection selection = page.getSelection();
 
 		List<NamedElement> results = new ArrayList<NamedElement>();
 
-		// create model with EList<EObject> objects
-		for (Object obj : selections) {
-			// Adapt object to NamedElement
-			NamedElement ele = null;
-			if (obj instanceof IAdaptable) {
-				ele = (NamedElement) ((IAdaptable) obj).getAdapter(NamedElement.class);
-			}
-			if (ele == null) {
-				ele = (NamedElement) Platform.getAdapterManager().getAdapter(obj, NamedElement.class);
-			}
+		if (!(selection instanceof IStructuredSelection))
+			return results;
+
+		// Iterate the selection directly rather than copying it first (see
+		// lookupSelectedElements) - Model Explorer selections can be huge
+		for (Iterator<?> it = ((IStructuredSelection) selection).iterator(); it.hasNext(); ) {
+			NamedElement ele = toNamedElement(it.next());
+			
 			if (ele != null) {
 				results.add(ele);
 			}
@@ -179,73 +279,37 @@ public class RedefinitionHandler extends AbstractHandler {
 	 * @param c The classifier to redefine properties in
 	 */
 	public void redefineInheritedValueProperties(Classifier c) {
-		// Collect all inherited properties, redefine
-		for(NamedElement e : c.getInheritedMembers()) {
-			logger.trace("Inherited member is: " + e.getName());
-			
-			// Check whether element is a value property
-			if(e instanceof Property
-					&& TransformationHelper.isSysMLValueProperty(e)
-					&& isNotOwnedProperty(e, c)) {
-				// Get elements factory
-				//ElementsFactory elementsFactory = Application.getInstance().getProject().getElementsFactory();
-				
-				// Property instance
-				//Property newProperty = elementsFactory.createPropertyInstance();
-				Property newProperty = ((StructuredClassifier) c).createOwnedAttribute(e.getName(), ((Property) e).getType());
-				
-				for (Stereotype s : ((Property) e).getAppliedStereotypes())
-					newProperty.applyStereotype(s);
-				//StereotypesHelper.addStereotype(newProperty, MDSysMLModelHandler.getStereotypeSysMLValueProperty());
-				
-				// Name & type
-				newProperty.setName(e.getName());
-				newProperty.setType(((Property) e).getType());
-				
-				// TODO Multiplicity, ...
-				if (((Property) e).getUpperValue() != null) {
-					newProperty.setUpperValue(((Property) e).getUpperValue());
-				}
-				
-				if (((Property) e).getLowerValue() != null) {
-					newProperty.setLowerValue(((Property) e).getLowerValue());
-				}
-				
-				// Add to parent
-				//c.getAttributes().add(newProperty);
-				
-				// Set redefinition context
-				//newProperty.getRedefinitionContexts().add(c);
-				newProperty.getRedefinedProperties().add((Property) e);
-				//if(!newProperty.getRedefinedElements().contains(e))
-				//	newProperty.getRedefinedElements().add((RedefinableElement) e);
-				
-				// Visibility: private, public or protected
-				newProperty.setVisibility(((Property) e).getVisibility());
-				
-				// Set aggregation kind (leads to Papyrus validation error otherwise!)
-				newProperty.setAggregation(((Property) e).getAggregation());
-			}
-		}
+		redefineInheritedValueProperties(Collections.singletonList(c));
 	}
-
+	
 	/**
-	 * Checks whether a given property (Element p) is owned by c. This is done by
-	 * checking whether there is an owned property that redefines the given property.
+	 * Adds and redefines value properties in a set of classifiers at once.
+	 * <P>
+	 * The classifiers are processed generals first, and the inherited properties of each
+	 * classifier are derived from the result of its generals, so that a deep hierarchy is
+	 * processed in a single pass.
 	 * 
-	 * @param e
-	 * @param c
-	 * @return
+	 * @param classifiers The classifiers to redefine properties in
+	 * @return The number of properties created
+	 * @see HierarchyRedefinition
 	 */
-	private boolean isNotOwnedProperty(NamedElement p, Classifier c) {
-		for(NamedElement e : c.getOwnedMembers()) {
-			if (e instanceof Property
-					&& ((Property) e).getRedefinitionContexts().contains(c)
-					&& ((Property) e).getRedefinedProperties().contains(p))
-				return false;
-		}
+	public int redefineInheritedValueProperties(Collection<? extends Classifier> classifiers) {
+		return redefineInheritedValueProperties(classifiers, null);
+	}
+	
+	/**
+	 * Adds and redefines value properties in a set of classifiers at once, recording the
+	 * classifiers processed in a report.
+	 * 
+	 * @param classifiers The classifiers to redefine properties in
+	 * @param report The report, or <b>null</b> for none
+	 * @return The number of properties created
+	 */
+	protected int redefineInheritedValueProperties(Collection<? extends Classifier> classifiers, RunReport report) {
+		HierarchyRedefinition redefinition = new HierarchyRedefinition();
+		redefinition.setReport(report);
 		
-		return true;
+		return redefinition.run(classifiers);
 	}
 	
 }
@@ -27,6 +27,7 @@ package edu.gatech.mbse.plugins.papyrus.redefinition.popup.handlers;
 
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -36,14 +37,22 @@ import org.eclipse.uml2.uml.CallBehaviorAction;
 import org.eclipse.uml2.uml.Classifier;
 import org.eclipse.uml2.uml.Constraint;
 import org.eclipse.uml2.uml.Element;
+import org.eclipse.uml2.uml.Generalization;
 import org.eclipse.uml2.uml.NamedElement;
 import org.eclipse.uml2.uml.ObjectFlow;
-import org.eclipse.uml2.uml.Parameter;
-import org.eclipse.uml2.uml.ParameterDirectionKind;
 import org.eclipse.uml2.uml.Property;
 import org.eclipse.uml2.uml.Stereotype;
 import org.eclipse.uml2.uml.Type;
 
+import edu.gatech.mbse.plugins.papyrus.redefinition.analysis.AnalysisCache;
+import edu.gatech.mbse.plugins.papyrus.redefinition.analysis.ConstraintIndex;
+import edu.gatech.mbse.plugins.papyrus.redefinition.analysis.GeneralizationIndex;
+import edu.gatech.mbse.plugins.papyrus.redefinition.analysis.IdentitySet;
+import edu.gatech.mbse.plugins.papyrus.redefinition.analysis.ResourceQuery;
+import edu.gatech.mbse.plugins.papyrus.redefinition.engine.TraceEvent;
+import edu.gatech.mbse.plugins.papyrus.redefinition.process.ProcessSequence;
+import edu.gatech.mbse.plugins.papyrus.redefinition.process.ProcessSequencer;
+
 /**
  * Helper functions for transformation: these are sterotype specific.
  * 
@@ -66,6 +75,21 @@ public class TransformationHelper {
 	 */
 	public static boolean isResourceRelevant(Element resource, Activity topLevelActivity,
 			Element rootElement) {
+		TraceEvent event = TraceEvent.begin("isResourceRelevant");
+		
+		try {
+			return isResourceRelevant(resource, topLevelActivity, rootElement, event);
+		} finally {
+			if (event.isEnabled())
+				event.classifier(resource instanceof NamedElement ? (NamedElement) resource : null);
+			
+			event.end();
+		}
+	}
+	
+	/** @see TransformationHelper#isResourceRelevant(Element, Activity, Element) */
+	private static boolean isResourceRelevant(Element resource, Activity topLevelActivity,
+			Element rootElement, TraceEvent event) {
 		boolean found = false;
 		
 		ArrayList<Activity> allWPs = TransformationHelper.getWorkingPrinciples(rootElement);
@@ -77,6 +101,8 @@ public class TransformationHelper {
 		// Collect activities - order is not important
 		ArrayList<Activity> activities = collectSubActivities(topLevelActivity);
 		
+		event.visited(activities.size());
+		
 		for (Activity act : activities) {
 		//for (Element cba : topLevelActivity.getOwnedElement()) {
 			//if (cba instanceof CallBehaviorAction) {
@@ -108,16 +134,64 @@ public class TransformationHelper {
 		return found;
 	}
 	
+	/**
+	 * Variant of {@link #isResourceRelevant(Element, Activity, Element)} for repeated queries
+	 * that reuses caller buffers.
+	 * <P>
+	 * The working principles of the model are passed in rather than collected on every call,
+	 * and all intermediate results are written into the given buffers, which are cleared first.
+	 * The UML2 lookups underneath (applied stereotypes, generals, inherited members) still
+	 * create lists of their own.
+	 * 
+	 * @param resource The resource to query for
+	 * @param topLevelActivity The top level activity
+	 * @param workingPrinciples All working principles of the model, see {@link #getWorkingPrinciples(Element)}
+	 * @param buffers Reusable buffers; hold the activities, working principles and resource
+	 * 		types of the process afterwards
+	 * @return <b>true</b> if the resource is relevant, <b>false</b> otherwise
+	 */
+	public static boolean isResourceRelevant(Element resource, Activity topLevelActivity,
+			List<Activity> workingPrinciples, QueryBuffers buffers) {
+		buffers.clear();
+		
+		collectSubActivities(topLevelActivity, buffers.activities);
+		
+		// Relevant to the process if relevant to any of its activities, so the resource types
+		// of all activities can be checked at once
+		for (int i = 0; i < buffers.activities.size(); i++)
+			getWorkingPrinciples(buffers.activities.get(i), workingPrinciples, buffers.workingPrinciples);
+		
+		getResourceTypes(buffers.workingPrinciples, buffers.resources, buffers.skip);
+		
+		if (buffers.resources.contains(resource))
+			return true;
+		
+		for (int i = 0; i < buffers.resources.size(); i++) {
+			Element r = buffers.resources.get(i);
+			
+			if (TransformationHelper.oneBaseClassifierIsSpecificResource(resource, (Classifier) r)
+					|| TransformationHelper.oneBaseClassifierIsSpecificResource(r, (Classifier) resource))
+				return true;
+		}
+		
+		return false;
+	}
+	
 	/**
 	 * Returns the constraints associated with a particular working principle.
 	 * <P>
 	 * This will return all constraints associated with a working principle at any level of
 	 * inheritance.
+	 * <P>
+	 * When the constraints of many working principles are needed, or their specifications are
+	 * to be evaluated, use a {@link ConstraintIndex} instead: it classifies and parses each
+	 * constraint only once, however many working principles inherit it.
 	 * 
 	 * @param workingPrinciple
 	 * @return
 	 */
 	public static ArrayList<Constraint> collectConstraints(Activity workingPrinciple) {
+		TraceEvent event = TraceEvent.begin("collectConstraints").classifier(workingPrinciple);
 		ArrayList<Constraint> constraints = new ArrayList<Constraint>();
 		
 		// Owned constraints
@@ -134,6 +208,11 @@ public class TransformationHelper {
 			}
 		}
 		
+		if (event.isEnabled())
+			event.inherited(workingPrinciple.getInheritedMembers().size()).visited(constraints.size());
+		
+		event.end();
+		
 		return constraints;
 	}
 	
@@ -162,6 +241,35 @@ public class TransformationHelper {
 		return activities;
 	}
 	
+	/**
+	 * Variant of {@link #collectSubActivities(Activity)} that reuses a caller buffer: adds the
+	 * subactivities, each once, to a reusable set.
+	 * 
+	 * @param activity
+	 * @param activities The set to add to
+	 * @return The number of activities added
+	 */
+	public static int collectSubActivities(Activity activity, IdentitySet<Activity> activities) {
+		int before = activities.size();
+		List<Element> owned = activity.getOwnedElements();
+		
+		for (int i = 0; i < owned.size(); i++) {
+			Element cba = owned.get(i);
+			
+			// FIXME The behavior could also be an opaque behavior
+			if (cba instanceof CallBehaviorAction
+					&& ((CallBehaviorAction) cba).getBehavior() instanceof Activity) {
+				Activity subActivity = (Activity) ((CallBehaviorAction) cba).getBehavior();
+				
+				// Also stops at recursive calls
+				if (activities.add(subActivity))
+					collectSubActivities(subActivity, activities);
+			}
+		}
+		
+		return activities.size() - before;
+	}
+	
 	/**
 	 * Returns the non-abstract machining resources.
 	 * 
@@ -191,9 +299,20 @@ public class TransformationHelper {
 		return resources;
 	}
 	
-	/** @see TransformationHelper#getConcreteResources(Element, Activity, Element) */
+	/**
+	 * Returns the non-abstract resources relevant to a process, using the indexes the
+	 * {@link AnalysisCache} keeps for the model.
+	 * 
+	 * @see TransformationHelper#getConcreteResources(Element, Activity, Element)
+	 */
 	public static ArrayList<Element> getConcreteResources(Element rootElement, Activity topLevelActivity) {
-		return getConcreteResources(rootElement, topLevelActivity, rootElement);
+		TraceEvent event = TraceEvent.begin("getConcreteResources").classifier(topLevelActivity);
+		ArrayList<Element> resources = new ArrayList<Element>(ResourceQuery.resources().concrete()
+				.relevantTo(topLevelActivity).execute(rootElement));
+		
+		event.visited(resources.size()).end();
+		
+		return resources;
 	}
 	
 	/**
@@ -225,9 +344,20 @@ public class TransformationHelper {
 		return resources;
 	}
 	
-	/** @see TransformationHelper#getAllResources(Element, Activity, Element) */
+	/**
+	 * Returns the resources relevant to a process, using the indexes the {@link AnalysisCache}
+	 * keeps for the model.
+	 * 
+	 * @see TransformationHelper#getAllResources(Element, Activity, Element)
+	 */
 	public static ArrayList<Element> getAllResources(Element rootElement, Activity topLevelActivity) {
-		return getAllResources(rootElement, topLevelActivity, rootElement);
+		TraceEvent event = TraceEvent.begin("getAllResources").classifier(topLevelActivity);
+		ArrayList<Element> resources = new ArrayList<Element>(ResourceQuery.resources()
+				.relevantTo(topLevelActivity).execute(rootElement));
+		
+		event.visited(resources.size()).end();
+		
+		return resources;
 	}
 	
 	/**
@@ -272,35 +402,67 @@ public class TransformationHelper {
 		return resources;
 	}
 	
+	/**
+	 * Returns the non-abstract machining resources for an abstract resource type, using a
+	 * generalization index instead of searching up from each concrete resource. Same result
+	 * as {@link #getConcreteResourcesForAbstractResourceType(ArrayList, Element)}, with the
+	 * specifics in breadth first order.
+	 * 
+	 * @param concreteResources The concrete resources to consider
+	 * @param abstractResource
+	 * @param index
+	 * @return
+	 */
+	public static ArrayList<Element> getConcreteResourcesForAbstractResourceType(IdentitySet<Element> concreteResources,
+			Element abstractResource, GeneralizationIndex index) {
+		ArrayList<Element> resources = new ArrayList<Element>();
+		
+		if (!(abstractResource instanceof Classifier))
+			return resources;
+		
+		if (!TransformationHelper.isAbstract((Classifier) abstractResource))
+			resources.add(abstractResource);
+		
+		for (Classifier c : index.getConcreteDescendants((Classifier) abstractResource)) {
+			if (c != abstractResource && concreteResources.contains(c))
+				resources.add(c);
+		}
+		
+		return resources;
+	}
+	
 	/**
 	 * Returns an in-order version of the activity.
 	 * <p>
-	 * This function will parse the given activity and follow a workpiece.
+	 * This function will parse the given activity and follow a workpiece. The starting point
+	 * is the parameter node of an IN parameter typed by the workpiece; from there the object
+	 * flow is followed through merges and decisions. Actions on parallel or alternative
+	 * branches are returned one branch after the other, in topological order.
 	 * 
 	 * @param start
 	 * @return
+	 * @see #getInOrderProcessStructure(Activity)
 	 */
 	public static ArrayList<CallBehaviorAction> getInOrderProcess(Activity start) {
-		//TODO For parallel branches, we could simply add an ArrayList<CallBehaviorAction> as an element?
-		ArrayList<CallBehaviorAction> process = new ArrayList<CallBehaviorAction>();
-		
-		// Find starting point - this can be one of two things: an IN parameter, or a
-		// start node
-		for (Parameter p : start.getOwnedParameters()) {
-			if (p.getDirection() == ParameterDirectionKind.IN_LITERAL
-					&& isWorkpiece(p.getType())) {
-				
-			}
-		}
+		TraceEvent event = TraceEvent.begin("getInOrderProcess").classifier(start);
+		ArrayList<CallBehaviorAction> process = new ProcessSequencer(start).getLinearOrder();
 		
-		// Now follow the object flow to the next callbehavioraction (or other element)
-		// 	For merges: take outflow
-		//	For decision points: simulate process to reach condition (note: simple conditions supported only)
-		//		--> use properties of activities
+		event.visited(process.size()).end();
 		
 		return process;
 	}
 	
+	/**
+	 * Returns an in-order version of the activity in which parallel and alternative branches
+	 * are kept as nested groups.
+	 * 
+	 * @param start
+	 * @return
+	 */
+	public static ProcessSequence getInOrderProcessStructure(Activity start) {
+		return new ProcessSequencer(start).getStructuredOrder();
+	}
+	
 	/**
 	 * Collect all working principles in the project.
 	 * 
@@ -322,6 +484,48 @@ public class TransformationHelper {
 		return wps;
 	}
 	
+	/**
+	 * Collect the top level processes in the project: the activities that are neither
+	 * working principles nor called by another activity.
+	 * 
+	 * @param rootElement
+	 * @return
+	 */
+	public static ArrayList<Activity> getTopLevelActivities(Element rootElement) {
+		ArrayList<Activity> activities = new ArrayList<Activity>();
+		collectActivities(rootElement, activities);
+		
+		IdentitySet<Activity> called = new IdentitySet<Activity>();
+		
+		for (Activity a : activities) {
+			for (Element cba : a.getOwnedElements()) {
+				if (cba instanceof CallBehaviorAction
+						&& ((CallBehaviorAction) cba).getBehavior() instanceof Activity
+						&& ((CallBehaviorAction) cba).getBehavior() != a)
+					called.add((Activity) ((CallBehaviorAction) cba).getBehavior());
+			}
+		}
+		
+		ArrayList<Activity> topLevel = new ArrayList<Activity>();
+		
+		for (Activity a : activities) {
+			if (!called.contains(a) && !isWorkingPrinciple(a))
+				topLevel.add(a);
+		}
+		
+		return topLevel;
+	}
+	
+	/** Collects all activities below an element. */
+	private static void collectActivities(Element element, List<Activity> activities) {
+		for (Element e : element.getOwnedElements()) {
+			if (e instanceof Activity)
+				activities.add((Activity) e);
+			
+			collectActivities(e, activities);
+		}
+	}
+	
 	/**
 	 * Returns a list of all working principles associated with a particular
 	 * activity.
@@ -348,6 +552,32 @@ public class TransformationHelper {
 		return wps;
 	}
 	
+	/**
+	 * Variant of {@link #getWorkingPrinciples(Activity, ArrayList)} that reuses a caller
+	 * buffer: adds the working principles associated with an activity to a reusable set.
+	 * 
+	 * @param act
+	 * @param workingPrinciples All working principles of the model
+	 * @param out The set to add to
+	 * @return The number of working principles added
+	 */
+	public static int getWorkingPrinciples(Activity act, List<Activity> workingPrinciples,
+			IdentitySet<Activity> out) {
+		int before = out.size();
+		
+		if (TransformationHelper.isWorkingPrinciple(act))
+			out.add(act);
+		
+		for (int i = 0; i < workingPrinciples.size(); i++) {
+			Activity wp = workingPrinciples.get(i);
+			
+			if (!out.contains(wp) && inherits(wp, act))
+				out.add(wp);
+		}
+		
+		return out.size() - before;
+	}
+	
 	/**
 	 * Returns a list of resources associated with a particular set of working principles
 	 * that are associated with a given activity.
@@ -378,6 +608,46 @@ public class TransformationHelper {
 		return res;
 	}
 	
+	/**
+	 * Variant of {@link #getResourceTypes(ArrayList)} that reuses caller buffers: adds the
+	 * resource types of the working principles, at any level of composition, to a reusable set.
+	 * 
+	 * @param workingPrinciples The working principles
+	 * @param out The set to add to
+	 * @param skip Scratch buffer
+	 * @return The number of resource types added
+	 */
+	public static int getResourceTypes(IdentitySet<Activity> workingPrinciples, IdentitySet<Element> out,
+			IdentitySet<Property> skip) {
+		int before = out.size();
+		
+		for (int i = 0; i < workingPrinciples.size(); i++) {
+			List<Property> attributes = workingPrinciples.get(i).getOwnedAttributes();
+			
+			for (int j = 0; j < attributes.size(); j++) {
+				Type t = attributes.get(j).getType();
+				
+				if (TransformationHelper.isResource(t) && out.add(t))
+					addNestedResourceTypes(t, out, skip);
+			}
+		}
+		
+		return out.size() - before;
+	}
+	
+	/** Depth first search for nested resource types; each type is expanded once. */
+	private static void addNestedResourceTypes(Element resource, IdentitySet<Element> out,
+			IdentitySet<Property> skip) {
+		int from = out.size();
+		
+		getResourceParts(resource, out, skip);
+		
+		int to = out.size();
+		
+		for (int i = from; i < to; i++)
+			addNestedResourceTypes(out.get(i), out, skip);
+	}
+	
 	/**
 	 * Returns a list of resources (potentially with duplicates) that are associated
 	 * with a particular working principle.
@@ -457,6 +727,27 @@ public class TransformationHelper {
 		return isInHierarchy;
 	}
 	
+	/**
+	 * Checks whether a classifier specializes another one at any level, following the
+	 * generalizations directly rather than the derived list of generals.
+	 * 
+	 * @param specific
+	 * @param general
+	 * @return
+	 */
+	private static boolean inherits(Classifier specific, Classifier general) {
+		List<Generalization> generalizations = specific.getGeneralizations();
+		
+		for (int i = 0; i < generalizations.size(); i++) {
+			Classifier g = generalizations.get(i).getGeneral();
+			
+			if (g == general || (g != null && inherits(g, general)))
+				return true;
+		}
+		
+		return false;
+	}
+	
 	/**
 	 * Rebuild the list of associations.
 	 * 
@@ -586,8 +877,10 @@ public class TransformationHelper {
 		if (e == null)
 			return false;
 		
-		for (Stereotype s : e.getAppliedStereotypes())
-			if (s.getName().equals(stereotypeName))
+		List<Stereotype> stereotypes = e.getAppliedStereotypes();
+		
+		for (int i = 0; i < stereotypes.size(); i++)
+			if (stereotypes.get(i).getName().equals(stereotypeName))
 				return true;
 		
 		return false;
@@ -695,7 +988,7 @@ public class TransformationHelper {
 		if (!isResource(e))
 			return false;
 		
-		if (!getResourceParts(e).isEmpty())
+		if (hasResourceParts(e))
 			return true;
 		
 		return false;
@@ -769,6 +1062,76 @@ public class TransformationHelper {
 		return composites;
 	}
 	
+	/**
+	 * Variant of {@link #getResourceParts(Element)} that reuses caller buffers: adds the types
+	 * of the composite parts to a reusable set. {@link Classifier#getInheritedMembers()} still
+	 * builds a new list on every call.
+	 * 
+	 * @param e
+	 * @param out The set to add to
+	 * @param skip Scratch buffer for redefined properties
+	 * @return The number of part types added
+	 */
+	public static int getResourceParts(Element e, IdentitySet<Element> out, IdentitySet<Property> skip) {
+		int before = out.size();
+		
+		skip.clear();
+		
+		List<Element> owned = e.getOwnedElements();
+		
+		for (int i = 0; i < owned.size(); i++)
+			addResourcePart(owned.get(i), out, skip);
+		
+		List<NamedElement> inherited = ((Classifier) e).getInheritedMembers();
+		
+		for (int i = 0; i < inherited.size(); i++)
+			addResourcePart(inherited.get(i), out, skip);
+		
+		return out.size() - before;
+	}
+	
+	/** Adds the type of a resource part, unless the part was redefined. */
+	private static void addResourcePart(Element o, IdentitySet<Element> out, IdentitySet<Property> skip) {
+		if (!(o instanceof Property) || skip.contains(o))
+			return;
+		
+		Property p = (Property) o;
+		
+		if (!isResource(p.getType()))
+			return;
+		
+		out.add(p.getType());
+		
+		List<Property> redefined = p.getRedefinedProperties();
+		
+		for (int i = 0; i < redefined.size(); i++)
+			skip.add(redefined.get(i));
+	}
+	
+	/**
+	 * Checks whether a resource has composite parts, without collecting them.
+	 * 
+	 * @param e
+	 * @return
+	 */
+	public static boolean hasResourceParts(Element e) {
+		List<Element> owned = e.getOwnedElements();
+		
+		for (int i = 0; i < owned.size(); i++) {
+			if (owned.get(i) instanceof Property && isResource(((Property) owned.get(i)).getType()))
+				return true;
+		}
+		
+		List<NamedElement> inherited = ((Classifier) e).getInheritedMembers();
+		
+		for (int i = 0; i < inherited.size(); i++) {
+			if (inherited.get(i) instanceof Property && isResource(((Property) inherited.get(i)).getType()))
+				return true;
+		}
+		
+		return false;
+	}
+	
 	/**
 	 * Checks whether the given property is a SysML value property.
 	 * 
@@ -0,0 +1,186 @@
+/**
+ * Copyright (c) 2015, Model-Based Systems Engineering Center, Georgia Institute of Technology.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ * 
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ * 
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *   
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.gatech.mbse.plugins.papyrus.redefinition.popup.startup;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.emf.edit.domain.EditingDomain;
+import org.eclipse.emf.transaction.TransactionalEditingDomain;
+import org.eclipse.ui.IEditorReference;
+import org.eclipse.ui.IPartListener2;
+import org.eclipse.ui.IStartup;
+import org.eclipse.ui.IWindowListener;
+import org.eclipse.ui.IWorkbench;
+import org.eclipse.ui.IWorkbenchPage;
+import org.eclipse.ui.IWorkbenchPart;
+import org.eclipse.ui.IWorkbenchPartReference;
+import org.eclipse.ui.IWorkbenchWindow;
+import org.eclipse.ui.PlatformUI;
+
+import edu.gatech.mbse.plugins.papyrus.redefinition.Activator;
+import edu.gatech.mbse.plugins.papyrus.redefinition.analysis.AnalysisCache;
+import edu.gatech.mbse.plugins.papyrus.redefinition.engine.WarmUpJob;
+
+/**
+ * Tracks the Papyrus editors, so that the {@link AnalysisCache} drops the contexts of their
+ * models when they are closed. If enabled through the {@link WarmUpJob#PROPERTY} system
+ * property, also schedules a {@link WarmUpJob} whenever a Papyrus editor is opened, and
+ * cancels it when the editor is closed.
+ */
+public class WarmUpStartup implements IStartup, IPartListener2, IWindowListener {
+
+	/** Log4J object. */
+	private static final Logger logger = LogManager.getLogger(WarmUpStartup.class.getName());
+
+	/** ID of the Papyrus editor. */
+	public static final String PAPYRUS_EDITOR_ID = "org.eclipse.papyrus.infra.core.papyrusEditor";
+
+	/** Editing domain of each editor. */
+	private final Map<IWorkbenchPart, TransactionalEditingDomain> domains = new IdentityHashMap<IWorkbenchPart, TransactionalEditingDomain>();
+
+	/** Running warm-up job of each editor. */
+	private final Map<IWorkbenchPart, WarmUpJob> jobs = new IdentityHashMap<IWorkbenchPart, WarmUpJob>();
+
+	@Override
+	public void earlyStartup() {
+		final IWorkbench workbench = PlatformUI.getWorkbench();
+
+		// Listeners are added, and editors looked up, on the UI thread
+		workbench.getDisplay().asyncExec(new Runnable() {
+
+			@Override
+			public void run() {
+				workbench.addWindowListener(WarmUpStartup.this);
+
+				for (IWorkbenchWindow w : workbench.getWorkbenchWindows())
+					windowOpened(w);
+			}
+
+		});
+	}
+
+	@Override
+	public void windowOpened(IWorkbenchWindow window) {
+		for (IWorkbenchPage page : window.getPages()) {
+			page.addPartListener(this);
+
+			// Editors restored with the workbench
+			for (IEditorReference ref : page.getEditorReferences())
+				partOpened(ref);
+		}
+	}
+
+	@Override
+	public void windowClosed(IWorkbenchWindow window) {
+		for (IWorkbenchPage page : window.getPages())
+			page.removePartListener(this);
+	}
+
+	@Override
+	public void partOpened(IWorkbenchPartReference ref) {
+		if (!PAPYRUS_EDITOR_ID.equals(ref.getId()))
+			return;
+
+		IWorkbenchPart part = ref.getPart(false);
+
+		if (part == null || domains.containsKey(part))
+			return;
+
+		Object domain = part.getAdapter(EditingDomain.class);
+
+		if (!(domain instanceof TransactionalEditingDomain)) {
+			logger.debug("No transactional editing domain for " + ref.getId());
+			return;
+		}
+
+		domains.put(part, (TransactionalEditingDomain) domain);
+
+		if (!WarmUpJob.isEnabled())
+			return;
+
+		WarmUpJob job = new WarmUpJob((TransactionalEditingDomain) domain);
+		jobs.put(part, job);
+		job.schedule();
+	}
+
+	@Override
+	public void partClosed(IWorkbenchPartReference ref) {
+		IWorkbenchPart part = ref.getPart(false);
+
+		if (part == null)
+			return;
+
+		WarmUpJob job = jobs.remove(part);
+		TransactionalEditingDomain domain = domains.remove(part);
+
+		if (job != null)
+			job.cancel();
+
+		// The contexts would keep the elements of the closed models alive
+		Activator plugin = Activator.getDefault();
+
+		if (domain != null && plugin != null && plugin.getAnalysisCache() != null)
+			plugin.getAnalysisCache().remove(domain);
+	}
+
+	@Override
+	public void partActivated(IWorkbenchPartReference ref) {
+	}
+
+	@Override
+	public void partBroughtToTop(IWorkbenchPartReference ref) {
+	}
+
+	@Override
+	public void partDeactivated(IWorkbenchPartReference ref) {
+	}
+
+	@Override
+	public void partHidden(IWorkbenchPartReference ref) {
+	}
+
+	@Override
+	public void partVisible(IWorkbenchPartReference ref) {
+		// Editors restored lazily are only created when they become visible
+		partOpened(ref);
+	}
+
+	@Override
+	public void partInputChanged(IWorkbenchPartReference ref) {
+	}
+
+	@Override
+	public void windowActivated(IWorkbenchWindow window) {
+	}
+
+	@Override
+	public void windowDeactivated(IWorkbenchWindow window) {
+	}
+
+}
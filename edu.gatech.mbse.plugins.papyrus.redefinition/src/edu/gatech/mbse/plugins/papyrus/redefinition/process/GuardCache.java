@@ -0,0 +1,156 @@
+/**
+ * Copyright (c) 2015, Model-Based Systems Engineering Center, Georgia Institute of Technology.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ * 
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ * 
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *   
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.gatech.mbse.plugins.papyrus.redefinition.process;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.uml2.uml.ActivityEdge;
+import org.eclipse.uml2.uml.LiteralBoolean;
+import org.eclipse.uml2.uml.OpaqueExpression;
+import org.eclipse.uml2.uml.ValueSpecification;
+
+import edu.gatech.mbse.plugins.papyrus.redefinition.expressions.Expression;
+import edu.gatech.mbse.plugins.papyrus.redefinition.expressions.ExpressionParseException;
+import edu.gatech.mbse.plugins.papyrus.redefinition.expressions.ExpressionParser;
+import edu.gatech.mbse.plugins.papyrus.redefinition.expressions.SymbolTable;
+
+/**
+ * Compiled guards of activity edges, parsed once per edge.
+ * <p>
+ * A missing guard is always true, and a guard of <code>else</code> is represented by
+ * {@link #ELSE}. Guards that cannot be parsed are logged once and treated as false, so the
+ * corresponding branch is never taken.
+ * <p>
+ * The cache is thread safe; it is meant to be shared by all simulations of a model.
+ */
+public class GuardCache {
+
+	/** Log4J object. */
+	private static final Logger logger = LogManager.getLogger(GuardCache.class.getName());
+
+	/** Marker for an <code>else</code> guard. */
+	public static final Expression ELSE = new Expression.Constant(0.0);
+
+	/** Compiled guards, by edge. */
+	private final ConcurrentMap<ActivityEdge, Expression> guards = new ConcurrentHashMap<ActivityEdge, Expression>();
+
+	/** The symbol table the guards are compiled against. */
+	private final SymbolTable symbols;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param symbols
+	 */
+	public GuardCache(SymbolTable symbols) {
+		this.symbols = symbols;
+	}
+
+	/** @return The symbol table the guards are compiled against */
+	public SymbolTable getSymbols() {
+		return symbols;
+	}
+
+	/**
+	 * Returns the compiled guard of an edge.
+	 * 
+	 * @param edge
+	 * @return
+	 */
+	public Expression getGuard(ActivityEdge edge) {
+		Expression guard = guards.get(edge);
+
+		if (guard == null) {
+			guard = compile(edge);
+
+			Expression existing = guards.putIfAbsent(edge, guard);
+
+			if (existing != null)
+				guard = existing;
+		}
+
+		return guard;
+	}
+
+	/** Forgets the compiled guard of an edge, e.g. after it has been edited. */
+	public void invalidate(ActivityEdge edge) {
+		guards.remove(edge);
+	}
+
+	/** Forgets all compiled guards. */
+	public void clear() {
+		guards.clear();
+	}
+
+	/**
+	 * Compiles the guard of an edge.
+	 * 
+	 * @param edge
+	 * @return
+	 */
+	private Expression compile(ActivityEdge edge) {
+		ValueSpecification spec = edge.getGuard();
+
+		if (spec == null)
+			return Expression.TRUE;
+
+		if (spec instanceof LiteralBoolean)
+			return ((LiteralBoolean) spec).isValue() ? Expression.TRUE : Expression.FALSE;
+
+		String body = null;
+
+		if (spec instanceof OpaqueExpression) {
+			if (!((OpaqueExpression) spec).getBodies().isEmpty())
+				body = ((OpaqueExpression) spec).getBodies().get(0);
+		} else {
+			body = spec.stringValue();
+		}
+
+		if (body == null || body.trim().length() == 0)
+			return Expression.TRUE;
+
+		String trimmed = body.trim();
+
+		// Guards are often written in brackets, as shown on diagrams
+		if (trimmed.startsWith("[") && trimmed.endsWith("]"))
+			trimmed = trimmed.substring(1, trimmed.length() - 1).trim();
+
+		if ("else".equalsIgnoreCase(trimmed))
+			return ELSE;
+
+		try {
+			return new ExpressionParser(symbols).parse(trimmed);
+		} catch (ExpressionParseException e) {
+			logger.warn("Guard of " + edge.getName() + " cannot be evaluated, branch will not be taken: " + e.getMessage());
+
+			return Expression.FALSE;
+		}
+	}
+
+}
@@ -0,0 +1,228 @@
+/**
+ * Copyright (c) 2015, Model-Based Systems Engineering Center, Georgia Institute of Technology.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ * 
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ * 
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *   
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.gatech.mbse.plugins.papyrus.redefinition.process;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.uml2.uml.Action;
+import org.eclipse.uml2.uml.Activity;
+import org.eclipse.uml2.uml.ActivityNode;
+import org.eclipse.uml2.uml.ActivityParameterNode;
+import org.eclipse.uml2.uml.Element;
+import org.eclipse.uml2.uml.ObjectFlow;
+import org.eclipse.uml2.uml.Parameter;
+import org.eclipse.uml2.uml.ParameterDirectionKind;
+import org.eclipse.uml2.uml.Pin;
+
+import edu.gatech.mbse.plugins.papyrus.redefinition.popup.handlers.TransformationHelper;
+
+/**
+ * Adjacency index over the object flows of an activity, keyed by source node.
+ * <p>
+ * Pins are folded into the action that owns them, so that following the flow from one
+ * action to the next is a single lookup rather than a scan over all object flows of the
+ * activity. The index is built once in O(E) and is read-only afterwards.
+ */
+public class ObjectFlowIndex {
+
+	/** Outgoing object flows, keyed by (normalized) source node. */
+	private final Map<ActivityNode, List<ObjectFlow>> outgoing = new IdentityHashMap<ActivityNode, List<ObjectFlow>>();
+
+	/** Number of incoming object flows, keyed by (normalized) target node. */
+	private final Map<ActivityNode, int[]> incoming = new IdentityHashMap<ActivityNode, int[]>();
+
+	/** The activity this index was built for. */
+	private final Activity activity;
+
+	/**
+	 * Builds the index from the object flows of the given activity, as collected by
+	 * {@link TransformationHelper#rebuildObjectFlowList(Element)}.
+	 * 
+	 * @param activity The activity to index
+	 */
+	public ObjectFlowIndex(Activity activity) {
+		this.activity = activity;
+
+		for (ObjectFlow flow : TransformationHelper.rebuildObjectFlowList(activity)) {
+			ActivityNode source = normalize(flow.getSource());
+			ActivityNode target = normalize(flow.getTarget());
+
+			if (source == null || target == null)
+				continue;
+
+			List<ObjectFlow> flows = outgoing.get(source);
+
+			if (flows == null) {
+				flows = new ArrayList<ObjectFlow>(2);
+				outgoing.put(source, flows);
+			}
+
+			flows.add(flow);
+
+			int[] count = incoming.get(target);
+
+			if (count == null) {
+				count = new int[1];
+				incoming.put(target, count);
+			}
+
+			count[0]++;
+		}
+	}
+
+	/**
+	 * Maps a pin to the action that owns it; any other node is returned unchanged.
+	 * 
+	 * @param node
+	 * @return
+	 */
+	public static ActivityNode normalize(ActivityNode node) {
+		if (node instanceof Pin
+				&& node.getOwner() instanceof Action)
+			return (ActivityNode) node.getOwner();
+
+		return node;
+	}
+
+	/**
+	 * Returns the object flows leaving the given node (or any of its pins).
+	 * 
+	 * @param node
+	 * @return An unmodifiable list, empty if there are none
+	 */
+	public List<ObjectFlow> getOutgoing(ActivityNode node) {
+		List<ObjectFlow> flows = outgoing.get(node);
+
+		if (flows == null)
+			return Collections.emptyList();
+
+		return Collections.unmodifiableList(flows);
+	}
+
+	/**
+	 * Returns the target of an object flow, folded into its owning action.
+	 * 
+	 * @param flow
+	 * @return
+	 */
+	public ActivityNode getTarget(ObjectFlow flow) {
+		return normalize(flow.getTarget());
+	}
+
+	/**
+	 * Returns the number of object flows entering the given node (or any of its pins).
+	 * 
+	 * @param node
+	 * @return
+	 */
+	public int getIncomingCount(ActivityNode node) {
+		int[] count = incoming.get(node);
+
+		return count == null ? 0 : count[0];
+	}
+
+	/**
+	 * Returns the nodes at which the workpiece enters the activity.
+	 * <p>
+	 * These are the activity parameter nodes of IN parameters typed by the workpiece. If
+	 * there are none, all IN parameter nodes are used, and as a last resort all nodes that
+	 * have outgoing but no incoming object flows.
+	 * 
+	 * @return
+	 */
+	public List<ActivityNode> getStartNodes() {
+		List<ActivityNode> workpieceNodes = new ArrayList<ActivityNode>();
+		List<ActivityNode> parameterNodes = new ArrayList<ActivityNode>();
+
+		for (ActivityNode node : outgoing.keySet()) {
+			if (node instanceof ActivityParameterNode) {
+				Parameter p = ((ActivityParameterNode) node).getParameter();
+
+				if (p != null
+						&& p.getDirection() == ParameterDirectionKind.IN_LITERAL) {
+					parameterNodes.add(node);
+
+					if (TransformationHelper.isWorkpiece(p.getType()))
+						workpieceNodes.add(node);
+				}
+			}
+		}
+
+		if (!workpieceNodes.isEmpty())
+			return sortByOwnership(workpieceNodes);
+
+		if (!parameterNodes.isEmpty())
+			return sortByOwnership(parameterNodes);
+
+		List<ActivityNode> sources = new ArrayList<ActivityNode>();
+
+		for (ActivityNode node : outgoing.keySet()) {
+			if (getIncomingCount(node) == 0)
+				sources.add(node);
+		}
+
+		return sortByOwnership(sources);
+	}
+
+	/** @return The activity this index was built for */
+	public Activity getActivity() {
+		return activity;
+	}
+
+	/**
+	 * Puts the given nodes into the order in which they are owned by the activity, so that
+	 * the result does not depend on identity hash ordering.
+	 */
+	private List<ActivityNode> sortByOwnership(List<ActivityNode> nodes) {
+		if (nodes.size() < 2)
+			return nodes;
+
+		Map<ActivityNode, Boolean> wanted = new IdentityHashMap<ActivityNode, Boolean>();
+
+		for (ActivityNode n : nodes)
+			wanted.put(n, Boolean.TRUE);
+
+		List<ActivityNode> sorted = new ArrayList<ActivityNode>(nodes.size());
+
+		for (ActivityNode n : activity.getOwnedNodes()) {
+			if (wanted.remove(n) != null)
+				sorted.add(n);
+		}
+
+		// Anything not directly owned by the activity (e.g. nested in a group) goes last
+		for (ActivityNode n : nodes) {
+			if (wanted.containsKey(n))
+				sorted.add(n);
+		}
+
+		return sorted;
+	}
+
+}
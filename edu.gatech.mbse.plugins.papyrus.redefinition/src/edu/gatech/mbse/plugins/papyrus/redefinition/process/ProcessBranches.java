@@ -0,0 +1,117 @@
+/**
+ * Copyright (c) 2015, Model-Based Systems Engineering Center, Georgia Institute of Technology.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ * 
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ * 
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *   
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.gatech.mbse.plugins.papyrus.redefinition.process;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.uml2.uml.ActivityNode;
+import org.eclipse.uml2.uml.CallBehaviorAction;
+
+/**
+ * A group of branches that leave the same node and (usually) come together again.
+ * <p>
+ * Branches leaving a fork node, or leaving an action through several object flows, are
+ * {@link Kind#PARALLEL}. Branches leaving a decision node are {@link Kind#ALTERNATIVE}: only
+ * one of them is taken for a given workpiece.
+ */
+public class ProcessBranches implements ProcessElement {
+
+	/** How the branches relate to each other. */
+	public enum Kind {
+		/** All branches are performed. */
+		PARALLEL,
+		/** Exactly one branch is performed, depending on the guards. */
+		ALTERNATIVE
+	}
+
+	/** Kind of branching. */
+	private final Kind kind;
+
+	/** The node the branches leave from. */
+	private final ActivityNode split;
+
+	/** The node the branches come together in, if any. */
+	private ActivityNode join = null;
+
+	/** The branches, in the order of the outgoing edges of the split node. */
+	private final List<ProcessSequence> branches = new ArrayList<ProcessSequence>();
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param kind
+	 * @param split
+	 */
+	public ProcessBranches(Kind kind, ActivityNode split) {
+		this.kind = kind;
+		this.split = split;
+	}
+
+	/** Adds a branch. */
+	void add(ProcessSequence branch) {
+		branches.add(branch);
+	}
+
+	/** Sets the node the branches come together in. */
+	void setJoin(ActivityNode join) {
+		this.join = join;
+	}
+
+	/** @return The kind of branching */
+	public Kind getKind() {
+		return kind;
+	}
+
+	/** @return The node the branches leave from */
+	public ActivityNode getSplit() {
+		return split;
+	}
+
+	/** @return The node the branches come together in, or <b>null</b> if they do not */
+	public ActivityNode getJoin() {
+		return join;
+	}
+
+	/** @return The branches */
+	public List<ProcessSequence> getBranches() {
+		return Collections.unmodifiableList(branches);
+	}
+
+	/** @see ProcessElement#flatten(List) */
+	@Override
+	public void flatten(List<CallBehaviorAction> actions) {
+		for (ProcessSequence b : branches)
+			b.flatten(actions);
+	}
+
+	@Override
+	public String toString() {
+		return kind + branches.toString();
+	}
+
+}
@@ -0,0 +1,109 @@
+/**
+ * Copyright (c) 2015, Model-Based Systems Engineering Center, Georgia Institute of Technology.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ * 
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ * 
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *   
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.gatech.mbse.plugins.papyrus.redefinition.process;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.eclipse.uml2.uml.ActivityEdge;
+import org.eclipse.uml2.uml.CallBehaviorAction;
+
+/**
+ * An ordered sequence of process elements.
+ * <p>
+ * The top level sequence of a process has no entry edge. Sequences that are branches of a
+ * {@link ProcessBranches} group know the edge they were entered through, so that guards of
+ * decision nodes can be looked up.
+ */
+public class ProcessSequence implements ProcessElement, Iterable<ProcessElement> {
+
+	/** The edge this sequence is entered through, if it is a branch. */
+	private final ActivityEdge entry;
+
+	/** The elements in order. */
+	private final List<ProcessElement> elements = new ArrayList<ProcessElement>();
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param entry The edge this sequence is entered through, or <b>null</b> for the top level
+	 */
+	public ProcessSequence(ActivityEdge entry) {
+		this.entry = entry;
+	}
+
+	/** Appends an element to this sequence. */
+	void add(ProcessElement element) {
+		elements.add(element);
+	}
+
+	/** @return The edge this sequence is entered through, or <b>null</b> */
+	public ActivityEdge getEntry() {
+		return entry;
+	}
+
+	/** @return The elements of this sequence, in order */
+	public List<ProcessElement> getElements() {
+		return Collections.unmodifiableList(elements);
+	}
+
+	/** @return <b>true</b> if the sequence does not contain any element */
+	public boolean isEmpty() {
+		return elements.isEmpty();
+	}
+
+	/** @see ProcessElement#flatten(List) */
+	@Override
+	public void flatten(List<CallBehaviorAction> actions) {
+		for (ProcessElement e : elements)
+			e.flatten(actions);
+	}
+
+	/**
+	 * Returns all call behavior actions of the sequence, in order.
+	 * 
+	 * @return
+	 */
+	public ArrayList<CallBehaviorAction> flatten() {
+		ArrayList<CallBehaviorAction> actions = new ArrayList<CallBehaviorAction>();
+		flatten(actions);
+
+		return actions;
+	}
+
+	@Override
+	public Iterator<ProcessElement> iterator() {
+		return getElements().iterator();
+	}
+
+	@Override
+	public String toString() {
+		return elements.toString();
+	}
+
+}
@@ -0,0 +1,230 @@
+/**
+ * Copyright (c) 2015, Model-Based Systems Engineering Center, Georgia Institute of Technology.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ * 
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ * 
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *   
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.gatech.mbse.plugins.papyrus.redefinition.process;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.uml2.uml.Activity;
+import org.eclipse.uml2.uml.ActivityNode;
+import org.eclipse.uml2.uml.CallBehaviorAction;
+import org.eclipse.uml2.uml.DecisionNode;
+import org.eclipse.uml2.uml.ObjectFlow;
+
+/**
+ * Follows the workpiece object flow through an activity and puts its call behavior actions
+ * in order.
+ * <p>
+ * Both orderings offered here visit every node and every object flow at most once, using
+ * the {@link ObjectFlowIndex} to find the successors of a node, and are therefore linear in
+ * the size of the activity:
+ * <ul>
+ * <li>{@link #getLinearOrder()} returns a topological order of the actions (back edges of
+ * loops are ignored).</li>
+ * <li>{@link #getStructuredOrder()} returns the process as a nested {@link ProcessSequence},
+ * where parallel and alternative branches are kept as {@link ProcessBranches} groups.</li>
+ * </ul>
+ * Merge and join nodes close the innermost open group of branches; at the top level they are
+ * simply passed through.
+ */
+public class ProcessSequencer {
+
+	/** Log4J object. */
+	private static final Logger logger = LogManager.getLogger(ProcessSequencer.class.getName());
+
+	/** The object flow index of the activity. */
+	private final ObjectFlowIndex index;
+
+	/** Nodes already placed in the structured order. */
+	private final Map<ActivityNode, Boolean> visited = new IdentityHashMap<ActivityNode, Boolean>();
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param activity The activity to sequence
+	 */
+	public ProcessSequencer(Activity activity) {
+		this(new ObjectFlowIndex(activity));
+	}
+
+	/**
+	 * Constructor, reusing an existing index.
+	 * 
+	 * @param index
+	 */
+	public ProcessSequencer(ObjectFlowIndex index) {
+		this.index = index;
+	}
+
+	/** @return The object flow index used by this sequencer */
+	public ObjectFlowIndex getIndex() {
+		return index;
+	}
+
+	/**
+	 * Returns the call behavior actions reachable from the start nodes in topological order.
+	 * <p>
+	 * This is the reverse post-order of an iterative depth first search, so deep processes do
+	 * not exhaust the stack.
+	 * 
+	 * @return
+	 */
+	public ArrayList<CallBehaviorAction> getLinearOrder() {
+		Map<ActivityNode, Boolean> seen = new IdentityHashMap<ActivityNode, Boolean>();
+		List<ActivityNode> postOrder = new ArrayList<ActivityNode>();
+
+		// Stack of nodes with the index of the next outgoing flow to follow
+		Deque<ActivityNode> nodes = new ArrayDeque<ActivityNode>();
+		Deque<int[]> next = new ArrayDeque<int[]>();
+
+		for (ActivityNode start : index.getStartNodes()) {
+			if (seen.put(start, Boolean.TRUE) != null)
+				continue;
+
+			nodes.push(start);
+			next.push(new int[] { 0 });
+
+			while (!nodes.isEmpty()) {
+				ActivityNode node = nodes.peek();
+				int[] i = next.peek();
+				List<ObjectFlow> outgoing = index.getOutgoing(node);
+
+				if (i[0] < outgoing.size()) {
+					ActivityNode target = index.getTarget(outgoing.get(i[0]++));
+
+					if (target != null && seen.put(target, Boolean.TRUE) == null) {
+						nodes.push(target);
+						next.push(new int[] { 0 });
+					}
+				} else {
+					postOrder.add(nodes.pop());
+					next.pop();
+				}
+			}
+		}
+
+		ArrayList<CallBehaviorAction> process = new ArrayList<CallBehaviorAction>();
+
+		for (int i = postOrder.size() - 1; i >= 0; i--) {
+			if (postOrder.get(i) instanceof CallBehaviorAction)
+				process.add((CallBehaviorAction) postOrder.get(i));
+		}
+
+		return process;
+	}
+
+	/**
+	 * Returns the process as a nested sequence.
+	 * <p>
+	 * If the activity has several start nodes, the process of each is appended to the top
+	 * level sequence in turn.
+	 * 
+	 * @return
+	 */
+	public ProcessSequence getStructuredOrder() {
+		visited.clear();
+
+		ProcessSequence process = new ProcessSequence(null);
+
+		for (ActivityNode start : index.getStartNodes())
+			walk(start, process, 0);
+
+		return process;
+	}
+
+	/**
+	 * Follows the object flow from the given node, appending to the given sequence.
+	 * 
+	 * @param node The node to start from
+	 * @param into The sequence to append to
+	 * @param depth Number of enclosing groups of branches
+	 * @return The merge or join node the walk stopped at, or <b>null</b> if the flow ended
+	 */
+	private ActivityNode walk(ActivityNode node, ProcessSequence into, int depth) {
+		ActivityNode current = node;
+		boolean passThrough = false;
+
+		while (current != null) {
+			// A node with several incoming flows closes the enclosing group of branches
+			if (depth > 0
+					&& !passThrough
+					&& index.getIncomingCount(current) > 1)
+				return current;
+
+			passThrough = false;
+
+			if (visited.put(current, Boolean.TRUE) != null) {
+				logger.trace("Flow returns to " + current.getName() + " - not following loop");
+				return null;
+			}
+
+			if (current instanceof CallBehaviorAction)
+				into.add(new ProcessStep((CallBehaviorAction) current));
+
+			List<ObjectFlow> outgoing = index.getOutgoing(current);
+
+			if (outgoing.isEmpty())
+				return null;
+
+			if (outgoing.size() == 1) {
+				current = index.getTarget(outgoing.get(0));
+				continue;
+			}
+
+			// Split: each outgoing flow becomes a branch
+			ProcessBranches branches = new ProcessBranches(
+					current instanceof DecisionNode ? ProcessBranches.Kind.ALTERNATIVE : ProcessBranches.Kind.PARALLEL,
+					current);
+			ActivityNode join = null;
+
+			for (ObjectFlow flow : outgoing) {
+				ProcessSequence branch = new ProcessSequence(flow);
+				ActivityNode reached = walk(index.getTarget(flow), branch, depth + 1);
+
+				if (join == null)
+					join = reached;
+
+				branches.add(branch);
+			}
+
+			branches.setJoin(join);
+			into.add(branches);
+
+			// Continue after the node the branches come together in
+			current = join;
+			passThrough = true;
+		}
+
+		return null;
+	}
+
+}
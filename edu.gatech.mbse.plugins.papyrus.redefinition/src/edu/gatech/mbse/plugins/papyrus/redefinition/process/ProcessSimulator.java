@@ -0,0 +1,271 @@
+/**
+ * Copyright (c) 2015, Model-Based Systems Engineering Center, Georgia Institute of Technology.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ * 
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ * 
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *   
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.gatech.mbse.plugins.papyrus.redefinition.process;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.uml2.uml.Activity;
+import org.eclipse.uml2.uml.Behavior;
+import org.eclipse.uml2.uml.CallBehaviorAction;
+import org.eclipse.uml2.uml.LiteralBoolean;
+import org.eclipse.uml2.uml.Property;
+import org.eclipse.uml2.uml.ValueSpecification;
+
+import edu.gatech.mbse.plugins.papyrus.redefinition.expressions.Expression;
+import edu.gatech.mbse.plugins.papyrus.redefinition.expressions.SymbolTable;
+
+/**
+ * Simulates a process for given property values in order to resolve its decision points.
+ * <p>
+ * All guards of the process are compiled once, when the simulator is created; simulating a
+ * configuration afterwards only evaluates the compiled guards, so that many thousands of
+ * property configurations can be pushed through the same process. For an alternative group
+ * the first branch whose guard holds is taken, or the <code>else</code> branch if none
+ * does. Parallel branches are all taken, one after the other. If no branch of an alternative
+ * group can be taken, the simulation stops there, at every level of nesting.
+ * <p>
+ * A simulator is read-only once created and may be used from several threads.
+ */
+public class ProcessSimulator {
+
+	/** The structured process being simulated. */
+	private final ProcessSequence process;
+
+	/** Compiled guards of the process. */
+	private final GuardCache guards;
+
+	/** Guards of the branches of each alternative group, in branch order. */
+	private final Map<ProcessBranches, Expression[]> compiled = new IdentityHashMap<ProcessBranches, Expression[]>();
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param activity The activity to simulate
+	 */
+	public ProcessSimulator(Activity activity) {
+		this(new ProcessSequencer(activity).getStructuredOrder(), new GuardCache(new SymbolTable()));
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param process The structured process, see {@link ProcessSequencer#getStructuredOrder()}
+	 * @param guards The guard cache to compile guards with, typically shared per model
+	 */
+	public ProcessSimulator(ProcessSequence process, GuardCache guards) {
+		this.process = process;
+		this.guards = guards;
+
+		compile(process);
+	}
+
+	/** @return The symbol table of the guards, for building property configurations */
+	public SymbolTable getSymbols() {
+		return guards.getSymbols();
+	}
+
+	/** @return The structured process being simulated */
+	public ProcessSequence getProcess() {
+		return process;
+	}
+
+	/**
+	 * Returns a configuration with the default values of the properties of the given activity
+	 * and of the behaviors it calls. Properties of called behaviors are available under their
+	 * plain name and as <code>behavior.property</code>.
+	 * 
+	 * @param activity
+	 * @return
+	 */
+	public double[] getDefaultValues(Activity activity) {
+		SymbolTable symbols = getSymbols();
+		double[] values = symbols.newValues();
+
+		setDefaults(activity, null, values);
+
+		for (CallBehaviorAction action : process.flatten()) {
+			Behavior b = action.getBehavior();
+
+			if (b != null)
+				setDefaults(b, b.getName(), values);
+		}
+
+		return values;
+	}
+
+	/**
+	 * Simulates the process for one configuration.
+	 * 
+	 * @param values Property values, by slot of {@link #getSymbols()}
+	 * @return The actions performed, in order
+	 */
+	public ArrayList<CallBehaviorAction> simulate(double[] values) {
+		ArrayList<CallBehaviorAction> path = new ArrayList<CallBehaviorAction>();
+		simulate(process, values, path);
+
+		return path;
+	}
+
+	/**
+	 * Simulates the process for many configurations and returns the distinct paths taken.
+	 * 
+	 * @param configurations Property values, by slot of {@link #getSymbols()}
+	 * @return The distinct paths, in the order they were first reached, with the number of
+	 * 		configurations that lead to each
+	 */
+	public Map<List<CallBehaviorAction>, Integer> enumeratePaths(Iterable<double[]> configurations) {
+		Map<List<CallBehaviorAction>, Integer> paths = new LinkedHashMap<List<CallBehaviorAction>, Integer>();
+		ArrayList<CallBehaviorAction> path = new ArrayList<CallBehaviorAction>();
+
+		for (double[] values : configurations) {
+			path.clear();
+			simulate(process, values, path);
+
+			Integer count = paths.get(path);
+
+			// Only copy the path if it has not been seen before
+			if (count == null)
+				paths.put(new ArrayList<CallBehaviorAction>(path), Integer.valueOf(1));
+			else
+				paths.put(path, Integer.valueOf(count.intValue() + 1));
+		}
+
+		return paths;
+	}
+
+	/**
+	 * Appends the actions performed in a sequence to the path.
+	 * 
+	 * @return <b>false</b> if the simulation stopped, because no branch of an alternative
+	 * 		group could be taken
+	 */
+	private boolean simulate(ProcessSequence sequence, double[] values, List<CallBehaviorAction> path) {
+		for (ProcessElement e : sequence.getElements()) {
+			if (e instanceof ProcessStep) {
+				path.add(((ProcessStep) e).getAction());
+			} else if (e instanceof ProcessBranches) {
+				ProcessBranches branches = (ProcessBranches) e;
+
+				if (branches.getKind() == ProcessBranches.Kind.PARALLEL) {
+					for (ProcessSequence b : branches.getBranches()) {
+						if (!simulate(b, values, path))
+							return false;
+					}
+				} else {
+					ProcessSequence taken = choose(branches, values);
+
+					// No branch can be taken: the workpiece does not get any further
+					if (taken == null || !simulate(taken, values, path))
+						return false;
+				}
+			} else if (e instanceof ProcessSequence) {
+				if (!simulate((ProcessSequence) e, values, path))
+					return false;
+			}
+		}
+
+		return true;
+	}
+
+	/** Returns the branch of an alternative group taken for the given values. */
+	private ProcessSequence choose(ProcessBranches branches, double[] values) {
+		Expression[] conditions = compiled.get(branches);
+		List<ProcessSequence> candidates = branches.getBranches();
+		ProcessSequence otherwise = null;
+
+		for (int i = 0; i < conditions.length; i++) {
+			if (conditions[i] == GuardCache.ELSE)
+				otherwise = candidates.get(i);
+			else if (conditions[i].test(values))
+				return candidates.get(i);
+		}
+
+		return otherwise;
+	}
+
+	/** Compiles the guards of all alternative groups in a sequence. */
+	private void compile(ProcessSequence sequence) {
+		for (ProcessElement e : sequence.getElements()) {
+			if (e instanceof ProcessBranches) {
+				ProcessBranches branches = (ProcessBranches) e;
+				List<ProcessSequence> candidates = branches.getBranches();
+				Expression[] conditions = new Expression[candidates.size()];
+
+				for (int i = 0; i < conditions.length; i++) {
+					ProcessSequence b = candidates.get(i);
+
+					conditions[i] = b.getEntry() == null ? Expression.TRUE : guards.getGuard(b.getEntry());
+					compile(b);
+				}
+
+				compiled.put(branches, conditions);
+			} else if (e instanceof ProcessSequence) {
+				compile((ProcessSequence) e);
+			}
+		}
+	}
+
+	/** Sets the default values of the owned attributes of a behavior. */
+	private void setDefaults(Behavior behavior, String prefix, double[] values) {
+		SymbolTable symbols = getSymbols();
+
+		for (Property p : behavior.getOwnedAttributes()) {
+			ValueSpecification spec = p.getDefaultValue();
+
+			if (spec == null || p.getName() == null)
+				continue;
+
+			double value = toValue(spec, symbols);
+
+			symbols.set(values, p.getName(), value);
+
+			if (prefix != null)
+				symbols.set(values, prefix + "." + p.getName(), value);
+		}
+	}
+
+	/** Converts a value specification to a value. */
+	private static double toValue(ValueSpecification spec, SymbolTable symbols) {
+		if (spec instanceof LiteralBoolean)
+			return ((LiteralBoolean) spec).isValue() ? 1.0 : 0.0;
+
+		String s = spec.stringValue();
+
+		if (s == null)
+			return Double.NaN;
+
+		try {
+			return Double.parseDouble(s.trim());
+		} catch (NumberFormatException e) {
+			return symbols.code(s.trim());
+		}
+	}
+
+}